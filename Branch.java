@@ -0,0 +1,348 @@
+import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+// A lightweight branch of a repository's history. A branch is a head
+// pointer onto a chain of commits that is shared with every branch forked
+// from it, so forking costs the same however long the history is and
+// keeps no copy of it. Commits that are shared are never relinked:
+// committing only adds on top, dropping hides a commit from this branch
+// alone, and merging copies just the commits made since the two branches
+// split before merging them by timestamp with synchronize's merge.
+//
+// Each branch remembers only what changed on it: the IDs it added and the
+// IDs it dropped, each with a sequence number from its family of
+// branches. What a branch holds is what it added and what its parent held
+// when it was forked, less what it dropped, so lookups go up one parent
+// per level of forking. Branches are not thread-safe.
+//
+// Reading a history does not look every commit up that way: the IDs a
+// branch has dropped are gathered once and kept until anything in the
+// family changes. The depths used to find where two branches split are
+// held weakly, so commits no branch can reach any more, such as those a
+// merge replaced with copies, are not kept alive by them.
+public class Branch {
+    private final Family family;
+    private final String name;
+    private final Branch parent;
+    private final long forkedAt;
+    private final Map<String, Long> added;
+    private final Map<String, Long> dropped;
+    private Repository.Commit head;
+    private int size;
+    private long lastFork;
+    private Set<String> hidden;
+    private long hiddenAt;
+
+    // Constructs a root branch with the given name (P) and moves every
+    // commit of the given repository into it, leaving the repository empty
+    // as if it had been synchronized into another (B). Drops the repository
+    // was keeping for undrop are made final first. Throws an
+    // IllegalArgumentException if the name is null or empty (E).
+    public Branch(String name, Repository repo) {
+        this(new Family(repo), name, null, 0, null, 0);
+        repo.purge(Long.MAX_VALUE, Integer.MAX_VALUE);
+        head = repo.takeAll();
+        List<Repository.Commit> chain = new ArrayList<>();
+        for (Repository.Commit curr = head; curr != null; curr = curr.past) {
+            chain.add(curr);
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            Repository.Commit commit = chain.get(i);
+            family.depth.put(commit, chain.size() - i);
+            added.put(commit.id, family.next());
+        }
+        size = chain.size();
+    }
+
+    // Constructs a branch of the given family with the given name, parent,
+    // sequence number it was forked at, head and size (P) (B).
+    private Branch(Family family, String name, Branch parent, long forkedAt,
+                   Repository.Commit head, int size) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Invalid Name: Empty or null");
+        }
+        this.family = family;
+        this.name = name;
+        this.parent = parent;
+        this.forkedAt = forkedAt;
+        this.added = new HashMap<>();
+        this.dropped = new HashMap<>();
+        this.head = head;
+        this.size = size;
+        this.lastFork = -1;
+        this.hiddenAt = -1;
+    }
+
+    // Returns the name of this branch (B, R).
+    public String getName() {
+        return name;
+    }
+
+    // Takes a name (P) and returns a new branch starting from this
+    // branch's current history, sharing all of it (R). Later changes to
+    // either branch are not seen by the other. Throws an
+    // IllegalArgumentException if the name is null or empty (E).
+    public Branch fork(String name) {
+        lastFork = family.next();
+        return new Branch(family, name, this, lastFork, head, size);
+    }
+
+    // Creates a new commit on this branch (B), given a representative
+    // message for the commit (P). Returns the ID of the created commit (R).
+    public String commit(String message) {
+        head = family.home.newCommit(message, head);
+        family.depth.put(head, depth(head.past) + 1);
+        added.put(head.id, family.next());
+        size++;
+        return head.id;
+    }
+
+    // Returns the ID of the current head of this branch (B, R).
+    // Returns null if no commits (R).
+    public String getRepoHead() {
+        Repository.Commit visible = skipDropped(head, hidden());
+        return visible == null ? null : visible.id;
+    }
+
+    // Returns the number of commits on this branch (B, R).
+    public int getRepoSize() {
+        return size;
+    }
+
+    // Given a targetId (P), checks if this branch has a commit with the
+    // given ID (B). Looks the ID up in what this branch and its parents
+    // changed, without walking the history. Returns true if this is the
+    // case, false if not (R).
+    public boolean contains(String targetId) {
+        return lookup(targetId, Long.MAX_VALUE) == Boolean.TRUE;
+    }
+
+    // Takes in an int n parameter (P) and returns the string representations
+    // of the most recent n commits on this branch, in the same format as
+    // getHistory on a Repository (B, R). Throws an IllegalArgumentException
+    // if n is negative or equals 0 (E).
+    public String getHistory(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
+        }
+        StringBuilder history = new StringBuilder();
+        try {
+            Set<String> hidden = hidden();
+            for (Repository.Commit curr = skipDropped(head, hidden); curr != null && n != 0;
+                    curr = skipDropped(curr.past, hidden)) {
+                curr.appendTo(history);
+                history.append('\n');
+                n--;
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws, but Appendable says it might
+            throw new UncheckedIOException(e);
+        }
+        return history.toString();
+    }
+
+    // Removes the commit with ID targetId from this branch only (B), given
+    // the String targetId parameter (P). The commit stays in every other
+    // branch that has it. Returns true if the commit was dropped, and false
+    // if this branch has no commit with that ID (R).
+    public boolean drop(String targetId) {
+        if (!contains(targetId)) {
+            return false;
+        }
+        // No branch forked since the commit was added can see it, so only
+        // the drop needs remembering
+        Long addedAt = added.get(targetId);
+        if (addedAt != null && addedAt > lastFork) {
+            added.remove(targetId);
+        }
+        dropped.put(targetId, family.next());
+        size--;
+        return true;
+    }
+
+    // Takes another branch of the same repository (P) and brings every
+    // commit it has that this branch does not into this branch (B). Only
+    // the commits made on either branch since they split are read: they
+    // are copied and merged by timestamp with synchronize's merge, keeping
+    // this branch's commits first on equal timestamps, and put on top of
+    // the history the two still share. Drops made on the other branch are
+    // applied here too. The other branch is not changed. Throws an
+    // IllegalArgumentException if the other branch is not from the same
+    // repository (E).
+    public void merge(Branch other) {
+        if (other.family != family) {
+            throw new IllegalArgumentException("Invalid Branch: Not from the same repository");
+        }
+        Repository.Commit mine = head;
+        Repository.Commit theirs = other.head;
+        int mineDepth = depth(mine);
+        int theirDepth = depth(theirs);
+        List<Repository.Commit> myPrefix = new ArrayList<>();
+        List<Repository.Commit> theirPrefix = new ArrayList<>();
+        while (mineDepth > theirDepth) {
+            myPrefix.add(mine);
+            mine = mine.past;
+            mineDepth--;
+        }
+        while (theirDepth > mineDepth) {
+            theirPrefix.add(theirs);
+            theirs = theirs.past;
+            theirDepth--;
+        }
+        while (mine != theirs) {
+            myPrefix.add(mine);
+            mine = mine.past;
+            theirPrefix.add(theirs);
+            theirs = theirs.past;
+        }
+        Repository.Commit shared = mine;
+
+        // Copy only the other branch's commits this branch has never had
+        List<Repository.Commit> incoming = new ArrayList<>();
+        for (Repository.Commit commit : theirPrefix) {
+            if (other.contains(commit.id) && lookup(commit.id, Long.MAX_VALUE) == null) {
+                incoming.add(commit);
+            }
+        }
+        if (!incoming.isEmpty()) {
+            Repository.Commit merged = Repository.merge(copy(myPrefix), copy(incoming));
+            List<Repository.Commit> chain = new ArrayList<>();
+            for (Repository.Commit curr = merged; curr != null; curr = curr.past) {
+                chain.add(curr);
+            }
+            chain.get(chain.size() - 1).past = shared;
+            head = chain.get(0);
+            int depth = depth(shared);
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                family.depth.put(chain.get(i), ++depth);
+            }
+            for (Repository.Commit commit : incoming) {
+                added.put(commit.id, family.next());
+            }
+            size += incoming.size();
+        }
+
+        for (String droppedId : other.dropped.keySet()) {
+            if (contains(droppedId)) {
+                dropped.put(droppedId, family.next());
+                size--;
+            }
+        }
+    }
+
+    // Takes a repository (P) and synchronizes a copy of every commit on
+    // this branch into it, the same as synchronize with a repository
+    // holding this branch's history (B). This branch is not changed.
+    public void mergeInto(Repository repo) {
+        List<Repository.Commit> visible = new ArrayList<>(size);
+        Set<String> hidden = hidden();
+        for (Repository.Commit curr = skipDropped(head, hidden); curr != null;
+                curr = skipDropped(curr.past, hidden)) {
+            visible.add(curr);
+        }
+        Repository copy = new Repository(name);
+        for (int i = visible.size() - 1; i >= 0; i--) {
+            Repository.Commit commit = visible.get(i);
+            copy.restore(commit.id, commit.timeStamp, commit.message);
+        }
+        repo.synchronize(copy);
+    }
+
+    // Returns a string representation of this branch, including its name
+    // and the head ID (B, R). If it has no commits, the string says so.
+    public String toString() {
+        Repository.Commit visible = skipDropped(head, hidden());
+        if (visible == null) {
+            return name + " - No commits";
+        }
+        return name + " - Current head: " + visible;
+    }
+
+    // Takes an ID and a sequence number (P) and returns whether this branch
+    // held a commit with that ID just before that number: TRUE if it did,
+    // FALSE if it had dropped it, or null if it never had it (R).
+    private Boolean lookup(String id, long before) {
+        for (Branch branch = this; branch != null; branch = branch.parent) {
+            Long droppedAt = branch.dropped.get(id);
+            if (droppedAt != null && droppedAt < before) {
+                return Boolean.FALSE;
+            }
+            Long addedAt = branch.added.get(id);
+            if (addedAt != null && addedAt < before) {
+                return Boolean.TRUE;
+            }
+            before = Math.min(before, branch.forkedAt);
+        }
+        return null;
+    }
+
+    // Takes a commit in this branch's history and the IDs this branch has
+    // dropped (P), and returns the given commit, or the newest commit
+    // before it that is not dropped, or null if there is none (R).
+    private static Repository.Commit skipDropped(Repository.Commit curr, Set<String> hidden) {
+        while (curr != null && hidden.contains(curr.id)) {
+            curr = curr.past;
+        }
+        return curr;
+    }
+
+    // Returns the IDs of the commits in this branch's history that it has
+    // dropped (R). Every commit in the history was added by this branch or
+    // by a parent before the fork, so only IDs some branch up the chain
+    // dropped can be missing. They are looked up once and kept until the
+    // family's next change (B).
+    private Set<String> hidden() {
+        if (hiddenAt != family.sequence) {
+            hidden = new HashSet<>();
+            long before = Long.MAX_VALUE;
+            for (Branch branch = this; branch != null; branch = branch.parent) {
+                for (Map.Entry<String, Long> drop : branch.dropped.entrySet()) {
+                    if (drop.getValue() < before && !hidden.contains(drop.getKey())
+                            && lookup(drop.getKey(), Long.MAX_VALUE) == Boolean.FALSE) {
+                        hidden.add(drop.getKey());
+                    }
+                }
+                before = Math.min(before, branch.forkedAt);
+            }
+            hiddenAt = family.sequence;
+        }
+        return hidden;
+    }
+
+    // Takes commits, newest first (P), and returns the front of a new
+    // chain of copies of them in the same order (R).
+    private Repository.Commit copy(List<Repository.Commit> commits) {
+        Repository.Commit front = null;
+        for (int i = commits.size() - 1; i >= 0; i--) {
+            front = family.home.copyCommit(commits.get(i), front);
+        }
+        return front;
+    }
+
+    // Returns how many commits the chain starting at the given commit
+    // holds, counting from the oldest, or 0 for null (P, R).
+    private int depth(Repository.Commit commit) {
+        return commit == null ? 0 : family.depth.get(commit);
+    }
+
+    // What every branch forked from the same root shares: the repository
+    // commits are made through, the next sequence number, and the depth of
+    // every commit in any of their histories. Depths are keyed weakly;
+    // commits never override equals, so keys still compare by identity.
+    private static class Family {
+        private final Repository home;
+        private final Map<Repository.Commit, Integer> depth;
+        private long sequence;
+
+        public Family(Repository home) {
+            this.home = home;
+            this.depth = new WeakHashMap<>();
+        }
+
+        // Returns the next sequence number (R).
+        public long next() {
+            return sequence++;
+        }
+    }
+}
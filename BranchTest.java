@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+
+public class BranchTest {
+    // Where the test clock starts; it then moves on a millisecond a commit.
+    private static final long START = 1_700_000_000_000L;
+
+    private Repository repo;
+    private Branch main;
+
+    @BeforeEach
+    public void setUp() {
+        Repository.Commit.resetIds();
+        repo = new Repository("repo");
+        repo.setClock(new HybridClock(() -> START));
+        for (int i = 0; i < 5; i++) {
+            repo.commit("Commit " + i);
+        }
+        main = new Branch("main", repo);
+    }
+
+    @Test
+    @DisplayName("Test Branch takes over the repository's history")
+    public void testTrunk() {
+        assertEquals(repo.getRepoSize(), 0);
+        assertEquals(main.getRepoSize(), 5);
+        assertEquals(main.getRepoHead(), "4");
+        assertTrue(main.contains("0"));
+        assertEquals(main.getHistory(10).split("\n").length, 5);
+        assertEquals(main.toString().substring(0, 23), "main - Current head: 4 ");
+    }
+
+    @Test
+    @DisplayName("Test fork() shares history but keeps changes apart")
+    public void testFork() {
+        Branch feature = main.fork("feature");
+        String mainId = main.commit("On main");
+        String featureId = feature.commit("On feature");
+
+        // Assert that each branch sees only its own new commit
+        assertTrue(main.contains(mainId));
+        assertFalse(main.contains(featureId));
+        assertTrue(feature.contains(featureId));
+        assertFalse(feature.contains(mainId));
+        assertEquals(main.getRepoSize(), 6);
+        assertEquals(feature.getRepoSize(), 6);
+
+        // Assert that a drop of a shared commit only hides it on that branch
+        assertTrue(feature.drop("2"));
+        assertFalse(feature.drop("2"));
+        assertFalse(feature.contains("2"));
+        assertTrue(main.contains("2"));
+        assertFalse(feature.getHistory(10).contains("\n2 at"));
+        assertTrue(main.getHistory(10).contains("\n2 at"));
+
+        // Assert that a drop made before a fork is inherited, and one after is not
+        assertTrue(main.drop("4"));
+        Branch later = main.fork("later");
+        assertFalse(later.contains("4"));
+        assertEquals(later.getRepoHead(), mainId);
+        assertTrue(main.drop(mainId));
+        assertTrue(later.contains(mainId));
+        assertEquals(main.getRepoHead(), "3");
+    }
+
+    @Test
+    @DisplayName("Test merge() brings over only the new commits, in order")
+    public void testMerge() {
+        Branch feature = main.fork("feature");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            expected.add(0, (i % 2 == 0 ? main : feature).commit("Work " + i));
+        }
+        feature.drop("1");
+        main.merge(feature);
+
+        // Assert that the histories interleave by time above the shared part
+        assertEquals(main.getRepoSize(), 10);
+        String[] history = main.getHistory(20).split("\n");
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(history[i].startsWith(expected.get(i) + " "));
+        }
+        assertTrue(history[6].startsWith("4 "));
+        assertTrue(history[7].startsWith("3 "));
+        assertTrue(history[8].startsWith("2 "));
+        assertTrue(history[9].startsWith("0 "));
+
+        // Assert that merging again adds nothing and the other branch is unchanged
+        main.merge(feature);
+        assertEquals(main.getRepoSize(), 10);
+        assertEquals(main.getHistory(20).split("\n").length, 10);
+        assertEquals(feature.getRepoSize(), 7);
+        assertFalse(feature.contains(expected.get(1)));
+
+        // Assert that a branch can be merged back into a repository
+        Repository target = new Repository("target");
+        main.mergeInto(target);
+        assertEquals(target.getRepoSize(), 10);
+        assertEquals(target.getHistory(20), main.getHistory(20));
+        assertEquals(main.getRepoSize(), 10);
+
+        Branch other = new Branch("other", new Repository("elsewhere"));
+        assertThrows(IllegalArgumentException.class, () -> main.merge(other));
+        assertThrows(IllegalArgumentException.class, () -> main.fork(""));
+    }
+
+    @Test
+    @DisplayName("Test getHistory() across a chain of forks with drops at every level")
+    public void testForkChain() {
+        List<String> ids = new ArrayList<>(List.of("0", "1", "2", "3", "4"));
+        Branch branch = main;
+        for (int level = 0; level < 6; level++) {
+            ids.add(branch.commit("Level " + level));
+            String later = branch.commit("Later " + level);
+            ids.add(later);
+            branch.drop(ids.get(level));
+            branch = branch.fork("level" + level);
+            branch.drop(later);
+        }
+        String history = "\n" + branch.getHistory(50);
+        assertEquals(history.split("\n").length - 1, branch.getRepoSize());
+
+        // Assert that the history holds exactly what contains() says it does
+        for (String id : ids) {
+            assertEquals(history.contains("\n" + id + " at"), branch.contains(id));
+        }
+
+        // Assert that the history follows drops and commits made after reading it
+        String head = branch.commit("Top");
+        assertTrue(branch.getHistory(1).startsWith(head + " "));
+        branch.drop(head);
+        assertTrue(branch.drop(ids.get(ids.size() - 2)));
+        assertEquals(branch.getHistory(50).split("\n").length, branch.getRepoSize());
+        assertFalse(branch.contains(head));
+        assertEquals(branch.getRepoHead(), ids.get(ids.size() - 4));
+    }
+}
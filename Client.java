@@ -1,24 +1,134 @@
 import java.util.*;
+import java.io.*;
+import java.nio.file.*;
 
 // A program to work with Mini-Git. Manages the state of repositories and allows for all
 // operations defined in Mini-Git.
+//
+// Usage: java Client [--data <directory>] [--durable] [--metrics]
+//                    [--recycle <seconds>] [--content-ids]
+//                    [--script <file> [--timing]]
+// With --data, each repository is logged to <directory>/<name>.log and
+// reloaded from there on the next start. With --durable, every change is
+// forced to the disk before the next prompt. Logged repositories are
+// snapshotted to <directory>/<name>.snap whenever their log grows by
+// SNAPSHOT_INTERVAL bytes, or on demand with the snapshot operation.
+// With --metrics, every repository records how long each operation takes,
+// shown by the stats operation and optionally saved as JSON.
+// With --recycle, drops can be undone with the undrop operation for the
+// given number of seconds, after which a background thread purges them.
+// Drops are only logged once purged. With --content-ids, new commits are
+// named by a hash of their parent, timestamp and message, so the same
+// history logged on two machines can be synchronized without doubling.
+//
+// With --script, commands are read from the given file, or from standard
+// input if the file is "-", instead of from prompts. Each line holds one
+// command with its arguments, such as "commit repo1 Fixed a bug" or
+// "history repo1 10" (see runScript). Only results are printed, and
+// errors go to standard error with their line number. With --timing, the
+// total and per-operation throughput are reported at the end.
 public class Client {
+    private static final String LOG_SUFFIX = ".log";
+    private static final long SNAPSHOT_INTERVAL = 64L << 20;
+    // Number of script commands between flushing logs and checking
+    // whether they need snapshots.
+    private static final int SCRIPT_FLUSH_INTERVAL = 4096;
+    // How often dropped commits are checked for purging, and the most
+    // purged from one repository at a time.
+    private static final long PURGE_PERIOD = 1000;
+    private static final int PURGE_BATCH = 4096;
+
     private static List<String> ops = new ArrayList<>();
 
-    public static void main(String[] args) {
-        Collections.addAll(ops, "create", "head", "history", "commit", "drop",
-                           "synchronize", "quit");
-        Scanner console = new Scanner(System.in);
-        Map<String, Repository> repos = new HashMap<>();
+    private static RepositoryRegistry repos;
+    private static Map<String, CommitLog> logs;
+    private static LogCompactor compactor;
+    private static Path dataDir;
+    private static boolean durable;
+    private static boolean metrics;
+    private static long recycle = -1;
+    private static boolean contentIds;
+    private static TombstonePurger purger;
+
+    public static void main(String[] args) throws IOException {
+        Collections.addAll(ops, "create", "head", "history", "commit", "drop", "undrop",
+                           "synchronize", "search", "snapshot", "stats", "quit");
+        repos = new RepositoryRegistry();
+        logs = new HashMap<>();
         String op = "";
         String name = "";
 
+        String script = null;
+        boolean timing = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--data") && i + 1 < args.length) {
+                dataDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--durable")) {
+                durable = true;
+            } else if (args[i].equals("--metrics")) {
+                metrics = true;
+            } else if (args[i].equals("--recycle") && i + 1 < args.length) {
+                recycle = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("--content-ids")) {
+                contentIds = true;
+            } else if (args[i].equals("--script") && i + 1 < args.length) {
+                script = args[++i];
+            } else if (args[i].equals("--timing")) {
+                timing = true;
+            }
+        }
+        compactor = new LogCompactor(SNAPSHOT_INTERVAL);
+        if (dataDir != null) {
+            load(dataDir, durable, repos, logs);
+        }
+        if (metrics) {
+            for (String repo : repos.names()) {
+                repos.apply(repo, loaded -> {
+                    loaded.setMetrics(new RepositoryMetrics());
+                    return null;
+                });
+            }
+        }
+        if (contentIds) {
+            for (String repo : repos.names()) {
+                repos.apply(repo, loaded -> {
+                    loaded.setContentIds(true);
+                    return null;
+                });
+            }
+        }
+        if (recycle >= 0) {
+            for (String repo : repos.names()) {
+                repos.apply(repo, loaded -> {
+                    loaded.setSoftDrops(true);
+                    return null;
+                });
+            }
+            purger = new TombstonePurger(repos, recycle, PURGE_BATCH);
+            purger.start(PURGE_PERIOD);
+        }
+
+        if (script != null) {
+            Reader input = script.equals("-")
+                    ? new InputStreamReader(System.in, "UTF-8")
+                    : Files.newBufferedReader(Paths.get(script));
+            try (BufferedReader reader = new BufferedReader(input, 1 << 16)) {
+                PrintWriter out = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(System.out, "UTF-8"), 1 << 16));
+                runScript(reader, out, timing);
+                out.flush();
+            }
+            close();
+            return;
+        }
+
+        Scanner console = new Scanner(System.in);
         intro();
 
         while (!op.equalsIgnoreCase("quit")) {
             System.out.println("Available repositories: ");
-            for (Repository repo : repos.values()) {
-                System.out.println("\t" + repo);
+            for (String repo : repos.names()) {
+                System.out.println("\t" + repos.apply(repo, Repository::toString));
             }
             System.out.println("Operations: " + ops);
             System.out.print("Enter operation and repository: ");
@@ -27,7 +137,7 @@ public class Client {
             name = input.length > 1 ? input[1] : "";
             while (!ops.contains(op) || (!op.equalsIgnoreCase("create") &&
                     !op.equalsIgnoreCase("quit") &&
-                    !repos.containsKey(name))) {
+                    !repos.contains(name))) {
                 System.out.println("  **ERROR**: Operation or repository not recognized.");
                 System.out.print("Enter operation and repository: ");
                 input = console.nextLine().split("\\s+");
@@ -35,49 +145,282 @@ public class Client {
                 name = input.length > 1 ? input[1] : "";
             }
 
-            Repository currRepo = repos.get(name);
             op = op.toLowerCase();
             if (op.equalsIgnoreCase("create")) {
-                if (currRepo != null) {
+                if (repos.contains(name)) {
                     System.out.println("  **ERROR**: Repository with that name already exists.");
                 } else {
-                    Repository newRepo = new Repository(name);
-                    repos.put(name, newRepo);
-                    System.out.println("  New repository created: " + newRepo);
+                    System.out.println("  New repository created: " + create(name));
                 }
             } else if (op.equalsIgnoreCase("head")) {
-                System.out.println(currRepo.getRepoHead());
+                System.out.println(repos.getRepoHead(name));
             } else if (op.equalsIgnoreCase("history")) {
                 System.out.print("How many commits back? ");
                 int nHist = console.nextInt();
                 console.nextLine();
-                System.out.println(currRepo.getHistory(nHist));
+                System.out.println(repos.getHistory(name, nHist));
             } else if (op.equalsIgnoreCase("commit")) {
                 System.out.print("Enter commit message: ");
                 String message = console.nextLine();
-                System.out.println("  New commit: " + currRepo.commit(message));
+                System.out.println("  New commit: " + repos.commit(name, message));
             } else if (op.equalsIgnoreCase("drop")) {
                 System.out.print("Enter ID to drop: ");
                 String idDrop = console.nextLine();
-                if (currRepo.drop(idDrop)) {
+                if (repos.drop(name, idDrop)) {
                     System.out.println("  Successfully dropped " + idDrop);
                 } else {
                     System.out.println("  No commit dropped!");
                 }
+            } else if (op.equalsIgnoreCase("undrop")) {
+                System.out.print("Enter ID to bring back: ");
+                String idUndrop = console.nextLine();
+                if (repos.undrop(name, idUndrop)) {
+                    System.out.println("  Successfully brought back " + idUndrop);
+                } else {
+                    System.out.println("  No dropped commit waiting with that ID (use --recycle)!");
+                }
             } else if (op.equalsIgnoreCase("synchronize")) {
                 System.out.print("Which repository would you like to " +
                         "synchronize into the given one? ");
                 String repo = console.nextLine();
                 if (repo.equals(name)) {
                     System.out.println("Cannot synchronize the same repositories!");
-                } else if (!repos.containsKey(repo)) {
+                } else if (!repos.contains(repo)) {
                     System.out.println("Repository does not exist!");
                 } else {
-                    currRepo.synchronize(repos.get(repo));
+                    repos.synchronize(name, repo);
+                }
+            } else if (op.equalsIgnoreCase("search")) {
+                System.out.print("Enter words to search for (end a word with * to match its start): ");
+                String query = console.nextLine();
+                System.out.print("How many results? ");
+                int limit = console.nextInt();
+                console.nextLine();
+                for (Repository.Commit match : repos.apply(name, repo -> repo.search(query, limit))) {
+                    System.out.println(match);
+                }
+            } else if (op.equalsIgnoreCase("snapshot")) {
+                if (!logs.containsKey(name)) {
+                    System.out.println("  **ERROR**: Repository is not saved to disk (use --data).");
+                } else {
+                    CommitLog log = logs.get(name);
+                    long elapsed = repos.apply(name, repo -> compactor.snapshot(repo, log));
+                    System.out.printf("  Snapshot of %d commits written in %.1f ms%n",
+                                      repos.apply(name, Repository::getRepoSize), elapsed / 1e6);
+                }
+            } else if (op.equalsIgnoreCase("stats")) {
+                RepositoryMetrics stats = repos.apply(name, Repository::getMetrics);
+                if (stats == null) {
+                    System.out.println("  **ERROR**: Metrics are not being recorded (use --metrics).");
+                } else {
+                    System.out.print(stats);
+                    System.out.print("File to save as JSON (blank to skip)? ");
+                    String file = console.nextLine().trim();
+                    if (!file.isEmpty()) {
+                        Files.write(Paths.get(file), stats.toJson().getBytes("UTF-8"));
+                        System.out.println("  Saved to " + file);
+                    }
                 }
             }
+            flushLogs();
             System.out.println();
         }
+        close();
+    }
+
+    // Takes a script, an output for results and whether to report timing
+    // (P), and runs every command in the script without prompting (B).
+    // Each line holds one command:
+    //      create <repo>                   head <repo>
+    //      history <repo> <n>              commit <repo> <message>
+    //      drop <repo> <id>                undrop <repo> <id>
+    //      synchronize <repo> <other>      search <repo> <limit> <query>
+    //      snapshot <repo>                 stats <repo> [json file]
+    //      quit
+    // Blank lines and lines starting with # are skipped. Results go to the
+    // output; errors, including files that cannot be written, go to
+    // standard error with their line number, and the script carries on.
+    // With timing, the number of commands and their throughput, in total
+    // and for each operation, are written to standard error at the end.
+    public static void runScript(BufferedReader script, PrintWriter out, boolean timing)
+            throws IOException {
+        Map<String, long[]> times = new LinkedHashMap<>();
+        for (String op : ops) {
+            times.put(op, new long[2]);
+        }
+        long begin = System.nanoTime();
+        int lineNumber = 0;
+        int commands = 0;
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+", 3);
+            String op = parts[0].toLowerCase();
+            if (op.equals("quit")) {
+                break;
+            }
+            long start = System.nanoTime();
+            try {
+                if (!times.containsKey(op)) {
+                    throw new IllegalArgumentException("Unknown operation: " + parts[0]);
+                }
+                runCommand(op, parts[1], parts.length > 2 ? parts[2] : "", out);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                System.err.println("line " + lineNumber + ": Missing repository name");
+            } catch (IllegalArgumentException | UnsupportedOperationException e) {
+                System.err.println("line " + lineNumber + ": " + e.getMessage());
+            } catch (IOException e) {
+                System.err.println("line " + lineNumber + ": Could not write: " + e.getMessage());
+            }
+            long[] opTime = times.get(op);
+            if (opTime != null) {
+                opTime[0]++;
+                opTime[1] += System.nanoTime() - start;
+            }
+            commands++;
+            if (commands % SCRIPT_FLUSH_INTERVAL == 0) {
+                flushLogs();
+            }
+        }
+        flushLogs();
+        if (timing) {
+            out.flush();
+            long total = 0;
+            for (long[] opTime : times.values()) {
+                total += opTime[0];
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            System.err.printf("total        %10d ops %10.1f ms %12.0f ops/s%n",
+                              total, seconds * 1e3, total / seconds);
+            for (Map.Entry<String, long[]> entry : times.entrySet()) {
+                long[] opTime = entry.getValue();
+                if (opTime[0] > 0) {
+                    System.err.printf("%-12s %10d ops %10.1f ms %12.0f ops/s%n", entry.getKey(),
+                                      opTime[0], opTime[1] / 1e6, opTime[0] / (opTime[1] / 1e9));
+                }
+            }
+        }
+    }
+
+    // Takes an operation, a repository name, the rest of the command line
+    // and an output for results (P), and runs one script command (B).
+    // Throws an IllegalArgumentException if the command is not valid (E).
+    private static void runCommand(String op, String name, String rest, PrintWriter out)
+            throws IOException {
+        if (op.equals("create")) {
+            if (repos.contains(name)) {
+                throw new IllegalArgumentException("Repository already exists: " + name);
+            }
+            create(name);
+        } else if (op.equals("head")) {
+            out.println(repos.getRepoHead(name));
+        } else if (op.equals("history")) {
+            out.print(repos.getHistory(name, Integer.parseInt(rest.trim())));
+        } else if (op.equals("commit")) {
+            out.println(repos.commit(name, rest));
+        } else if (op.equals("drop")) {
+            out.println(repos.drop(name, rest.trim()));
+        } else if (op.equals("undrop")) {
+            out.println(repos.undrop(name, rest.trim()));
+        } else if (op.equals("synchronize")) {
+            repos.synchronize(name, rest.trim());
+        } else if (op.equals("search")) {
+            String[] args = rest.split("\\s+", 2);
+            int limit = Integer.parseInt(args[0]);
+            String query = args.length > 1 ? args[1] : "";
+            for (Repository.Commit match : repos.apply(name, repo -> repo.search(query, limit))) {
+                out.println(match);
+            }
+        } else if (op.equals("snapshot")) {
+            CommitLog log = logs.get(name);
+            if (log == null) {
+                throw new IllegalArgumentException("Repository is not saved to disk: " + name);
+            }
+            repos.apply(name, repo -> compactor.snapshot(repo, log));
+        } else if (op.equals("stats")) {
+            RepositoryMetrics stats = repos.apply(name, Repository::getMetrics);
+            if (stats == null) {
+                throw new IllegalArgumentException("Metrics are not being recorded (use --metrics)");
+            }
+            out.print(stats);
+            if (!rest.trim().isEmpty()) {
+                Files.write(Paths.get(rest.trim()), stats.toJson().getBytes("UTF-8"));
+            }
+        }
+    }
+
+    // Creates a repository with the given name (P), logged to the data
+    // directory, recording metrics, keeping dropped commits for undrop and
+    // naming commits by content if those are turned on, and adds it
+    // to the registry (B). Returns the new repository (R).
+    private static Repository create(String name) throws IOException {
+        Repository newRepo = new Repository(name);
+        if (dataDir != null) {
+            CommitLog log = new CommitLog(dataDir.resolve(name + LOG_SUFFIX), durable);
+            newRepo.setLog(log);
+            logs.put(name, log);
+        }
+        if (metrics) {
+            newRepo.setMetrics(new RepositoryMetrics());
+        }
+        if (recycle >= 0) {
+            newRepo.setSoftDrops(true);
+        }
+        if (contentIds) {
+            newRepo.setContentIds(true);
+        }
+        repos.register(newRepo);
+        return newRepo;
+    }
+
+    // Flushes every log and snapshots any repository whose log has grown
+    // enough since its last snapshot (B).
+    private static void flushLogs() throws IOException {
+        for (String logged : logs.keySet()) {
+            CommitLog log = logs.get(logged);
+            log.flush();
+            repos.apply(logged, repo -> compactor.maybeSnapshot(repo, log));
+        }
+    }
+
+    // Stops purging, waits for background compactions and closes every
+    // log (B).
+    private static void close() throws IOException {
+        if (purger != null) {
+            purger.close();
+        }
+        compactor.close();
+        for (CommitLog log : logs.values()) {
+            log.close();
+        }
+    }
+
+    // Takes a data directory, whether logs must be durable, the registry of
+    // repositories and the map of logs (P), and rebuilds every repository logged in
+    // the directory from its latest snapshot and the rest of its log,
+    // reopening each log for appending (B). Creates the directory if it
+    // does not exist yet.
+    public static void load(Path dataDir, boolean durable, RepositoryRegistry repos,
+                            Map<String, CommitLog> logs) throws IOException {
+        Files.createDirectories(dataDir);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir, "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - LOG_SUFFIX.length());
+                long start = System.nanoTime();
+                CommitLog log = new CommitLog(file, durable);
+                Repository repo = LogCompactor.load(name, file);
+                repo.setLog(log);
+                repos.register(repo);
+                logs.put(name, log);
+                System.err.printf("Loaded %s (%d commits) in %.1f ms%n", name,
+                                  repo.getRepoSize(), (System.nanoTime() - start) / 1e6);
+            }
+        }
     }
 
     // Prints out an introduction to the Mini-Git test client.
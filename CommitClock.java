@@ -0,0 +1,21 @@
+// Where repositories get the timestamps of new commits from. Timestamps
+// are in milliseconds since the epoch, as Commit shows them.
+//
+// The system clock is the default. Commits made within the same
+// millisecond then share a timestamp, and synchronize can only order
+// them by which repository they came from; a HybridClock gives every
+// commit its own timestamp instead.
+public interface CommitClock {
+    // The wall clock, as System.currentTimeMillis() gives it.
+    CommitClock SYSTEM = System::currentTimeMillis;
+
+    // Returns the timestamp for a commit being made now (R).
+    long now();
+
+    // Takes the timestamp of a commit that arrived from somewhere else,
+    // such as another repository being synchronized in (P), so that
+    // commits made later can be given later timestamps (B). Does nothing
+    // unless the clock keeps track.
+    default void observe(long timeStamp) {
+    }
+}
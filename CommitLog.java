@@ -0,0 +1,462 @@
+import java.util.*;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// An append-only log of the changes made to one repository. Each commit,
+// drop, undrop and synchronize is written as a compact binary record, so
+// the repository can be rebuilt after a restart by replaying the log.
+//
+// Every record has a position: the number of record bytes written to the
+// log before it, counted from when the log was created. Compaction drops
+// records from the start of the file, so the header stores the position
+// of the first record left in the file.
+//
+// File layout: a header of MAGIC, VERSION and the position of the first
+// record (long), then records. Each record starts with a one-byte type:
+//      COMMIT:      timestamp (long), id (string), message (string)
+//      DROP:        id (string) (dropped for good, or purged)
+//      SYNCHRONIZE: count (int), then count commits laid out as in COMMIT,
+//                   newest first
+//      CLEAR:       nothing (the repository was drained by a synchronize)
+//      TOMBSTONE:   id (string), drop time (long) (dropped softly)
+//      UNDROP:      id (string)
+// Strings are written as a byte length (int) followed by UTF-8 bytes.
+// Version 2 logs lack the last two record types and are still read; one
+// opened for appending is marked as the current version.
+public class CommitLog implements Closeable {
+    private static final int MAGIC = 0x4d474954; // "MGIT"
+    private static final int VERSION = 3;
+    private static final int OLDEST_VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+
+    private static final byte COMMIT = 1;
+    private static final byte DROP = 2;
+    private static final byte SYNCHRONIZE = 3;
+    private static final byte CLEAR = 4;
+    private static final byte TOMBSTONE = 5;
+    private static final byte UNDROP = 6;
+
+    private final Path file;
+    private final boolean durable;
+    private FileOutputStream stream;
+    private DataOutputStream out;
+    private long base;
+    private long length;
+
+    // Opens the log at the given file for appending (B), given the file and
+    // whether every record must reach the disk before the call returns (P).
+    // Without the durable flag records are buffered and written out on
+    // flush, close or when the buffer fills, and the disk is never forced.
+    // A record cut short by a crash is trimmed off before appending.
+    // Throws an IOException if the file cannot be opened or is not a log (E).
+    public CommitLog(Path file, boolean durable) throws IOException {
+        this.file = file;
+        this.durable = durable;
+        long valid = Files.exists(file) ? scan(file, null, -1) : 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+            if (valid > 0) {
+                channel.write(ByteBuffer.allocate(4).putInt(0, VERSION), 4);
+            }
+        }
+        base = valid == 0 ? 0 : readBase(file);
+        open(valid == 0);
+        length = Math.max(valid, HEADER_SIZE);
+    }
+
+    // Returns the file this log is written to (R).
+    public Path getFile() {
+        return file;
+    }
+
+    // Returns the position of the first record still in the file (R).
+    public synchronized long firstPosition() {
+        return base;
+    }
+
+    // Returns the position just past the last record written, which is
+    // where the next record will go (R).
+    public synchronized long position() {
+        return base + length - HEADER_SIZE;
+    }
+
+    // Records a new commit at the front of the repository (P) (B).
+    public synchronized void commit(Repository.Commit commit) {
+        try {
+            writeByte(COMMIT);
+            writeCommit(commit);
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records that the commit with the given ID (P) was dropped (B).
+    public synchronized void drop(String id) {
+        try {
+            writeByte(DROP);
+            writeString(id);
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records that the commit with the given ID was dropped softly at the
+    // given time (P), to wait for an undrop or a purge (B).
+    public synchronized void tombstone(String id, long droppedAt) {
+        try {
+            writeByte(TOMBSTONE);
+            writeString(id);
+            out.writeLong(droppedAt);
+            length += 8;
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records that the commit with the given ID (P) was brought back by
+    // an undrop (B).
+    public synchronized void undrop(String id) {
+        try {
+            writeByte(UNDROP);
+            writeString(id);
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records that the history starting at the given commit (P) was moved
+    // into the repository by a synchronize (B). Must be called before the
+    // history is merged, while its commits are still linked in order.
+    public synchronized void synchronize(Repository.Commit front) {
+        try {
+            int count = 0;
+            for (Repository.Commit curr = front; curr != null; curr = curr.past) {
+                count++;
+            }
+            writeByte(SYNCHRONIZE);
+            out.writeInt(count);
+            length += 4;
+            for (Repository.Commit curr = front; curr != null; curr = curr.past) {
+                writeCommit(curr);
+            }
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Records that every commit was moved out of the repository (B).
+    public synchronized void clear() {
+        try {
+            writeByte(CLEAR);
+            sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes any buffered records out to the file (B). Does not force
+    // them to the disk unless the log is durable. Throws an IOException
+    // if the records cannot be written (E).
+    public synchronized void flush() throws IOException {
+        out.flush();
+        if (durable) {
+            stream.getFD().sync();
+        }
+    }
+
+    // Writes any buffered records out and closes the file (B).
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    // Rewrites the log without the records before the given position (P),
+    // which a snapshot already covers (B). The new file is written next to
+    // the log and moved over it, so a crash leaves either the old or the
+    // new log. Appends wait while the remaining records are copied.
+    // Throws an IOException if the position is not in this log or the
+    // file cannot be rewritten (E).
+    public synchronized void compact(long from) throws IOException {
+        if (from < base || from > position()) {
+            throw new IOException("Position " + from + " is not in " + file);
+        }
+        out.flush();
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            target.write(header(from));
+            long start = HEADER_SIZE + from - base;
+            long copied = 0;
+            while (copied < length - start) {
+                copied += source.transferTo(start + copied, length - start - copied, target);
+            }
+            target.force(true);
+        }
+        out.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        length -= from - base;
+        base = from;
+        open(false);
+    }
+
+    // Rebuilds a repository with the given name from the log in the
+    // given file (P) by mapping the file into memory and replaying every
+    // record in order (B). Returns the rebuilt repository (R), which is
+    // not yet attached to any log. Throws an IOException if the file
+    // cannot be read or is not a log (E).
+    public static Repository replay(String name, Path file) throws IOException {
+        Repository repo = new Repository(name);
+        scan(file, repo, -1);
+        return repo;
+    }
+
+    // Replays the records of the log in the given file into the given
+    // repository, starting at the given position (P), such as the position
+    // a snapshot was taken at (B). Throws an IOException if the file cannot
+    // be read, is not a log, or no longer holds that position (E).
+    public static void replay(Repository repo, Path file, long from) throws IOException {
+        scan(file, repo, from);
+    }
+
+    // Opens the file for appending, first writing a header if it is new (P) (B).
+    private void open(boolean writeHeader) throws IOException {
+        stream = new FileOutputStream(file.toFile(), true);
+        out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        if (writeHeader) {
+            out.write(header(base).array());
+            sync();
+        }
+    }
+
+    // Forces the last record to the disk if the log is durable (B).
+    private void sync() throws IOException {
+        if (durable) {
+            flush();
+        }
+    }
+
+    // Writes the timestamp, ID and message of a commit (P) (B).
+    private void writeCommit(Repository.Commit commit) throws IOException {
+        out.writeLong(commit.timeStamp);
+        length += 8;
+        writeString(commit.id);
+        writeString(commit.message);
+    }
+
+    // Writes a record type (P) (B).
+    private void writeByte(byte type) throws IOException {
+        out.writeByte(type);
+        length++;
+    }
+
+    // Writes a string as its UTF-8 byte length and bytes (P) (B).
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        length += 4 + bytes.length;
+    }
+
+    // Returns a header for a log whose first record is at the
+    // given position (P, R).
+    private static ByteBuffer header(long base) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(base).flip();
+        return header;
+    }
+
+    // Returns the position of the first record in the log in the given
+    // file (P, R). Throws an IOException if it cannot be read (E).
+    private static long readBase(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.skipBytes(8);
+            return in.readLong();
+        }
+    }
+
+    // Reads the log in the given file (P) through a memory map and, if
+    // repo is not null, replays each complete record at or after the
+    // given position into it, or every record if the position is -1 (B).
+    // Logs larger than one map are mapped a window at a time. Returns the
+    // length of the file up to the end of the last complete record (R).
+    // Throws an IOException if the file is not a log or no longer holds
+    // the position (E).
+    private static long scan(Path file, Repository repo, long from) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                if (from > 0) {
+                    throw new IOException("Log does not reach position " + from + ": " + file);
+                }
+                return 0;
+            }
+            MappedInput in = new MappedInput(channel);
+            int magic = in.getInt();
+            int version = in.getInt();
+            if (magic != MAGIC || version < OLDEST_VERSION || version > VERSION) {
+                throw new IOException("Not a commit log: " + file);
+            }
+            long base = in.getLong();
+            if (from != -1) {
+                if (from < base || HEADER_SIZE + from - base > size) {
+                    throw new IOException("Log does not hold position " + from + ": " + file);
+                }
+                in.position(HEADER_SIZE + from - base);
+            }
+            long valid = in.position();
+            CommitRun run = new CommitRun();
+            try {
+                while (in.hasRemaining()) {
+                    byte type = in.get();
+                    if (type == COMMIT) {
+                        long timeStamp = in.getLong();
+                        String id = readString(in);
+                        String message = readString(in);
+                        if (repo != null) {
+                            run.add(timeStamp, id, message);
+                        }
+                        valid = in.position();
+                        continue;
+                    }
+                    run.restoreInto(repo);
+                    if (type == DROP) {
+                        String id = readString(in);
+                        if (repo != null) {
+                            repo.restoreDrop(id);
+                        }
+                    } else if (type == SYNCHRONIZE) {
+                        replaySynchronize(in, repo);
+                    } else if (type == CLEAR) {
+                        if (repo != null) {
+                            repo.takeAll();
+                        }
+                    } else if (type == TOMBSTONE) {
+                        String id = readString(in);
+                        long droppedAt = in.getLong();
+                        if (repo != null) {
+                            repo.restoreTombstone(id, droppedAt);
+                        }
+                    } else if (type == UNDROP) {
+                        String id = readString(in);
+                        if (repo != null) {
+                            repo.undrop(id);
+                        }
+                    } else {
+                        throw new IOException("Corrupt record in " + file + " at " + valid);
+                    }
+                    valid = in.position();
+                }
+            } catch (BufferUnderflowException e) {
+                // A record cut short by a crash; everything before it is good
+            }
+            run.restoreInto(repo);
+            return valid;
+        }
+    }
+
+    // Reads a SYNCHRONIZE record from the given buffer (P) and, if repo
+    // is not null, merges its commits into the repository (B). Throws an
+    // IOException naming the position if the commit count is negative,
+    // and a BufferUnderflowException, as for any record cut short, if
+    // that many commits cannot fit in what is left of the log (E).
+    private static void replaySynchronize(MappedInput in, Repository repo) throws IOException {
+        long position = in.position();
+        int count = in.getInt();
+        if (count < 0) {
+            throw new IOException("Corrupt commit count " + count + " at position " + position);
+        }
+        // Each commit takes at least a timestamp and two string lengths
+        if (count > (in.size() - in.position()) / (Long.BYTES + 2 * Integer.BYTES)) {
+            throw new BufferUnderflowException();
+        }
+        long[] timeStamps = new long[count];
+        String[] ids = new String[count];
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            timeStamps[i] = in.getLong();
+            ids[i] = readString(in);
+            messages[i] = readString(in);
+        }
+        if (repo != null) {
+            Repository moved = new Repository(repo.getName());
+            moved.restoreAll(timeStamps, ids, messages, count);
+            repo.synchronize(moved);
+        }
+    }
+
+    // Reads a string written by writeString from the buffer (P).
+    // Returns the string (R). The length is checked before anything is
+    // allocated: throws an IOException naming the position if it is
+    // negative, and a BufferUnderflowException, as for any record cut
+    // short, if it runs past the end of the log (E).
+    private static String readString(MappedInput in) throws IOException {
+        long position = in.position();
+        int length = in.getInt();
+        if (length < 0) {
+            throw new IOException("Corrupt string length " + length + " at position " + position);
+        }
+        if (length > in.size() - in.position()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A run of COMMIT records read in a row, held back so that the
+    // repository can link and index the whole run at once.
+    private static class CommitRun {
+        private long[] timeStamps = new long[16];
+        private String[] ids = new String[16];
+        private String[] messages = new String[16];
+        private int count;
+
+        // Adds the commit in the next record of the run (P) (B).
+        public void add(long timeStamp, String id, String message) {
+            if (count == timeStamps.length) {
+                timeStamps = Arrays.copyOf(timeStamps, count * 2);
+                ids = Arrays.copyOf(ids, count * 2);
+                messages = Arrays.copyOf(messages, count * 2);
+            }
+            timeStamps[count] = timeStamp;
+            ids[count] = id;
+            messages[count] = message;
+            count++;
+        }
+
+        // Restores the run into the given repository, if it is not null
+        // (P), and starts a new run (B).
+        public void restoreInto(Repository repo) {
+            if (count == 0 || repo == null) {
+                return;
+            }
+            // Records are oldest first, but restoreAll takes newest first
+            for (int i = 0, j = count - 1; i < j; i++, j--) {
+                long timeStamp = timeStamps[i];
+                timeStamps[i] = timeStamps[j];
+                timeStamps[j] = timeStamp;
+                String id = ids[i];
+                ids[i] = ids[j];
+                ids[j] = id;
+                String message = messages[i];
+                messages[i] = messages[j];
+                messages[j] = message;
+            }
+            repo.restoreAll(timeStamps, ids, messages, count);
+            count = 0;
+        }
+    }
+}
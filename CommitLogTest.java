@@ -0,0 +1,267 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+public class CommitLogTest {
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("commitlog");
+        Repository.Commit.resetIds();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    @DisplayName("Test replay() after commit() and drop()")
+    public void testReplayCommitAndDrop() throws IOException {
+        Path file = dir.resolve("repo1.log");
+        Repository repo1 = new Repository("repo1");
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            for (int i = 0; i < 5; i++) {
+                repo1.commit("Commit " + i);
+            }
+            repo1.drop("2");
+            repo1.drop("4");
+        }
+
+        // Assert that the rebuilt repository matches the original, as if
+        // after a restart, and that new commits do not reuse replayed IDs
+        Repository.Commit.resetIds();
+        Repository replayed = CommitLog.replay("repo1", file);
+        assertEquals(replayed.getRepoSize(), 3);
+        assertEquals(replayed.getRepoHead(), "3");
+        assertEquals(replayed.getHistory(5), repo1.getHistory(5));
+        assertEquals(replayed.commit("After restart"), "5");
+    }
+
+    @Test
+    @DisplayName("Test search() on a replayed repository")
+    public void testReplaySearch() throws IOException {
+        Path file = dir.resolve("repo1.log");
+        Repository repo1 = new Repository("repo1");
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            for (int i = 0; i < 10; i++) {
+                repo1.commit(i % 2 == 0 ? "Fix " + i : "Test " + i);
+            }
+            repo1.drop("4");
+        }
+
+        // Assert that the message index, built on the first search, sees
+        // changes made after the replay as well as the replayed commits
+        Repository replayed = CommitLog.replay("repo1", file);
+        replayed.commit("Fix after restart");
+        replayed.drop("8");
+        List<String> found = new ArrayList<>();
+        for (Repository.Commit commit : replayed.search("fix", 10)) {
+            found.add(commit.id);
+        }
+        assertEquals(found, Arrays.asList("10", "6", "2", "0"));
+        replayed.commit("Fix again");
+        assertEquals(replayed.search("fix", 1).get(0).id, "11");
+    }
+
+    @Test
+    @DisplayName("Test replay() after synchronize()")
+    public void testReplaySynchronize() throws IOException {
+        Path file1 = dir.resolve("repo1.log");
+        Path file2 = dir.resolve("repo2.log");
+        Repository repo1 = new Repository("repo1");
+        Repository repo2 = new Repository("repo2");
+        CommitClock clock = new HybridClock();
+        repo1.setClock(clock);
+        repo2.setClock(clock);
+        try (CommitLog log1 = new CommitLog(file1, true);
+             CommitLog log2 = new CommitLog(file2, true)) {
+            repo1.setLog(log1);
+            repo2.setLog(log2);
+            for (int i = 0; i < 6; i++) {
+                (i % 2 == 0 ? repo1 : repo2).commit("Commit " + i);
+            }
+            repo1.synchronize(repo2);
+            repo2.commit("Commit 6");
+        }
+
+        // Assert that both sides of the synchronize were recorded
+        Repository replayed1 = CommitLog.replay("repo1", file1);
+        Repository replayed2 = CommitLog.replay("repo2", file2);
+        assertEquals(replayed1.getHistory(10), repo1.getHistory(10));
+        assertEquals(replayed2.getHistory(10), repo2.getHistory(10));
+        assertEquals(replayed2.getRepoSize(), 1);
+        assertTrue(replayed1.drop("3"));
+    }
+
+    @Test
+    @DisplayName("Test replay() of a repository emptied by duplicates")
+    public void testReplayDrainedByDuplicates() throws IOException {
+        Repository[] repos = new Repository[3];
+        CommitLog[] logs = new CommitLog[3];
+        for (int i = 0; i < repos.length; i++) {
+            repos[i] = new Repository("repo" + i);
+            repos[i].setClock(() -> 1000);
+            repos[i].setContentIds(true);
+            logs[i] = new CommitLog(dir.resolve("repo" + i + ".log"), false);
+            repos[i].setLog(logs[i]);
+            repos[i].commit("Shared");
+        }
+        repos[0].synchronize(repos[1]);
+        repos[0].synchronizeAll(List.of(repos[2]));
+        for (CommitLog log : logs) {
+            log.close();
+        }
+
+        // Assert that sources holding nothing but duplicates stay empty
+        // after a restart
+        int[] sizes = {1, 0, 0};
+        for (int i = 0; i < repos.length; i++) {
+            assertEquals(repos[i].getRepoSize(), sizes[i]);
+            assertEquals(CommitLog.replay("repo" + i, dir.resolve("repo" + i + ".log"))
+                                  .getRepoSize(), sizes[i]);
+        }
+    }
+
+    @Test
+    @DisplayName("Test replay() after soft drops, undrop() and purge()")
+    public void testReplaySoftDrops() throws IOException {
+        Path file = dir.resolve("repo1.log");
+        Repository repo1 = new Repository("repo1");
+        Repository repo2 = new Repository("repo2");
+        repo1.setSoftDrops(true);
+        repo2.setSoftDrops(true);
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            for (int i = 0; i < 6; i++) {
+                (i < 4 ? repo1 : repo2).commit("Commit " + i);
+            }
+            repo1.drop("1");
+            repo1.drop("2");
+            repo1.drop("3");
+            repo1.undrop("2");
+            repo1.purge(Long.MAX_VALUE, 1);
+            repo2.drop("5");
+            repo1.synchronize(repo2);
+        }
+
+        // Assert that drops waiting to be purged stay hidden and undoable
+        // after a restart, and that undrops and purges are kept
+        Repository replayed = CommitLog.replay("repo1", file);
+        assertEquals(replayed.getHistory(10), repo1.getHistory(10));
+        assertEquals(replayed.getRepoSize(), 3);
+        assertEquals(replayed.getTombstoneCount(), 2);
+        assertFalse(replayed.contains("3"));
+        assertFalse(replayed.undrop("1"));
+        assertTrue(replayed.undrop("5"));
+        assertTrue(replayed.undrop("3"));
+        assertEquals(replayed.getRepoSize(), 5);
+    }
+
+    @Test
+    @DisplayName("Test a log with a record cut short")
+    public void testTornRecord() throws IOException {
+        Path file = dir.resolve("repo1.log");
+        Repository repo1 = new Repository("repo1");
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            repo1.commit("Kept commit.");
+            repo1.commit("Commit cut short by a crash.");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        // Assert that only the complete record is replayed
+        assertEquals(CommitLog.replay("repo1", file).getRepoSize(), 1);
+
+        // Assert that reopening the log trims the partial record before appending
+        Repository reopened = CommitLog.replay("repo1", file);
+        try (CommitLog log = new CommitLog(file, false)) {
+            reopened.setLog(log);
+            reopened.commit("Commit after restart.");
+        }
+        Repository replayed = CommitLog.replay("repo1", file);
+        assertEquals(replayed.getRepoSize(), 2);
+        assertTrue(replayed.toString().contains("Commit after restart."));
+    }
+
+    @Test
+    @DisplayName("Test a log with a corrupt string length")
+    public void testCorruptLength() throws IOException {
+        Path file = dir.resolve("repo1.log");
+        Repository repo1 = new Repository("repo1");
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            repo1.commit("Kept commit.");
+        }
+        long second = Files.size(file);
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            repo1.commit("Commit with a bad length.");
+        }
+        // The ID's length follows the record type and timestamp
+        long lengthAt = second + 1 + Long.BYTES;
+
+        // Assert that a length past the end is read as a record cut short
+        writeInt(file, lengthAt, Integer.MAX_VALUE);
+        assertEquals(CommitLog.replay("repo1", file).getRepoSize(), 1);
+
+        // Assert that a negative length is rejected with its position
+        writeInt(file, lengthAt, -1);
+        IOException e = assertThrows(IOException.class, () -> CommitLog.replay("repo1", file));
+        assertTrue(e.getMessage().contains("at position " + lengthAt), e.getMessage());
+    }
+
+    // Takes a file, a position and a value (P) and overwrites the four
+    // bytes at that position with the value (B).
+    private static void writeInt(Path file, long position, int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+        }
+    }
+
+    @Test
+    @DisplayName("Test replay() mapping the log a window at a time")
+    public void testWindowedReplay() throws IOException {
+        Path file = dir.resolve("repo1.log");
+        Repository repo1 = new Repository("repo1");
+        Repository repo2 = new Repository("repo2");
+        try (CommitLog log = new CommitLog(file, false)) {
+            repo1.setLog(log);
+            for (int i = 0; i < 200; i++) {
+                // Every tenth message is longer than a whole window
+                repo1.commit(i % 10 == 0 ? "Long commit " + "x".repeat(100) : "Commit " + i);
+                if (i % 7 == 0) {
+                    repo2.commit("Other commit " + i);
+                }
+            }
+            repo1.drop("5");
+            repo1.synchronize(repo2);
+        }
+        String expected = CommitLog.replay("repo1", file).getHistory(300);
+
+        // Assert that records crossing window boundaries replay the same
+        MappedInput.windowSize = 64;
+        try {
+            assertEquals(CommitLog.replay("repo1", file).getHistory(300), expected);
+            // Reopening scans the whole log too
+            new CommitLog(file, false).close();
+            assertEquals(CommitLog.replay("repo1", file).getHistory(300), expected);
+        } finally {
+            MappedInput.windowSize = Integer.MAX_VALUE;
+        }
+    }
+}
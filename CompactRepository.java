@@ -0,0 +1,444 @@
+import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+// A repository with the same operations and results as Repository, but
+// which keeps its commits in parallel primitive arrays instead of one
+// Commit object per commit. Each commit is a slot: a timestamp, a numeric
+// ID, the offset and length of its message in one shared UTF-8 byte array,
+// and the slots of the commits made just before and just after it.
+// IDs come from the same counter as Repository.Commit, so the two kinds of
+// repository never hand out the same ID.
+public class CompactRepository {
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String name;
+    private long[] timeStamps;
+    private int[] ids;
+    private int[] messageStart;
+    private int[] messageLength;
+    private int[] past;
+    private int[] newer;
+    private byte[] messageBytes;
+    private int messageEnd;
+    private int deadMessageBytes;
+    private int front;
+    private int size;
+    private int used;
+    private int free;
+    private IdIndex index;
+    private CommitClock clock;
+
+    // (B) Constructs a new, empty CompactRepository using a String name (P)
+    // as a parameter. Throws an IllegalArgumentException (E) if the given
+    // name is null or empty.
+    public CompactRepository(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Invalid Name: Empty or null");
+        }
+        this.name = name;
+        this.clock = CommitClock.SYSTEM;
+        clear(INITIAL_CAPACITY);
+    }
+
+    // Takes the clock new commits get their timestamps from (P) and uses
+    // it from now on (B).
+    public void setClock(CommitClock clock) {
+        this.clock = clock;
+    }
+
+    // Creates a new commit in the repository (B), given a
+    // representative message for the commit (P).
+    // Returns the ID of the created commit (R).
+    public String commit(String message) {
+        int slot = allocate();
+        int id = Repository.Commit.nextId();
+        timeStamps[slot] = clock.now();
+        ids[slot] = id;
+        storeMessage(slot, message.getBytes(StandardCharsets.UTF_8));
+        past[slot] = front;
+        newer[slot] = NONE;
+        if (front != NONE) {
+            newer[front] = slot;
+        }
+        front = slot;
+        index.put(id, slot);
+        size++;
+        return Integer.toString(id);
+    }
+
+    // Returns the name of this repository (B, R).
+    public String getName() {
+        return name;
+    }
+
+    // Returns the ID of the current head of this repository (B, R).
+    // Returns null if no commits (R).
+    public String getRepoHead() {
+        return front == NONE ? null : Integer.toString(ids[front]);
+    }
+
+    // Returns a string representation of the repository,
+    // including its name and the head ID (B, R). If no commits were
+    // made, the string indicates as such.
+    public String toString() {
+        if (front == NONE) {
+            return name + " - No commits";
+        }
+        StringBuilder result = new StringBuilder(name).append(" - Current head: ");
+        appendCommit(result, front);
+        return result.toString();
+    }
+
+    // Given a targetId (P), checks if there exists a commit
+    // with the given ID (B). Returns true if this is the case,
+    // false if not (R).
+    public boolean contains(String targetId) {
+        int id = parseId(targetId);
+        return id != NONE && index.get(id) != NONE;
+    }
+
+    // Returns the size of the repository,
+    // based on how many commits there are (B, R).
+    public int getRepoSize() {
+        return size;
+    }
+
+    // Takes in an int n parameter (P) and returns a string consisting
+    // of the string representations of the most recent n commits
+    // in this repository, or all of them if n is larger than the repository
+    // size. Returns an empty String if current Repo has no commits (B, R).
+    // Throws an IllegalArgumentException if n is negative or equals 0 (E).
+    public String getHistory(int n) {
+        StringBuilder history = new StringBuilder();
+        try {
+            writeHistory(n, history);
+        } catch (IOException e) {
+            // StringBuilder never throws, but Appendable says it might
+            throw new UncheckedIOException(e);
+        }
+        return history.toString();
+    }
+
+    // Takes in an int n parameter and an output to write to (P) and writes
+    // the string representations of the most recent n commits to the output,
+    // one per line, in the same format as getHistory (B). Throws an
+    // IllegalArgumentException if n is negative or equals 0, and passes on
+    // any IOException from the output (E).
+    public void writeHistory(int n, Appendable out) throws IOException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
+        }
+        int curr = front;
+        while (curr != NONE && n != 0) {
+            appendCommit(out, curr);
+            out.append('\n');
+            n--;
+            curr = past[curr];
+        }
+    }
+
+    // Removes the commit with ID targetId from this repository (B),
+    // given the String targetId parameter (P). Returns true if the
+    // commit was successfully dropped, and false if there is no
+    // commit that matches the given ID in the repository (R).
+    public boolean drop(String targetId) {
+        int id = parseId(targetId);
+        int slot = id == NONE ? NONE : index.remove(id);
+        if (slot == NONE) {
+            return false;
+        }
+        int before = past[slot];
+        int after = newer[slot];
+        if (after == NONE) {
+            front = before;
+        } else {
+            past[after] = before;
+        }
+        if (before != NONE) {
+            newer[before] = after;
+        }
+        deadMessageBytes += messageLength[slot];
+        past[slot] = free;
+        free = slot;
+        size--;
+        if (deadMessageBytes > (1 << 20) && deadMessageBytes > messageEnd / 2) {
+            rebuild(front, NONE);
+        }
+        return true;
+    }
+
+    // Takes all the commits in the other repository (P) and moves them
+    // into this repository, combining the two repository histories
+    // such that chronological order is preserved (B). The merged history
+    // is laid out again in order, which also reclaims space left by drops.
+    // Throws an IllegalStateException, leaving both histories as they were,
+    // if their messages together exceed 2 GB (E).
+    public void synchronize(CompactRepository other) {
+        if (other == this || other.front == NONE) {
+            return;
+        }
+        clock.observe(other.timeStamps[other.front]);
+        rebuild(front, other.front, other);
+        other.clear(INITIAL_CAPACITY);
+    }
+
+    // Lays this repository's history out again from scratch (B), given the
+    // front slots of this history and of another history in this
+    // repository's arrays, or NONE (P).
+    private void rebuild(int first, int second) {
+        rebuild(first, second, this);
+    }
+
+    // Takes the front slot of this repository's history and the front slot
+    // of a history in another repository (P), and replaces this repository's
+    // arrays with both histories merged in chronological order, newest in
+    // slot 0 (B). Commits with equal timestamps come from this history first.
+    // Throws an IllegalStateException, before anything is changed, if the
+    // messages together would not fit in one array (E).
+    private void rebuild(int first, int second, CompactRepository other) {
+        int total = size + (other == this ? 0 : other.size);
+        long combined = (long) messageEnd - deadMessageBytes
+                + (other == this ? 0 : (long) other.messageEnd - other.deadMessageBytes);
+        if (combined > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Messages exceed 2 GB");
+        }
+        int bytes = (int) combined;
+        long[] newTimeStamps = new long[Math.max(total, INITIAL_CAPACITY)];
+        int[] newIds = new int[newTimeStamps.length];
+        int[] newStart = new int[newTimeStamps.length];
+        int[] newLength = new int[newTimeStamps.length];
+        byte[] newBytes = new byte[Math.max(bytes, INITIAL_CAPACITY)];
+        IdIndex newIndex = new IdIndex(total);
+        int end = 0;
+        for (int slot = 0; slot < total; slot++) {
+            CompactRepository source;
+            int from;
+            if (second == NONE || (first != NONE
+                    && timeStamps[first] >= other.timeStamps[second])) {
+                source = this;
+                from = first;
+                first = past[first];
+            } else {
+                source = other;
+                from = second;
+                second = other.past[second];
+            }
+            newTimeStamps[slot] = source.timeStamps[from];
+            newIds[slot] = source.ids[from];
+            newStart[slot] = end;
+            newLength[slot] = source.messageLength[from];
+            System.arraycopy(source.messageBytes, source.messageStart[from],
+                             newBytes, end, newLength[slot]);
+            end += newLength[slot];
+            newIndex.put(newIds[slot], slot);
+        }
+        timeStamps = newTimeStamps;
+        ids = newIds;
+        messageStart = newStart;
+        messageLength = newLength;
+        messageBytes = newBytes;
+        messageEnd = end;
+        deadMessageBytes = 0;
+        past = new int[newTimeStamps.length];
+        newer = new int[newTimeStamps.length];
+        for (int slot = 0; slot < total; slot++) {
+            past[slot] = slot + 1 < total ? slot + 1 : NONE;
+            newer[slot] = slot - 1;
+        }
+        front = total == 0 ? NONE : 0;
+        size = total;
+        used = total;
+        free = NONE;
+        index = newIndex;
+    }
+
+    // Empties this repository, making room for the given number of
+    // commits (P) (B).
+    private void clear(int capacity) {
+        timeStamps = new long[capacity];
+        ids = new int[capacity];
+        messageStart = new int[capacity];
+        messageLength = new int[capacity];
+        past = new int[capacity];
+        newer = new int[capacity];
+        messageBytes = new byte[capacity * 16];
+        messageEnd = 0;
+        deadMessageBytes = 0;
+        front = NONE;
+        size = 0;
+        used = 0;
+        free = NONE;
+        index = new IdIndex(capacity);
+    }
+
+    // Finds a free slot for a new commit, growing the arrays if every
+    // slot is in use (B). Returns the slot (R).
+    private int allocate() {
+        if (free != NONE) {
+            int slot = free;
+            free = past[slot];
+            return slot;
+        }
+        if (used == timeStamps.length) {
+            int capacity = timeStamps.length * 2;
+            timeStamps = Arrays.copyOf(timeStamps, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            messageStart = Arrays.copyOf(messageStart, capacity);
+            messageLength = Arrays.copyOf(messageLength, capacity);
+            past = Arrays.copyOf(past, capacity);
+            newer = Arrays.copyOf(newer, capacity);
+        }
+        return used++;
+    }
+
+    // Appends the given message bytes to the shared message array and
+    // records where they are for the given slot (P) (B).
+    private void storeMessage(int slot, byte[] bytes) {
+        if (messageEnd + bytes.length > messageBytes.length) {
+            long capacity = Math.max((long) messageBytes.length * 2, (long) messageEnd + bytes.length);
+            if (capacity > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Messages exceed 2 GB");
+            }
+            messageBytes = Arrays.copyOf(messageBytes, (int) capacity);
+        }
+        System.arraycopy(bytes, 0, messageBytes, messageEnd, bytes.length);
+        messageStart[slot] = messageEnd;
+        messageLength[slot] = bytes.length;
+        messageEnd += bytes.length;
+    }
+
+    // Appends the string representation of the commit in the given slot
+    // to the given output (P), in the same form as Repository.Commit (B).
+    private void appendCommit(Appendable out, int slot) throws IOException {
+        String message = new String(messageBytes, messageStart[slot], messageLength[slot],
+                                    StandardCharsets.UTF_8);
+        Repository.Commit.appendTo(out, Integer.toString(ids[slot]), timeStamps[slot], message);
+    }
+
+    // Appends the string representation of the commit in the given slot
+    // to the given StringBuilder (P) (B).
+    private void appendCommit(StringBuilder out, int slot) {
+        try {
+            appendCommit((Appendable) out, slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the numeric ID written as the given string (P), or NONE if
+    // the string is not exactly how some numeric ID is written (R).
+    private static int parseId(String targetId) {
+        if (targetId == null || targetId.isEmpty() || targetId.length() > 10
+                || (targetId.length() > 1 && targetId.charAt(0) == '0')) {
+            return NONE;
+        }
+        long id = 0;
+        for (int i = 0; i < targetId.length(); i++) {
+            char c = targetId.charAt(i);
+            if (c < '0' || c > '9') {
+                return NONE;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return id > Integer.MAX_VALUE ? NONE : (int) id;
+    }
+
+    // A map from numeric IDs to slots that stores both in int arrays,
+    // using open addressing with linear probing.
+    private static class IdIndex {
+        private int[] keys;
+        private int[] values;
+        private int size;
+
+        // Constructs an empty index with room for the given number
+        // of IDs (P) (B).
+        public IdIndex(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) * 2;
+            keys = new int[capacity];
+            values = new int[capacity];
+            Arrays.fill(keys, NONE);
+        }
+
+        // Returns the slot of the given ID (P), or NONE if it is
+        // not in the index (R).
+        public int get(int id) {
+            int mask = keys.length - 1;
+            for (int i = hash(id) & mask; keys[i] != NONE; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    return values[i];
+                }
+            }
+            return NONE;
+        }
+
+        // Records the slot of the given ID (P) (B).
+        public void put(int id, int slot) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int i = hash(id) & mask;
+            while (keys[i] != NONE && keys[i] != id) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == NONE) {
+                size++;
+            }
+            keys[i] = id;
+            values[i] = slot;
+        }
+
+        // Removes the given ID (P) from the index, shifting back any later
+        // entries in its probe run so lookups never stop early (B).
+        // Returns the slot it had, or NONE if it was not there (R).
+        public int remove(int id) {
+            int mask = keys.length - 1;
+            int i = hash(id) & mask;
+            while (keys[i] != id) {
+                if (keys[i] == NONE) {
+                    return NONE;
+                }
+                i = (i + 1) & mask;
+            }
+            int slot = values[i];
+            size--;
+            int gap = i;
+            for (int j = (gap + 1) & mask; keys[j] != NONE; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                // Move the entry back if the gap lies between its home and it
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = NONE;
+            return slot;
+        }
+
+        // Doubles the table, re-inserting every entry (B).
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            Arrays.fill(keys, NONE);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != NONE) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        // Spreads the bits of an ID so that consecutive IDs do not
+        // fill one run of the table (P, R).
+        private static int hash(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
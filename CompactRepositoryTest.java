@@ -0,0 +1,195 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+
+public class CompactRepositoryTest {
+    private static final int FOOTPRINT_COMMITS = 200_000;
+    // Where each run's clock starts, so both engines see the same timestamps.
+    private static final long START = 1_700_000_000_000L;
+
+    @BeforeEach
+    public void setUp() {
+        Repository.Commit.resetIds();
+    }
+
+    @Test
+    @DisplayName("Test both engines give the same results")
+    public void testSameResults() {
+        CommitClock classicClock = new HybridClock(() -> START);
+        Repository classic1 = new Repository("repo1");
+        Repository classic2 = new Repository("repo2");
+        classic1.setClock(classicClock);
+        classic2.setClock(classicClock);
+        List<String> classic = runWorkload(classic1, classic2);
+
+        Repository.Commit.resetIds();
+        CommitClock compactClock = new HybridClock(() -> START);
+        CompactRepository compact1 = new CompactRepository("repo1");
+        CompactRepository compact2 = new CompactRepository("repo2");
+        compact1.setClock(compactClock);
+        compact2.setClock(compactClock);
+        List<String> compact = runWorkload(compact1, compact2);
+        assertEquals(compact, classic);
+    }
+
+    @Test
+    @DisplayName("Test CompactRepository (empty and invalid cases)")
+    public void testEmptyCases() {
+        CompactRepository repo = new CompactRepository("repo1");
+        assertEquals(repo.toString(), "repo1 - No commits");
+        assertEquals(repo.getRepoHead(), null);
+        assertEquals(repo.getHistory(3), "");
+        assertFalse(repo.drop("0"));
+        assertThrows(IllegalArgumentException.class, () -> repo.getHistory(0));
+        assertThrows(IllegalArgumentException.class, () -> new CompactRepository(""));
+
+        // IDs only match when written exactly as Repository writes them
+        repo.commit("First commit.");
+        assertTrue(repo.contains("0"));
+        assertFalse(repo.contains("00"));
+        assertFalse(repo.contains("-0"));
+        assertFalse(repo.contains("99999999999"));
+    }
+
+    @Test
+    @DisplayName("Test drop() of most commits")
+    public void testDropMany() {
+        CompactRepository repo = new CompactRepository("repo1");
+        String padding = "x".repeat(1000);
+        for (int i = 0; i < 3000; i++) {
+            repo.commit(i + padding);
+        }
+
+        // Dropping two thirds of the space reclaims it and lays the rest out again
+        for (int i = 0; i < 3000; i++) {
+            if (i % 3 != 0) {
+                assertTrue(repo.drop("" + i));
+            }
+        }
+        assertEquals(repo.getRepoSize(), 1000);
+        String[] history = repo.getHistory(1000).split("\n");
+        for (int i = 0; i < 1000; i++) {
+            int id = 2997 - 3 * i;
+            assertTrue(history[i].startsWith(id + " at "));
+            assertTrue(history[i].endsWith(": " + id + padding));
+            assertTrue(repo.contains("" + id));
+            assertFalse(repo.contains("" + (id + 1)));
+        }
+
+        // Assert that the repository keeps working afterwards
+        assertEquals(repo.commit("After drops"), "3000");
+        assertTrue(repo.drop("0"));
+        assertEquals(repo.getRepoSize(), 1000);
+    }
+
+    @Test
+    @DisplayName("Test CompactRepository uses less memory than Repository")
+    public void testMemoryFootprint() {
+        long classic = footprint(() -> {
+            Repository repo = new Repository("repo1");
+            for (int i = 0; i < FOOTPRINT_COMMITS; i++) {
+                repo.commit("Commit " + i);
+            }
+            return repo;
+        });
+        long compact = footprint(() -> {
+            CompactRepository repo = new CompactRepository("repo1");
+            for (int i = 0; i < FOOTPRINT_COMMITS; i++) {
+                repo.commit("Commit " + i);
+            }
+            return repo;
+        });
+        // Measured at about 417 and 78 bytes per commit
+        assertTrue(compact * 3 < classic, "Repository " + classic / FOOTPRINT_COMMITS
+                + " bytes per commit, CompactRepository " + compact / FOOTPRINT_COMMITS);
+    }
+
+    // Runs the same commits, drops, synchronizes and lookups against two
+    // repositories of either engine (P) and records every result (B).
+    // Returns the recorded results (R).
+    private List<String> runWorkload(Object first, Object second) {
+        Engine repo1 = new Engine(first);
+        Engine repo2 = new Engine(second);
+        List<String> results = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            results.add((i % 3 == 0 ? repo2 : repo1).commit("Commit " + i));
+        }
+        for (String id : new String[]{"0", "4", "5", "39", "40", "abc"}) {
+            results.add(id + " " + repo1.drop(id) + " " + repo2.drop(id));
+        }
+        results.add(repo1.head() + " " + repo1.size() + " " + repo1.history(50));
+        repo1.synchronize(repo2);
+        results.add(repo1.head() + " " + repo1.size() + " " + repo2.size() + " " + repo2.head());
+        results.add(repo1.history(50));
+        for (int i = 0; i < 42; i++) {
+            results.add(i + " " + repo1.contains("" + i) + " " + repo2.contains("" + i));
+        }
+        results.add(repo2.commit("After synchronize"));
+        results.add(repo2.history(1));
+        return results;
+    }
+
+    // Takes a workload that builds a repository (P) and measures how much
+    // heap the repository it returns keeps alive (B). Returns the number
+    // of bytes (R).
+    private static long footprint(java.util.function.Supplier<Object> workload) {
+        long before = usedHeap();
+        Object repo = workload.get();
+        long after = usedHeap();
+        assertNotNull(repo);
+        return after - before;
+    }
+
+    // Returns the heap in use after asking for a few full collections (R).
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // Gives Repository and CompactRepository one interface for the
+    // workload, since they share methods but not a type.
+    private static class Engine {
+        private final Repository classic;
+        private final CompactRepository compact;
+
+        public Engine(Object repo) {
+            classic = repo instanceof Repository ? (Repository) repo : null;
+            compact = repo instanceof CompactRepository ? (CompactRepository) repo : null;
+        }
+
+        public String commit(String message) {
+            return classic != null ? classic.commit(message) : compact.commit(message);
+        }
+
+        public boolean drop(String id) {
+            return classic != null ? classic.drop(id) : compact.drop(id);
+        }
+
+        public boolean contains(String id) {
+            return classic != null ? classic.contains(id) : compact.contains(id);
+        }
+
+        public String head() {
+            return classic != null ? classic.getRepoHead() : compact.getRepoHead();
+        }
+
+        public int size() {
+            return classic != null ? classic.getRepoSize() : compact.getRepoSize();
+        }
+
+        public String history(int n) {
+            return classic != null ? classic.getHistory(n) : compact.getHistory(n);
+        }
+
+        public void synchronize(Engine other) {
+            if (classic != null) {
+                classic.synchronize(other.classic);
+            } else {
+                compact.synchronize(other.compact);
+            }
+        }
+    }
+}
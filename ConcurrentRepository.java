@@ -0,0 +1,529 @@
+import java.util.*;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// A Repository that can be shared between threads. Commits are pushed
+// onto the head with compare-and-set, Treiber-stack style, so threads
+// committing at the same time never wait on a lock. Drops and merges
+// change the middle of the history, so they take a per-repository lock,
+// but committers never do. Reads walk whatever history is published
+// when they start and may miss changes made while they run.
+public class ConcurrentRepository extends Repository {
+    // Breaks ties when two repositories have the same identity hash.
+    private static final Object TIE_LOCK = new Object();
+
+    private final AtomicReference<Commit> head;
+    private final Map<String, Commit> commits;
+    private final Map<String, Commit> newer;
+    private final LongAdder size;
+    private final Object structureLock;
+
+    // Constructs a new, empty thread-safe Repository using a String
+    // name (P) as a parameter (B). Throws an IllegalArgumentException (E)
+    // if the given name is null or empty.
+    public ConcurrentRepository(String name) {
+        super(name);
+        head = new AtomicReference<>();
+        commits = new ConcurrentHashMap<>();
+        newer = new ConcurrentHashMap<>();
+        size = new LongAdder();
+        structureLock = new Object();
+    }
+
+    // Creates a new commit in the repository (B), given a
+    // representative message for the commit (P). The commit is indexed
+    // before it is published so that drop can always find it.
+    // Returns the ID of the created commit (R).
+    @Override
+    public String commit(String message) {
+        RepositoryMetrics metrics = getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        Commit commit = new Commit("" + Commit.nextId(), getClock().now(), message, null);
+        commits.put(commit.id, commit);
+        size.increment();
+        Commit past;
+        do {
+            past = head.get();
+            commit.past = past;
+        } while (!head.compareAndSet(past, commit));
+        if (past != null) {
+            newer.put(past.id, commit);
+        }
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.COMMIT, start, 0);
+        }
+        return commit.id;
+    }
+
+    // Creates a new commit in the repository for each of the given
+    // messages, oldest first (P), linking them privately and then
+    // publishing them all with a single compare-and-set, so other
+    // committers see either none of them or all of them in a row (B).
+    // Returns the IDs of the created commits, in the same order as the
+    // messages (R).
+    @Override
+    public List<String> commitAll(List<String> messages) {
+        List<String> ids = new ArrayList<>(messages.size());
+        if (messages.isEmpty()) {
+            return ids;
+        }
+        Commit bottom = null;
+        Commit top = null;
+        for (String message : messages) {
+            Commit curr = new Commit("" + Commit.nextId(), getClock().now(), message, top);
+            if (top == null) {
+                bottom = curr;
+            } else {
+                newer.put(top.id, curr);
+            }
+            commits.put(curr.id, curr);
+            ids.add(curr.id);
+            top = curr;
+        }
+        size.add(ids.size());
+        Commit past;
+        do {
+            past = head.get();
+            bottom.past = past;
+        } while (!head.compareAndSet(past, top));
+        if (past != null) {
+            newer.put(past.id, bottom);
+        }
+        return ids;
+    }
+
+    // Returns the ID of the current head of this repository (B, R).
+    // Returns null if no commits (R).
+    @Override
+    public String getRepoHead() {
+        Commit front = head.get();
+        return front == null ? null : front.id;
+    }
+
+    // Returns a string representation of the repository,
+    // including its name and the head ID (B, R). If no commits were
+    // made, the string indicates as such.
+    @Override
+    public String toString() {
+        Commit front = head.get();
+        if (front == null) {
+            return getName() + " - No commits";
+        }
+        return getName() + " - Current head: " + front.toString();
+    }
+
+    // Given a targetId (P), checks if there exists a commit
+    // with the given ID (B). Returns true if this is the case,
+    // false if not (R).
+    @Override
+    public boolean contains(String targetId) {
+        RepositoryMetrics metrics = getMetrics();
+        if (metrics == null) {
+            return commits.containsKey(targetId);
+        }
+        long start = System.nanoTime();
+        boolean found = commits.containsKey(targetId);
+        metrics.record(RepositoryMetrics.Operation.CONTAINS, start, 0);
+        return found;
+    }
+
+    // Returns the size of the repository,
+    // based on how many commits there are (B, R).
+    @Override
+    public int getRepoSize() {
+        return size.intValue();
+    }
+
+    // Takes in an int n parameter and an output to write to (P) and writes
+    // the string representations of the most recent n commits to the output,
+    // one per line (B). Throws an IllegalArgumentException if n is
+    // negative or equals 0, and passes on any IOException from the output (E).
+    @Override
+    public void writeHistory(int n, Appendable out) throws IOException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
+        }
+        RepositoryMetrics metrics = getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        int walked = 0;
+        Commit curr = head.get();
+        while (curr != null && n != 0) {
+            curr.appendTo(out);
+            out.append('\n');
+            n--;
+            walked++;
+            curr = curr.past;
+        }
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.GET_HISTORY, start, walked);
+        }
+    }
+
+    // Takes a start and end time in milliseconds (P) and returns a stream of
+    // every commit made in that time, both ends included, newest first (R).
+    // Commits racing to the head may be published slightly out of timestamp
+    // order, so there is no sorted index to search: this walks the history
+    // published when the stream starts. Throws an IllegalArgumentException
+    // if fromMillis is after toMillis (E).
+    @Override
+    public Stream<Commit> commitsBetween(long fromMillis, long toMillis) {
+        if (fromMillis > toMillis) {
+            throw new IllegalArgumentException("Invalid Range: Start is after end.");
+        }
+        return Stream.iterate(head.get(), curr -> curr != null, curr -> curr.past)
+                     .filter(curr -> curr.timeStamp >= fromMillis && curr.timeStamp <= toMillis);
+    }
+
+    // Takes a query and the most results wanted (P) and returns the commits
+    // whose messages hold every word of the query, newest first (R). Keeping
+    // a word index up to date would put committers behind a lock, so this
+    // reads the history published when the search starts. Throws an
+    // IllegalArgumentException if the query has no words or limit is
+    // negative or 0 (E).
+    @Override
+    public List<Commit> search(String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
+        }
+        return Stream.iterate(head.get(), curr -> curr != null, curr -> curr.past)
+                     .filter(MessageIndex.matcher(query))
+                     .limit(limit)
+                     .collect(Collectors.toList());
+    }
+
+    // Removes the commit with ID targetId from this repository (B),
+    // given the String targetId parameter (P). Returns true if the
+    // commit was successfully dropped, and false if there is no
+    // commit that matches the given ID in the repository (R).
+    @Override
+    public boolean drop(String targetId) {
+        RepositoryMetrics metrics = getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        synchronized (structureLock) {
+            Commit target = commits.get(targetId);
+            if (target == null) {
+                if (metrics != null) {
+                    metrics.record(RepositoryMetrics.Operation.DROP, start, 0);
+                }
+                return false;
+            }
+            unlink(target);
+            if (metrics != null) {
+                metrics.record(RepositoryMetrics.Operation.DROP, start, 0);
+            }
+            return true;
+        }
+    }
+
+    // Takes a commit of this repository (P) and removes it from the
+    // history and the indexes (B). Must be called while holding the
+    // structure lock.
+    private void unlink(Commit target) {
+        Commit after;
+        while (true) {
+            after = findNewer(target);
+            if (after != null) {
+                after.past = target.past;
+                break;
+            } else if (head.compareAndSet(target, target.past)) {
+                break;
+            }
+            // The commit is indexed but still being published
+            Thread.yield();
+        }
+        commits.remove(target.id);
+        newer.remove(target.id);
+        if (target.past != null) {
+            if (after != null) {
+                newer.put(target.past.id, after);
+            } else {
+                newer.remove(target.past.id);
+            }
+        }
+        size.decrement();
+    }
+
+    // Takes a commit of this repository (P) and removes it without
+    // recording a drop, for a commit another repository already holds (B).
+    @Override
+    void discard(Commit target) {
+        synchronized (structureLock) {
+            if (commits.get(target.id) == target) {
+                unlink(target);
+            }
+        }
+    }
+
+    // Returns this repository's commits by ID (R), for another repository
+    // about to take them. Not to be changed.
+    @Override
+    Map<String, Commit> commitsById() {
+        return commits;
+    }
+
+    // Removes every commit with one of the given IDs from this repository
+    // (B), given a collection of String IDs (P). Takes the lock once and
+    // unlinks every target in a single walk from the head, which stops as
+    // soon as the last one is found. Returns whether each ID was dropped,
+    // in the order the collection gives them; an ID given twice is only
+    // dropped the first time (R).
+    @Override
+    public List<Boolean> dropAll(Collection<String> targetIds) {
+        List<Boolean> dropped = new ArrayList<>(targetIds.size());
+        synchronized (structureLock) {
+            Set<String> targets = new HashSet<>();
+            for (String targetId : targetIds) {
+                dropped.add(commits.containsKey(targetId) && targets.add(targetId));
+            }
+            Commit after = null;
+            Commit curr = head.get();
+            while (curr != null && !targets.isEmpty()) {
+                if (targets.remove(curr.id)) {
+                    if (after == null && !head.compareAndSet(curr, curr.past)) {
+                        // New commits were pushed on top since the walk began
+                        after = findNewer(curr);
+                    }
+                    if (after != null) {
+                        after.past = curr.past;
+                    }
+                    commits.remove(curr.id);
+                    newer.remove(curr.id);
+                    if (curr.past != null) {
+                        if (after != null) {
+                            newer.put(curr.past.id, after);
+                        } else {
+                            newer.remove(curr.past.id);
+                        }
+                    }
+                    size.decrement();
+                } else {
+                    after = curr;
+                }
+                curr = curr.past;
+            }
+            // Anything left was indexed but not yet published when the walk began
+            for (String targetId : targets) {
+                drop(targetId);
+            }
+        }
+        return dropped;
+    }
+
+    // Given a commit in this repository (P), finds the commit made just
+    // after it (B). Committers record that link only after publishing,
+    // so a missing or stale link falls back to a walk from the head,
+    // which is short because new commits are always near the head.
+    // Returns null if the commit is the head or not yet published (R).
+    // Must be called while holding the structure lock.
+    private Commit findNewer(Commit target) {
+        Commit after = newer.get(target.id);
+        if (after != null && after.past == target && commits.get(after.id) == after) {
+            return after;
+        }
+        Commit curr = head.get();
+        while (curr != null && curr.past != target) {
+            curr = curr.past;
+        }
+        return curr;
+    }
+
+    // Takes all the commits in the other repository (P) and moves them
+    // into this repository, combining the two repository histories
+    // such that chronological order is preserved (B). Commits made to
+    // this repository during the merge stay above the merged history.
+    @Override
+    public void synchronize(Repository other) {
+        RepositoryMetrics metrics = getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        long walked = synchronizeWith(other);
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, walked);
+        }
+    }
+
+    // Takes another repository (P) and moves its commits into this one,
+    // taking whichever locks are needed (B). Returns how many commits the
+    // merge walked (R).
+    private long synchronizeWith(Repository other) {
+        if (other == this) {
+            return 0;
+        }
+        if (!(other instanceof ConcurrentRepository)) {
+            // No tombstones are kept here, so its waiting drops are made final
+            other.purge(Long.MAX_VALUE, Integer.MAX_VALUE);
+            synchronized (structureLock) {
+                return merge(other.takeAll());
+            }
+        }
+        // Always lock the two repositories in the same order so that
+        // two threads synchronizing them both ways cannot deadlock
+        Object first = structureLock;
+        Object second = ((ConcurrentRepository) other).structureLock;
+        int firstHash = System.identityHashCode(first);
+        int secondHash = System.identityHashCode(second);
+        if (firstHash > secondHash) {
+            Object temp = first;
+            first = second;
+            second = temp;
+        }
+        if (firstHash == secondHash) {
+            synchronized (TIE_LOCK) {
+                return synchronizeLocked(other, first, second);
+            }
+        }
+        return synchronizeLocked(other, first, second);
+    }
+
+    // Takes the other repository and both structure locks in locking
+    // order (P), and moves the other repository's commits into this one
+    // while holding both locks (B). Returns how many commits the merge
+    // walked (R).
+    private long synchronizeLocked(Repository other, Object first, Object second) {
+        synchronized (first) {
+            synchronized (second) {
+                return merge(other.takeAll());
+            }
+        }
+    }
+
+    // Takes all the commits in each of the other repositories (P) and
+    // moves them into this repository one repository at a time (B).
+    @Override
+    public void synchronizeAll(Collection<Repository> others) {
+        for (Repository other : others) {
+            synchronize(other);
+        }
+    }
+
+    // Takes all the commits in each of the other repositories and a
+    // parallel flag (P), and moves the commits into this repository one
+    // repository at a time (B). Merges here are always done in turn.
+    @Override
+    public void synchronizeAll(Collection<Repository> others, boolean parallel) {
+        synchronizeAll(others);
+    }
+
+    // Takes the front of a history that no longer belongs to any
+    // repository (P) and merges it into this one (B), leaving out commits
+    // this repository already has with the same ID, timestamp and
+    // message. Returns how many commits were walked (R). Must be called
+    // while holding the structure lock.
+    private long merge(Commit otherFront) {
+        long walked = 0;
+        while (otherFront != null && holdsCopy(otherFront)) {
+            otherFront = otherFront.past;
+            walked++;
+        }
+        if (otherFront == null) {
+            return walked;
+        }
+        getClock().observe(otherFront.timeStamp);
+        for (Commit curr = otherFront; curr != null; curr = curr.past) {
+            walked++;
+            while (curr.past != null && holdsCopy(curr.past)) {
+                curr.past = curr.past.past;
+            }
+            commits.put(curr.id, curr);
+            size.increment();
+        }
+        Commit oldFront = head.get();
+        LongAdder placed = new LongAdder();
+        Commit merged = Repository.merge(oldFront, otherFront, placed);
+        walked += placed.sum();
+        if (merged != oldFront && !head.compareAndSet(oldFront, merged)) {
+            // New commits were pushed on top; hang the merge below them
+            Commit curr = head.get();
+            while (curr.past != oldFront) {
+                curr = curr.past;
+                walked++;
+            }
+            curr.past = merged;
+        }
+        for (Commit curr = head.get(); curr != null && curr.past != null; curr = curr.past) {
+            newer.put(curr.past.id, curr);
+            walked++;
+        }
+        return walked;
+    }
+
+    // Returns the most recent published commit in this repository, or
+    // null if there are no commits (R).
+    @Override
+    Commit getFront() {
+        return head.get();
+    }
+
+    // Logging would put every committer back behind one lock, so it is
+    // not supported here. Throws an UnsupportedOperationException (E).
+    @Override
+    public void setLog(CommitLog log) {
+        throw new UnsupportedOperationException("ConcurrentRepository cannot be logged");
+    }
+
+    // Returns whether this repository has a commit with the same ID,
+    // timestamp and message as the given one (P, R).
+    @Override
+    boolean holdsCopy(Commit commit) {
+        Commit held = commits.get(commit.id);
+        return held != null && held.timeStamp == commit.timeStamp
+                && held.message.equals(commit.message);
+    }
+
+    // Splicing relinks commits in the middle of the history, which readers
+    // here walk without a lock, and the fingerprint would put every
+    // committer back behind one lock, so deltas are not supported here;
+    // use synchronize instead. Throws an UnsupportedOperationException (E).
+    @Override
+    int spliceAbove(String baseId, long baseFingerprint, int baseLength,
+                    long[] timeStamps, String[] ids, String[] messages) {
+        throw new UnsupportedOperationException("ConcurrentRepository cannot apply deltas");
+    }
+
+    // Deltas are not supported here, as above. Throws an
+    // UnsupportedOperationException (E).
+    @Override
+    long fingerprint() {
+        throw new UnsupportedOperationException("ConcurrentRepository cannot make deltas");
+    }
+
+    // Commits are made before the commit they go on top of is known, so
+    // they cannot be named by content here. Throws an
+    // UnsupportedOperationException if asked to turn content IDs on (E).
+    @Override
+    public void setContentIds(boolean contentIds) {
+        if (contentIds) {
+            throw new UnsupportedOperationException("ConcurrentRepository cannot name commits by content");
+        }
+    }
+
+    // Tombstones would need the same lock as drops on every read, so soft
+    // drops are not supported here. Throws an UnsupportedOperationException
+    // if asked to turn them on (E).
+    @Override
+    public void setSoftDrops(boolean soft) {
+        if (soft) {
+            throw new UnsupportedOperationException("ConcurrentRepository cannot keep tombstones");
+        }
+    }
+
+    // Removes every commit from this repository, leaving it empty (B).
+    // Commits still being published when this runs stay behind.
+    // Returns the front of the removed history, or null if there
+    // were no commits (R).
+    @Override
+    Commit takeAll() {
+        synchronized (structureLock) {
+            Commit taken = head.getAndSet(null);
+            for (Commit curr = taken; curr != null; curr = curr.past) {
+                commits.remove(curr.id);
+                newer.remove(curr.id);
+                size.decrement();
+            }
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ConcurrentRepositoryTest {
+    private static final int THREADS = 32;
+    private static final int COMMITS_PER_THREAD = 2000;
+
+    private ConcurrentRepository repo1;
+    private ConcurrentRepository repo2;
+    private ExecutorService pool;
+
+    @BeforeEach
+    public void setUp() {
+        repo1 = new ConcurrentRepository("repo1");
+        repo2 = new ConcurrentRepository("repo2");
+        pool = Executors.newFixedThreadPool(THREADS);
+        Repository.Commit.resetIds();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Test commit() from many threads")
+    public void testConcurrentCommit() throws Exception {
+        // Every thread commits at the same time and remembers its IDs
+        List<Future<List<String>>> results = runAll(i -> {
+            List<String> ids = new ArrayList<>();
+            for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                ids.add(repo1.commit("Thread " + i + " commit " + j));
+            }
+            return ids;
+        });
+
+        // Assert that no commit was lost and no ID was handed out twice
+        Set<String> ids = new HashSet<>();
+        for (Future<List<String>> result : results) {
+            ids.addAll(result.get());
+        }
+        assertEquals(ids.size(), THREADS * COMMITS_PER_THREAD);
+        assertEquals(repo1.getRepoSize(), THREADS * COMMITS_PER_THREAD);
+        assertHistoryMatches(repo1, ids);
+    }
+
+    @Test
+    @DisplayName("Test commit() and drop() from many threads")
+    public void testConcurrentCommitAndDrop() throws Exception {
+        // Every thread commits and then drops every other one of its own commits
+        List<Future<List<String>>> results = runAll(i -> {
+            List<String> kept = new ArrayList<>();
+            for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                String id = repo1.commit("Thread " + i + " commit " + j);
+                if (j % 2 == 0) {
+                    assertTrue(repo1.drop(id));
+                } else {
+                    kept.add(id);
+                }
+            }
+            return kept;
+        });
+
+        // Assert that exactly the kept commits are left, still linked together
+        Set<String> kept = new HashSet<>();
+        for (Future<List<String>> result : results) {
+            kept.addAll(result.get());
+        }
+        assertEquals(kept.size(), THREADS * COMMITS_PER_THREAD / 2);
+        assertEquals(repo1.getRepoSize(), kept.size());
+        assertHistoryMatches(repo1, kept);
+    }
+
+    @Test
+    @DisplayName("Test commitAll() and dropAll() from many threads")
+    public void testConcurrentCommitAllAndDropAll() throws Exception {
+        // Every thread commits in batches and drops every other commit of
+        // the batch before, while single commits keep landing on top
+        List<Future<List<String>>> results = runAll(i -> {
+            List<String> kept = new ArrayList<>();
+            List<String> previous = Collections.emptyList();
+            for (int j = 0; j < COMMITS_PER_THREAD / 100; j++) {
+                List<String> messages = new ArrayList<>();
+                for (int k = 0; k < 10; k++) {
+                    messages.add("Thread " + i + " batch " + j + " commit " + k);
+                }
+                List<String> batch = repo1.commitAll(messages);
+                kept.add(repo1.commit("Thread " + i + " single " + j));
+                List<String> targets = new ArrayList<>();
+                for (int k = 0; k < previous.size(); k += 2) {
+                    targets.add(previous.get(k));
+                }
+                assertFalse(repo1.dropAll(targets).contains(false));
+                for (int k = 1; k < previous.size(); k += 2) {
+                    kept.add(previous.get(k));
+                }
+                previous = batch;
+            }
+            kept.addAll(previous);
+            return kept;
+        });
+
+        // Assert that exactly the kept commits are left, still linked together
+        Set<String> kept = new HashSet<>();
+        for (Future<List<String>> result : results) {
+            kept.addAll(result.get());
+        }
+        assertEquals(repo1.getRepoSize(), kept.size());
+        assertHistoryMatches(repo1, kept);
+    }
+
+    @Test
+    @DisplayName("Test commit() while synchronize() runs both ways")
+    public void testConcurrentSynchronize() throws Exception {
+        // Half the threads commit, the other half keep merging the two
+        // repositories into each other in opposite directions
+        List<Future<List<String>>> results = runAll(i -> {
+            List<String> ids = new ArrayList<>();
+            for (int j = 0; j < COMMITS_PER_THREAD / 10; j++) {
+                if (i % 2 == 0) {
+                    ids.add((i % 4 == 0 ? repo1 : repo2).commit("Commit " + j));
+                } else if (i % 4 == 1) {
+                    repo1.synchronize(repo2);
+                } else {
+                    repo2.synchronize(repo1);
+                }
+            }
+            return ids;
+        });
+        Set<String> ids = new HashSet<>();
+        for (Future<List<String>> result : results) {
+            ids.addAll(result.get());
+        }
+
+        // Assert that once everything is merged, every commit is still there
+        repo1.synchronize(repo2);
+        assertEquals(repo2.getRepoSize(), 0);
+        assertEquals(repo1.getRepoSize(), ids.size());
+        assertHistoryMatches(repo1, ids);
+    }
+
+    @Test
+    @DisplayName("Test synchronize() with a plain Repository")
+    public void testSynchronizePlainRepository() {
+        Repository plain = new Repository("plain");
+        CommitClock clock = new HybridClock();
+        repo1.setClock(clock);
+        plain.setClock(clock);
+        for (int i = 0; i < 6; i++) {
+            (i % 2 == 0 ? repo1 : plain).commit("Commit " + i);
+        }
+
+        // Assert that commits can move in both directions
+        repo1.synchronize(plain);
+        assertEquals(repo1.getRepoSize(), 6);
+        assertEquals(plain.getRepoSize(), 0);
+        assertEquals(repo1.getRepoHead(), "5");
+
+        plain.synchronize(repo1);
+        assertEquals(plain.getRepoSize(), 6);
+        assertEquals(repo1.getRepoSize(), 0);
+        assertTrue(plain.drop("3"));
+        assertFalse(repo1.contains("3"));
+
+        // Assert that commits already held are not moved in again
+        for (int i = 0; i < 2; i++) {
+            List<Repository.Commit> history = new ArrayList<>();
+            for (Repository.Commit curr = plain.getFront(); curr != null; curr = curr.past) {
+                history.add(0, curr);
+            }
+            Repository copy = new Repository("copy");
+            for (Repository.Commit commit : history) {
+                copy.restore(commit.id, commit.timeStamp, commit.message);
+            }
+            repo1.synchronize(copy);
+        }
+        assertEquals(repo1.getRepoSize(), 5);
+        assertEquals(repo1.getHistory(10), plain.getHistory(10));
+        assertThrows(UnsupportedOperationException.class, () -> repo1.setContentIds(true));
+
+        // Assert that commits dropped softly stay dropped when moved in
+        ConcurrentRepository other = new ConcurrentRepository("other");
+        plain.setSoftDrops(true);
+        assertTrue(plain.drop("4"));
+        other.synchronize(plain);
+        assertEquals(other.getRepoSize(), 4);
+        assertFalse(other.contains("4"));
+        assertFalse(other.getHistory(10).contains("4 at "));
+        assertEquals(plain.getTombstoneCount(), 0);
+    }
+
+    // Takes a task that is given a thread number (P) and runs it on
+    // every thread at once (B). Returns the result of each thread (R).
+    private <T> List<Future<T>> runAll(ThreadTask<T> task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            results.add(pool.submit(() -> {
+                start.await();
+                return task.run(thread);
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    // Asserts that the history of the given repository (P) holds exactly
+    // the given IDs, each one once, and that contains() agrees (B).
+    private void assertHistoryMatches(Repository repo, Set<String> ids) {
+        String history = repo.getHistory(Integer.MAX_VALUE);
+        String[] lines = history.isEmpty() ? new String[0] : history.split("\n");
+        Set<String> seen = new HashSet<>();
+        for (String line : lines) {
+            assertTrue(seen.add(line.substring(0, line.indexOf(' '))));
+        }
+        assertEquals(seen, ids);
+        for (String id : ids) {
+            assertTrue(repo.contains(id));
+        }
+    }
+
+    // A task to run on one of the test threads.
+    private interface ThreadTask<T> {
+        T run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+// The commits one replica of a repository has on top of the history it
+// shares with another, so that the other can catch up by adding just
+// those commits instead of merging the whole history. Replicas that
+// mostly agree differ only in their newest commits, so a delta is found
+// by walking down both histories from the front, newest first, until what
+// is left of each has the same fingerprint (see Repository.fingerprint).
+// It is applied by merging it into the commits above the same commit on
+// the other side, after checking the history below matches. Finding and
+// applying a delta cost the number of commits above the shared history,
+// not the length of the history.
+//
+// A delta can be written out and read back, to be carried to a replica
+// in another process:
+//      header:  MAGIC, VERSION, base id (string, or length -1 for none),
+//               fingerprint (long) and length (int) of the history from
+//               the base commit down, count (int)
+//      commits: count commits, newest first, each a timestamp (long),
+//               id (string) and message (string)
+// Strings are written as a byte length (int) followed by UTF-8 bytes.
+public class Delta {
+    private static final int MAGIC = 0x4d444c54; // "MDLT"
+    private static final int VERSION = 1;
+
+    private final String baseId;
+    private final long baseFingerprint;
+    private final int baseLength;
+    private final long[] timeStamps;
+    private final String[] ids;
+    private final String[] messages;
+
+    // Constructs a delta (B), given the ID of the commit it goes on top
+    // of, or null if it starts from an empty history, the fingerprint and
+    // length of the history from that commit down, and the timestamps,
+    // IDs and messages of its commits, newest first (P).
+    private Delta(String baseId, long baseFingerprint, int baseLength,
+                  long[] timeStamps, String[] ids, String[] messages) {
+        this.baseId = baseId;
+        this.baseFingerprint = baseFingerprint;
+        this.baseLength = baseLength;
+        this.timeStamps = timeStamps;
+        this.ids = ids;
+        this.messages = messages;
+    }
+
+    // Takes a repository and the ID of one of its commits, or null for
+    // its whole history (P), and returns a delta of every commit in it
+    // above that commit (R), such as the head it had when a replica last
+    // caught up. Only the commits above it are read. Dropped commits are
+    // left out. Throws an IllegalArgumentException if the repository has
+    // no commit with that ID (E).
+    public static Delta since(Repository repo, String sinceId) {
+        long rest = repo.fingerprint();
+        int length = repo.getRepoSize() + repo.getTombstoneCount();
+        List<Repository.Commit> newer = new ArrayList<>();
+        Repository.Commit curr = repo.getFront();
+        while (curr != null && !curr.id.equals(sinceId)) {
+            if (!repo.isTombstoned(curr)) {
+                newer.add(curr);
+            }
+            rest -= Repository.fingerprintOf(curr);
+            length--;
+            curr = curr.past;
+        }
+        if (curr == null && sinceId != null) {
+            throw new IllegalArgumentException("Invalid ID: No commit " + sinceId + " in " + repo.getName());
+        }
+        return of(sinceId, rest, length, newer);
+    }
+
+    // Takes a source and a target repository (P) and returns a delta of
+    // the commits the source has that the target does not, on top of the
+    // history the two share (R). Both histories are walked down together,
+    // newest first, only until what is left of each has the same length
+    // and fingerprint and starts with the same commit. Dropped commits are
+    // left out.
+    public static Delta between(Repository source, Repository target) {
+        long sourceRest = source.fingerprint();
+        long targetRest = target.fingerprint();
+        int sourceLength = source.getRepoSize() + source.getTombstoneCount();
+        int targetLength = target.getRepoSize() + target.getTombstoneCount();
+        List<Repository.Commit> newer = new ArrayList<>();
+        Repository.Commit mine = source.getFront();
+        Repository.Commit theirs = target.getFront();
+        while (sourceRest != targetRest || sourceLength != targetLength
+                || (mine != null && !mine.id.equals(theirs.id))) {
+            if (theirs == null || (mine != null && mine.timeStamp >= theirs.timeStamp)) {
+                if (!target.holdsCopy(mine) && !source.isTombstoned(mine)) {
+                    newer.add(mine);
+                }
+                sourceRest -= Repository.fingerprintOf(mine);
+                sourceLength--;
+                mine = mine.past;
+            } else {
+                targetRest -= Repository.fingerprintOf(theirs);
+                targetLength--;
+                theirs = theirs.past;
+            }
+        }
+        return of(mine == null ? null : mine.id, sourceRest, sourceLength, newer);
+    }
+
+    // Returns the ID of the commit this delta goes on top of, or null if
+    // it starts from an empty history (R).
+    public String getBaseId() {
+        return baseId;
+    }
+
+    // Returns the number of commits in this delta (R).
+    public int size() {
+        return ids.length;
+    }
+
+    // Takes a repository (P) and adds every commit of this delta it does
+    // not already have, merged by timestamp with the commits it has above
+    // the base commit, keeping its own first on equal timestamps (B).
+    // Returns how many commits were added (R). Throws an
+    // IllegalArgumentException, changing nothing, if the repository does
+    // not have the base commit, its history from there down differs from
+    // the one the delta was made from, or it has a different commit under
+    // one of the delta's IDs (E).
+    public int applyTo(Repository repo) {
+        return repo.spliceAbove(baseId, baseFingerprint, baseLength, timeStamps, ids, messages);
+    }
+
+    // Writes this delta to the given output (P) in the layout above (B).
+    // The output is flushed but not closed. Throws an IOException if it
+    // cannot be written (E).
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        if (baseId == null) {
+            out.writeInt(-1);
+        } else {
+            writeString(out, baseId);
+        }
+        out.writeLong(baseFingerprint);
+        out.writeInt(baseLength);
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            out.writeLong(timeStamps[i]);
+            writeString(out, ids[i]);
+            writeString(out, messages[i]);
+        }
+        out.flush();
+    }
+
+    // Reads a delta written by write from the given input (P), leaving it
+    // open. The input is read in blocks, so it may be read past the end of
+    // the delta. Returns the delta (R). Throws an IOException if the input
+    // cannot be read, is cut short or is not a delta (E).
+    public static Delta read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a delta");
+        }
+        int idLength = in.readInt();
+        String baseId = idLength < 0 ? null : readString(in, idLength);
+        long baseFingerprint = in.readLong();
+        int baseLength = in.readInt();
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt delta: count " + count);
+        }
+        long[] timeStamps = new long[count];
+        String[] ids = new String[count];
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            timeStamps[i] = in.readLong();
+            ids[i] = readString(in, in.readInt());
+            messages[i] = readString(in, in.readInt());
+        }
+        return new Delta(baseId, baseFingerprint, baseLength, timeStamps, ids, messages);
+    }
+
+    // Takes a base ID, the fingerprint and length of the history from the
+    // base commit down, and commits, newest first (P), and returns a delta
+    // of them (R).
+    private static Delta of(String baseId, long baseFingerprint, int baseLength,
+                            List<Repository.Commit> newer) {
+        int count = newer.size();
+        long[] timeStamps = new long[count];
+        String[] ids = new String[count];
+        String[] messages = new String[count];
+        for (int i = 0; i < count; i++) {
+            Repository.Commit commit = newer.get(i);
+            timeStamps[i] = commit.timeStamp;
+            ids[i] = commit.id;
+            messages[i] = commit.message;
+        }
+        return new Delta(baseId, baseFingerprint, baseLength, timeStamps, ids, messages);
+    }
+
+    // Writes a string as its UTF-8 byte length and bytes (P) (B).
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Reads a string of the given byte length (P). Returns the string (R).
+    // Throws an IOException if the length is negative or the input ends
+    // first (E).
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Corrupt delta: string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
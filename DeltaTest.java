@@ -0,0 +1,146 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+public class DeltaTest {
+    // Where the test clock starts; it then moves on a millisecond a commit.
+    private static final long START = 1_700_000_000_000L;
+
+    private Repository repo1;
+    private Repository repo2;
+    private CommitClock clock;
+
+    @BeforeEach
+    public void setUp() {
+        Repository.Commit.resetIds();
+        repo1 = new Repository("repo1");
+        repo2 = new Repository("repo2");
+        clock = new HybridClock(() -> START);
+        repo1.setClock(clock);
+        repo2.setClock(clock);
+        for (int i = 0; i < 10; i++) {
+            repo1.commit("Shared " + i);
+        }
+    }
+
+    @Test
+    @DisplayName("Test pull() copies only the commits above the shared ones")
+    public void testPull() {
+        assertEquals(repo2.pull(repo1), 10);
+        assertEquals(repo1.getRepoSize(), 10);
+        assertEquals(repo2.getHistory(20), repo1.getHistory(20));
+
+        // Both replicas move on, interleaved in time
+        for (int i = 0; i < 6; i++) {
+            (i % 2 == 0 ? repo1 : repo2).commit("Diverged " + i);
+        }
+
+        // Assert that each side sends only its own new commits
+        assertEquals(Delta.between(repo1, repo2).size(), 3);
+        assertEquals(Delta.between(repo1, repo2).getBaseId(), "9");
+        assertEquals(repo1.pull(repo2), 3);
+        assertEquals(repo2.pull(repo1), 3);
+        assertEquals(repo1.pull(repo2), 0);
+        assertEquals(repo1.getRepoSize(), 16);
+        assertEquals(repo2.getHistory(20), repo1.getHistory(20));
+        assertEquals(repo1.getRepoHead(), "15");
+
+        // Assert that the indexes see the copied commits in order
+        List<String> found = new ArrayList<>();
+        for (Repository.Commit commit : repo1.search("diverged", 10)) {
+            found.add(commit.id);
+        }
+        assertEquals(found, Arrays.asList("15", "14", "13", "12", "11", "10"));
+        assertEquals(repo1.commitsBetween(0, Long.MAX_VALUE).count(), 16);
+        assertTrue(repo1.drop("13"));
+        assertEquals(repo1.commitsBetween(0, Long.MAX_VALUE).count(), 15);
+
+        // Assert that a synchronize afterwards brings back only the dropped commit
+        repo2.commit("Latest");
+        repo1.synchronize(repo2);
+        assertEquals(repo1.getRepoSize(), 17);
+        assertEquals(repo1.getRepoHead(), "16");
+        assertTrue(repo1.contains("13"));
+        assertEquals(repo1.getHistory(20), repo1.commitsBetween(0, Long.MAX_VALUE)
+                .map(commit -> commit + "\n").reduce("", String::concat));
+    }
+
+    @Test
+    @DisplayName("Test replicas that share their newest commit but differ below it")
+    public void testDifferBelowHead() {
+        Repository repo3 = new Repository("repo3");
+        repo3.setClock(clock);
+        repo2.pull(repo1);
+        repo3.pull(repo1);
+        String onlyIn1 = repo1.commit("Only in repo1");
+        String onlyIn2 = repo2.commit("Only in repo2");
+        String shared = repo3.commit("From repo3");
+        repo1.pull(repo3);
+        repo2.pull(repo3);
+        assertEquals(repo1.getRepoHead(), shared);
+        assertEquals(repo2.getRepoHead(), shared);
+
+        // Assert that a delta made from repo1's head is refused by repo2
+        Delta stale = Delta.since(repo1, shared);
+        assertEquals(stale.size(), 0);
+        assertThrows(IllegalArgumentException.class, () -> stale.applyTo(repo2));
+
+        // Assert that pull still finds the commit each side is missing
+        assertEquals(Delta.between(repo1, repo2).getBaseId(), "9");
+        assertEquals(repo1.pull(repo2), 1);
+        assertEquals(repo2.pull(repo1), 1);
+        assertTrue(repo1.contains(onlyIn2));
+        assertTrue(repo2.contains(onlyIn1));
+        assertEquals(repo1.getRepoSize(), 13);
+        assertEquals(repo2.getHistory(20), repo1.getHistory(20));
+        assertEquals(Delta.between(repo1, repo2).getBaseId(), shared);
+    }
+
+    @Test
+    @DisplayName("Test a delta written to a file and applied to another replica")
+    public void testWriteAndApply() throws IOException {
+        repo2.pull(repo1);
+        String mark = repo1.getRepoHead();
+        for (int i = 0; i < 3; i++) {
+            repo1.commit("New \u00fcn\u00efc\u00f6d\u00e9 " + i);
+        }
+        repo1.drop("11");
+
+        Path file = Files.createTempFile("delta", ".bin");
+        try {
+            try (OutputStream out = Files.newOutputStream(file)) {
+                Delta.since(repo1, mark).write(out);
+            }
+            Delta delta;
+            try (InputStream in = Files.newInputStream(file)) {
+                delta = Delta.read(in);
+            }
+            assertEquals(delta.getBaseId(), mark);
+            assertEquals(delta.size(), 2);
+
+            // Assert that applying it twice adds the commits once
+            assertEquals(delta.applyTo(repo2), 2);
+            assertEquals(delta.applyTo(repo2), 0);
+            assertEquals(repo2.getHistory(20), repo1.getHistory(20));
+
+            // Assert that a replica without the base commit is refused
+            Repository empty = new Repository("empty");
+            assertThrows(IllegalArgumentException.class, () -> delta.applyTo(empty));
+            assertEquals(empty.getRepoSize(), 0);
+        } finally {
+            Files.delete(file);
+        }
+
+        // Assert that a commit reusing an ID is refused without changes
+        Repository other = new Repository("other");
+        other.restore("10", 0, "Something else");
+        Delta clash = Delta.since(repo1, null);
+        assertThrows(IllegalArgumentException.class, () -> clash.applyTo(other));
+        assertEquals(other.getRepoSize(), 1);
+        assertThrows(IllegalArgumentException.class, () -> Delta.since(repo1, "missing"));
+        assertThrows(IOException.class,
+                     () -> Delta.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5, 6, 7, 8})));
+    }
+}
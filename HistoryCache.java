@@ -0,0 +1,94 @@
+import java.util.*;
+
+// A cache of a repository's rendered text: the line for each recently
+// shown commit, the most recently asked-for history pages, and the line
+// toString gives. Rendering a commit formats its date and joins several
+// strings, and a commit's line never changes, so lines are kept until
+// they are the least recently used or their commit is dropped. Pages
+// depend on the whole chain, so the repository throws them away whenever
+// a commit, drop or synchronize changes it.
+class HistoryCache {
+    // Most commit lines kept at once.
+    static final int MAX_LINES = 1024;
+    // Most history pages kept at once.
+    static final int MAX_PAGES = 16;
+    // Pages longer than this are rendered every time instead of kept.
+    static final int MAX_PAGE_LINES = 256;
+
+    private final Map<Repository.Commit, String> lines;
+    private final Map<Integer, String> pages;
+    private String summary;
+
+    // Constructs an empty cache (B).
+    public HistoryCache() {
+        // Access order makes each map least recently used first. Commits
+        // do not override equals, so lines are found by identity.
+        lines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Repository.Commit, String> eldest) {
+                return size() > MAX_LINES;
+            }
+        };
+        pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > MAX_PAGES;
+            }
+        };
+    }
+
+    // Takes a commit (P) and returns its string representation, rendering
+    // it only if it is not already cached (R).
+    public String line(Repository.Commit commit) {
+        String line = lines.get(commit);
+        if (line == null) {
+            line = commit.toString();
+            lines.put(commit, line);
+        }
+        return line;
+    }
+
+    // Takes a number of lines (P) and returns the cached history page of
+    // that many of the most recent commits, or null if there is none (R).
+    public String page(int n) {
+        return pages.get(n);
+    }
+
+    // Takes a number of lines and the history page of that many of the
+    // most recent commits (P) and keeps the page (B).
+    public void putPage(int n, String page) {
+        pages.put(n, page);
+    }
+
+    // Returns the cached string representation of the repository, or null
+    // if there is none (R).
+    public String summary() {
+        return summary;
+    }
+
+    // Takes the string representation of the repository (P) and keeps
+    // it (B).
+    public void putSummary(String summary) {
+        this.summary = summary;
+    }
+
+    // Notes that the repository's history changed (B), throwing away every
+    // page and the summary. Lines stay, since no commit's line changed.
+    public void changed() {
+        pages.clear();
+        summary = null;
+    }
+
+    // Notes that the given commit (P) was dropped (B), throwing away its
+    // line as well as every page.
+    public void dropped(Repository.Commit commit) {
+        lines.remove(commit);
+        changed();
+    }
+
+    // Throws away everything cached (B).
+    public void clear() {
+        lines.clear();
+        changed();
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+// A hybrid logical clock in milliseconds. Each timestamp is the physical
+// time, or one past the last timestamp given or observed if that is
+// later, so timestamps are strictly increasing even when many commits
+// are made within one millisecond or the physical clock steps back, and
+// a commit made after a synchronize comes after every commit it brought
+// in. Under a burst of more than one commit per millisecond timestamps
+// run ahead of the physical clock, and fall back in step once it
+// catches up.
+//
+// Given a physical clock that never moves, such as () -> 0, it counts up
+// by one for each commit, which makes the timestamps of a test or a
+// benchmark the same on every run. Safe to share between threads and
+// between repositories.
+public class HybridClock implements CommitClock {
+    private final LongSupplier physical;
+    private final AtomicLong last;
+
+    // Constructs a clock following the system clock (B).
+    public HybridClock() {
+        this(System::currentTimeMillis);
+    }
+
+    // Constructs a clock following the given physical clock, in
+    // milliseconds (P) (B).
+    public HybridClock(LongSupplier physical) {
+        this.physical = physical;
+        this.last = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    // Returns a timestamp after every one given or observed so far, and
+    // no earlier than the physical time (R).
+    @Override
+    public long now() {
+        long time = physical.getAsLong();
+        return last.accumulateAndGet(time, (previous, current) -> Math.max(previous + 1, current));
+    }
+
+    // Takes a timestamp from elsewhere (P) and makes sure every later
+    // timestamp comes after it (B).
+    @Override
+    public void observe(long timeStamp) {
+        last.accumulateAndGet(timeStamp, Math::max);
+    }
+}
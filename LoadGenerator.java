@@ -0,0 +1,183 @@
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+// A load generator for RepositoryServer. Opens many connections at once,
+// waits until every one is connected, and then has each send a mix of
+// commits and history reads to randomly chosen repositories, timing every
+// request from sending it to reading the whole response. Reports the
+// throughput and the p50, p99 and p99.9 latency of each kind of request.
+// Each connection runs on its own virtual thread where there are virtual
+// threads.
+//
+// Usage: java LoadGenerator [--port n] [--connections n] [--requests n]
+//                           [--repos n] [--embedded]
+// With --embedded, a server is started in the same JVM instead of
+// connecting to one already running. Each connection then uses two file
+// descriptors in this process, so raise the limit (ulimit -n) to match.
+public class LoadGenerator {
+    // Chance out of 100 that a request is a history read; the rest commit.
+    private static final int HISTORY_PERCENT = 20;
+
+    public static void main(String[] args) throws Exception {
+        int port = RepositoryServer.DEFAULT_PORT;
+        int connections = 10_000;
+        int requests = 20;
+        int repos = 100;
+        boolean embedded = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--embedded")) {
+                embedded = true;
+            } else if (i + 1 < args.length && args[i].equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("--connections")) {
+                connections = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("--requests")) {
+                requests = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("--repos")) {
+                repos = Integer.parseInt(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        RepositoryServer server = embedded ? new RepositoryServer(new RepositoryRegistry(), 0) : null;
+        if (server != null) {
+            port = server.getPort();
+        }
+        try {
+            run(port, connections, requests, repos);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    // Takes the server's port, the number of connections, the requests to
+    // send on each and the number of repositories to spread them over (P),
+    // and runs the load against the server (B). Prints the throughput and
+    // latency percentiles. Returns the recorded latencies (R). Throws an
+    // IOException if the server cannot be reached (E).
+    public static RepositoryMetrics run(int port, int connections, int requests, int repos)
+            throws IOException, InterruptedException {
+        InetAddress host = InetAddress.getLoopbackAddress();
+        try (Connection setup = new Connection(host, port)) {
+            for (int i = 0; i < repos; i++) {
+                // Left over from an earlier run is fine too
+                setup.send("create load" + i);
+            }
+        }
+
+        RepositoryMetrics latencies = new RepositoryMetrics();
+        ExecutorService threads = RepositoryServer.newThreadPerTaskExecutor("load-generator");
+        CountDownLatch connected = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            int id = c;
+            results.add(threads.submit(() -> {
+                Random random = new Random(id);
+                Connection connection;
+                try {
+                    connection = new Connection(host, port);
+                } finally {
+                    connected.countDown();
+                }
+                try (Connection open = connection) {
+                    start.await();
+                    int errors = 0;
+                    for (int r = 0; r < requests; r++) {
+                        String repo = "load" + random.nextInt(repos);
+                        boolean history = random.nextInt(100) < HISTORY_PERCENT;
+                        long begin = System.nanoTime();
+                        String status = history ? open.send("history " + repo + " 10")
+                                                : open.send("commit " + repo + " Load " + id + "-" + r);
+                        latencies.record(history ? RepositoryMetrics.Operation.GET_HISTORY
+                                                 : RepositoryMetrics.Operation.COMMIT, begin, 0);
+                        if (!status.startsWith("OK")) {
+                            errors++;
+                        }
+                    }
+                    return errors;
+                }
+            }));
+        }
+        connected.await();
+        System.err.printf("%d connections open (%s threads)%n", connections,
+                          RepositoryServer.hasVirtualThreads() ? "virtual" : "platform");
+        long begin = System.nanoTime();
+        start.countDown();
+        int errors = 0;
+        int failed = 0;
+        for (Future<Integer> result : results) {
+            try {
+                errors += result.get();
+            } catch (ExecutionException e) {
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        threads.shutdown();
+
+        long total = latencies.getCount(RepositoryMetrics.Operation.COMMIT)
+                     + latencies.getCount(RepositoryMetrics.Operation.GET_HISTORY);
+        System.err.printf("%d requests in %.2f s (%.0f requests/s), %d errors, %d connections failed%n",
+                          total, seconds, total / seconds, errors, failed);
+        for (RepositoryMetrics.Operation op : new RepositoryMetrics.Operation[]{
+                RepositoryMetrics.Operation.COMMIT, RepositoryMetrics.Operation.GET_HISTORY}) {
+            System.err.printf("%-12s p50 %8.2f ms   p99 %8.2f ms   p99.9 %8.2f ms%n", op.methodName(),
+                              latencies.getPercentile(op, 50) / 1e6,
+                              latencies.getPercentile(op, 99) / 1e6,
+                              latencies.getPercentile(op, 99.9) / 1e6);
+        }
+        return latencies;
+    }
+
+    // One client connection to the server.
+    private static class Connection implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        // Connects to the server at the given host and port (P) (B).
+        // Throws an IOException if it cannot (E).
+        public Connection(InetAddress host, int port) throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                          StandardCharsets.UTF_8));
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                                            StandardCharsets.UTF_8));
+        }
+
+        // Sends one request (P) and reads the whole response (B). Returns
+        // the response's first line (R). Throws an IOException if the
+        // connection fails (E).
+        public String send(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+            String status = in.readLine();
+            if (status == null) {
+                throw new EOFException("Server closed the connection");
+            }
+            if (status.startsWith("OK ")) {
+                int lines = Integer.parseInt(status.substring(3));
+                for (int i = 0; i < lines; i++) {
+                    in.readLine();
+                }
+            }
+            return status;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write("quit\n");
+            out.flush();
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+// Takes periodic snapshots of logged repositories and compacts their logs.
+// A snapshot is written on the caller's thread, since it must see the
+// repository between changes. The log is then rewritten without the
+// records the snapshot covers on a background thread, so dropped commits
+// and old synchronizes stop costing time at startup and space on disk.
+public class LogCompactor implements Closeable {
+    private final long interval;
+    private final ExecutorService background;
+    private final Map<CommitLog, Long> lastSnapshot;
+
+    // Constructs a compactor that snapshots a repository automatically once
+    // its log has grown by the given number of bytes (P) since its last
+    // snapshot (B).
+    public LogCompactor(long interval) {
+        this.interval = interval;
+        this.background = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastSnapshot = new HashMap<>();
+    }
+
+    // Takes a repository and its log (P) and snapshots the repository if
+    // the log has grown by at least the interval since its last snapshot,
+    // or since its last compaction if it has not been snapshotted yet (B).
+    // Returns true if a snapshot was taken (R). Throws an IOException if
+    // the snapshot cannot be written (E).
+    public boolean maybeSnapshot(Repository repo, CommitLog log) throws IOException {
+        long since = log.position() - lastSnapshot.getOrDefault(log, log.firstPosition());
+        if (since < interval) {
+            return false;
+        }
+        snapshot(repo, log);
+        return true;
+    }
+
+    // Takes a repository and its log (P), writes a snapshot of the repository
+    // next to the log, and queues the log to be compacted in the
+    // background (B). Must not run while the repository is being changed.
+    // Returns how long writing the snapshot took, in nanoseconds (R).
+    // Throws an IOException if the snapshot cannot be written (E).
+    public long snapshot(Repository repo, CommitLog log) throws IOException {
+        long start = System.nanoTime();
+        long position = log.position();
+        Snapshot.write(repo, position, Snapshot.pathFor(log.getFile()));
+        long elapsed = System.nanoTime() - start;
+        lastSnapshot.put(log, position);
+        background.execute(() -> {
+            try {
+                log.compact(position);
+            } catch (IOException e) {
+                // The old log is still whole, so the next snapshot will retry
+                System.err.println("Could not compact " + log.getFile() + ": " + e.getMessage());
+            }
+        });
+        return elapsed;
+    }
+
+    // Rebuilds the repository with the given name from its log (P), loading
+    // its snapshot first if there is one and replaying only the log records
+    // after it (B). Returns the rebuilt repository (R). Throws an IOException
+    // if the files cannot be read (E).
+    public static Repository load(String name, Path logFile) throws IOException {
+        Path snapshotFile = Snapshot.pathFor(logFile);
+        if (!Files.exists(snapshotFile)) {
+            return CommitLog.replay(name, logFile);
+        }
+        Snapshot snapshot = Snapshot.load(name, snapshotFile);
+        Repository repo = snapshot.getRepository();
+        CommitLog.replay(repo, logFile, snapshot.getLogPosition());
+        return repo;
+    }
+
+    // Waits for any queued compactions to finish and stops the
+    // background thread (B).
+    @Override
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
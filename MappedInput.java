@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// Reads a file through a memory map, one window of the file at a time. A
+// single map holds at most Integer.MAX_VALUE bytes, so larger files are
+// mapped in windows of up to that size: a read that runs past the end of
+// the current window maps the next window starting where the read starts,
+// and values larger than a window are read across several windows. As
+// with a MappedByteBuffer, reading past the end of the file throws a
+// BufferUnderflowException, leaving the position where it was.
+class MappedInput {
+    // The largest window mapped at once. Tests lower it to cross window
+    // boundaries without writing gigabytes.
+    static int windowSize = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    // Constructs an input over the whole of the given channel, starting at
+    // the front (P) (B). Throws an IOException if it cannot be mapped (E).
+    public MappedInput(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        map(0);
+    }
+
+    // Returns the length of the file (R).
+    public long size() {
+        return size;
+    }
+
+    // Returns the position in the file of the next byte to read (R).
+    public long position() {
+        return windowStart + window.position();
+    }
+
+    // Takes a position in the file (P) and reads from there next (B).
+    // Throws an IOException if it cannot be mapped (E).
+    public void position(long position) throws IOException {
+        if (position >= windowStart && position - windowStart <= window.limit()) {
+            window.position((int) (position - windowStart));
+        } else {
+            map(position);
+        }
+    }
+
+    // Returns whether any bytes are left to read (R).
+    public boolean hasRemaining() {
+        return position() < size;
+    }
+
+    public byte get() throws IOException {
+        ensure(1);
+        return window.get();
+    }
+
+    public int getInt() throws IOException {
+        ensure(4);
+        return window.getInt();
+    }
+
+    public long getLong() throws IOException {
+        ensure(8);
+        return window.getLong();
+    }
+
+    // Fills the given array from the file (P) (B).
+    public void get(byte[] bytes) throws IOException {
+        ensureInFile(bytes.length);
+        int done = 0;
+        while (done < bytes.length) {
+            ensure(1);
+            int chunk = Math.min(window.remaining(), bytes.length - done);
+            window.get(bytes, done, chunk);
+            done += chunk;
+        }
+    }
+
+    // Fills the given array with big-endian ints from the file (P) (B).
+    public void get(int[] values) throws IOException {
+        ensureInFile(4L * values.length);
+        int done = 0;
+        while (done < values.length) {
+            ensure(4);
+            int chunk = Math.min(window.remaining() / 4, values.length - done);
+            window.asIntBuffer().get(values, done, chunk);
+            window.position(window.position() + chunk * 4);
+            done += chunk;
+        }
+    }
+
+    // Fills the given array with big-endian longs from the file (P) (B).
+    public void get(long[] values) throws IOException {
+        ensureInFile(8L * values.length);
+        int done = 0;
+        while (done < values.length) {
+            ensure(8);
+            int chunk = Math.min(window.remaining() / 8, values.length - done);
+            window.asLongBuffer().get(values, done, chunk);
+            window.position(window.position() + chunk * 8);
+            done += chunk;
+        }
+    }
+
+    // Takes a number of bytes about to be read together (P) and maps the
+    // window starting at the position if they run past the current one
+    // (B). Throws a BufferUnderflowException if they run past the end of
+    // the file, or an IOException if it cannot be mapped (E).
+    private void ensure(int needed) throws IOException {
+        if (window.remaining() < needed) {
+            ensureInFile(needed);
+            map(position());
+        }
+    }
+
+    // Takes a number of bytes about to be read (P) and throws a
+    // BufferUnderflowException if they run past the end of the file (E).
+    private void ensureInFile(long needed) {
+        if (size - position() < needed) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    // Maps the window starting at the given position in the file (P) (B).
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+// A read-only view of several repositories as if they had been
+// synchronized into one, without changing any of them. The histories
+// are interleaved by timestamp only as the view is read: nothing is
+// copied or relinked, and a read keeps one position per repository.
+// Commits with equal timestamps come from the earlier repository first,
+// the same order synchronizeAll gives them.
+public class MergedView implements Iterable<Repository.Commit> {
+    private final List<Repository> repos;
+
+    // Constructs a view over the given repositories, in priority order
+    // (P) (B). A repository given more than once is only read once.
+    // Throws an IllegalArgumentException if any repository is null (E).
+    public MergedView(Collection<Repository> repos) {
+        Set<Repository> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.repos = new ArrayList<>();
+        for (Repository repo : repos) {
+            if (repo == null) {
+                throw new IllegalArgumentException("Invalid Repository: null");
+            }
+            if (seen.add(repo)) {
+                this.repos.add(repo);
+            }
+        }
+    }
+
+    // Returns the ID of the most recent commit across the repositories
+    // (B, R). Returns null if none of them have commits (R).
+    public String getRepoHead() {
+        Iterator<Repository.Commit> merged = iterator();
+        return merged.hasNext() ? merged.next().id : null;
+    }
+
+    // Returns the total number of commits across the repositories (B, R).
+    public int getRepoSize() {
+        int size = 0;
+        for (Repository repo : repos) {
+            size += repo.getRepoSize();
+        }
+        return size;
+    }
+
+    // Given a targetId (P), checks if any of the repositories has a
+    // commit with the given ID (B). Returns true if this is the case,
+    // false if not (R).
+    public boolean contains(String targetId) {
+        for (Repository repo : repos) {
+            if (repo.contains(targetId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Takes in an int n parameter (P) and returns the string
+    // representations of the most recent n commits across the
+    // repositories, in the same format as getHistory on a Repository,
+    // reading only those n commits (B, R). Throws an
+    // IllegalArgumentException if n is negative or equals 0 (E).
+    public String getHistory(int n) {
+        StringBuilder history = new StringBuilder();
+        try {
+            writeHistory(n, history);
+        } catch (IOException e) {
+            // StringBuilder never throws, but Appendable says it might
+            throw new UncheckedIOException(e);
+        }
+        return history.toString();
+    }
+
+    // Takes in an int n parameter and an output to write to (P) and writes
+    // the string representations of the most recent n commits across the
+    // repositories to the output, one per line (B). Throws an
+    // IllegalArgumentException if n is negative or equals 0, and passes on
+    // any IOException from the output (E).
+    public void writeHistory(int n, Appendable out) throws IOException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
+        }
+        Iterator<Repository.Commit> merged = iterator();
+        while (merged.hasNext() && n != 0) {
+            merged.next().appendTo(out);
+            out.append('\n');
+            n--;
+        }
+    }
+
+    // Returns a stream of every commit across the repositories, newest
+    // first, merged lazily as it is consumed (R).
+    public Stream<Repository.Commit> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    // Returns an iterator over every commit across the repositories,
+    // newest first (R). Each repository's history is read from its front
+    // as of this call; changes made to the repositories while iterating
+    // are not supported.
+    @Override
+    public Iterator<Repository.Commit> iterator() {
+        return new MergeIterator();
+    }
+
+    // Returns a spliterator over the merged history, newest first (R).
+    @Override
+    public Spliterator<Repository.Commit> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    // Walks the repositories' histories together, keeping a heap of the
+    // next unread commit of each one.
+    private class MergeIterator implements Iterator<Repository.Commit> {
+        private final PriorityQueue<Cursor> heap;
+
+        // Constructs an iterator starting at the front of each
+        // repository (B).
+        public MergeIterator() {
+            heap = new PriorityQueue<>(Math.max(1, repos.size()));
+            for (int i = 0; i < repos.size(); i++) {
+                Repository.Commit front = repos.get(i).skipTombstones(repos.get(i).getFront());
+                if (front != null) {
+                    heap.add(new Cursor(i, front));
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !heap.isEmpty();
+        }
+
+        public Repository.Commit next() {
+            Cursor cursor = heap.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            Repository.Commit result = cursor.next;
+            cursor.next = repos.get(cursor.order).skipTombstones(result.past);
+            if (cursor.next != null) {
+                heap.add(cursor);
+            }
+            return result;
+        }
+    }
+
+    // The next unread commit of one repository, ordered newest first and
+    // then by the repository's place in the view.
+    private static class Cursor implements Comparable<Cursor> {
+        private final int order;
+        private Repository.Commit next;
+
+        public Cursor(int order, Repository.Commit next) {
+            this.order = order;
+            this.next = next;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int cmp = Long.compare(other.next.timeStamp, next.timeStamp);
+            return cmp != 0 ? cmp : Integer.compare(order, other.order);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+public class MergedViewTest {
+    private Repository repo1;
+    private Repository repo2;
+    private Repository repo3;
+
+    @BeforeEach
+    public void setUp() {
+        repo1 = new Repository("repo1");
+        repo2 = new Repository("repo2");
+        repo3 = new Repository("repo3");
+        Repository.Commit.resetIds();
+    }
+
+    @Test
+    @DisplayName("Test MergedView matches synchronizeAll()")
+    public void testMatchesSynchronizeAll() {
+        // Timestamps repeat across repositories to check the order of ties
+        for (int i = 0; i < 30; i++) {
+            Repository repo = i % 3 == 0 ? repo1 : i % 3 == 1 ? repo2 : repo3;
+            repo.restore("c" + i, 1000 + i / 2, "Commit " + i);
+        }
+        MergedView view = new MergedView(Arrays.asList(repo1, repo2, repo3));
+        String viewed = view.getHistory(100);
+
+        // Assert that reading the view leaves every repository as it was
+        assertEquals(repo1.getRepoSize(), 10);
+        assertEquals(repo2.getRepoSize(), 10);
+        assertEquals(repo3.getRepoSize(), 10);
+        assertEquals(view.getRepoSize(), 30);
+        assertEquals(view.getRepoHead(), "c28");
+        assertTrue(view.contains("c4"));
+        assertFalse(view.contains("c30"));
+
+        // Assert that the view reads the same as actually merging
+        repo1.synchronizeAll(Arrays.asList(repo2, repo3));
+        assertEquals(viewed, repo1.getHistory(100));
+        assertEquals(view.getHistory(5), repo1.getHistory(5));
+    }
+
+    @Test
+    @DisplayName("Test MergedView reads lazily")
+    public void testLazy() {
+        for (int i = 0; i < 10; i++) {
+            (i % 2 == 0 ? repo1 : repo2).restore("c" + i, 1000 + i, "Commit " + i);
+        }
+        MergedView view = new MergedView(Arrays.asList(repo1, repo2));
+
+        // Assert that only as much of the view is read as is asked for
+        List<String> ids = view.stream().limit(3).map(commit -> commit.id)
+                               .collect(Collectors.toList());
+        assertEquals(ids, Arrays.asList("c9", "c8", "c7"));
+
+        // Assert that a new read sees later commits
+        repo1.restore("c10", 1010, "Commit 10");
+        assertEquals(view.getRepoHead(), "c10");
+        assertEquals(view.getHistory(1), repo1.getHistory(1));
+    }
+
+    @Test
+    @DisplayName("Test MergedView (empty and invalid cases)")
+    public void testEmptyCases() {
+        MergedView empty = new MergedView(Collections.emptyList());
+        assertEquals(empty.getRepoHead(), null);
+        assertEquals(empty.getRepoSize(), 0);
+        assertFalse(empty.iterator().hasNext());
+        assertThrows(NoSuchElementException.class, () -> empty.iterator().next());
+
+        // Assert that empty and repeated repositories are skipped
+        repo2.commit("Only commit.");
+        MergedView view = new MergedView(Arrays.asList(repo1, repo2, repo2));
+        assertEquals(view.getRepoSize(), 1);
+        assertEquals(view.getHistory(3), repo2.getHistory(3));
+        assertThrows(IllegalArgumentException.class, () -> view.getHistory(0));
+        assertThrows(IllegalArgumentException.class,
+                     () -> new MergedView(Arrays.asList(repo1, null)));
+    }
+}
@@ -0,0 +1,514 @@
+import java.util.*;
+import java.util.function.Predicate;
+
+// An inverted index from the words in a repository's commit messages to
+// the commits that use them, so messages can be searched without reading
+// every one. Words are runs of letters and digits, compared without case.
+// Each word keeps its commits oldest first by timestamp, so the newest
+// matches are read first and a search can stop at its limit. A history
+// out of timestamp order is walked instead.
+//
+// Like TimestampIndex, dropped commits are skipped by checking the
+// repository's map of commits by ID and swept out once they add up to
+// half the repository. Lists are read together by timestamp, so the index
+// notes when a commit goes in out of timestamp order and sorts the lists
+// again before the next such read. Reading by timestamp leaves commits
+// made in the same millisecond in no set order, so each such run is
+// walked in the history itself, through the repository's links to newer
+// commits.
+//
+// A repository loaded from disk marks the index stale instead of reading
+// every message as it loads. A stale index ignores every change and is
+// built from the whole history by the next search.
+class MessageIndex {
+    private static final int MIN_DEAD = 64;
+
+    private final Map<String, Repository.Commit> live;
+    private final Map<String, Repository.Commit> newer;
+    private final TreeMap<String, List<Repository.Commit>> postings;
+    private int dead;
+    private long newest;
+    private boolean sorted;
+    private boolean stale;
+
+    // Constructs an empty index (B), given the repository's map from IDs
+    // to the commits it still holds and its map from IDs to the commit
+    // made just after each (P).
+    public MessageIndex(Map<String, Repository.Commit> live,
+                        Map<String, Repository.Commit> newer) {
+        this.live = live;
+        this.newer = newer;
+        this.postings = new TreeMap<>();
+        this.newest = Long.MIN_VALUE;
+        this.sorted = true;
+    }
+
+    // Adds a commit made after every commit already indexed (P) to the
+    // index (B).
+    public void add(Repository.Commit commit) {
+        if (stale) {
+            return;
+        }
+        if (commit.timeStamp < newest) {
+            sorted = false;
+        } else {
+            newest = commit.timeStamp;
+        }
+        for (String word : words(commit.message)) {
+            postings.computeIfAbsent(word, w -> new ArrayList<>()).add(commit);
+        }
+    }
+
+    // Notes that a commit was dropped from the repository (B), removing
+    // every dropped commit from the index once they add up to half of
+    // the repository.
+    public void dropped() {
+        if (stale) {
+            return;
+        }
+        dead++;
+        if (dead >= MIN_DEAD && dead >= live.size()) {
+            Iterator<List<Repository.Commit>> lists = postings.values().iterator();
+            while (lists.hasNext()) {
+                List<Repository.Commit> list = lists.next();
+                list.removeIf(commit -> live.get(commit.id) != commit);
+                if (list.isEmpty()) {
+                    lists.remove();
+                }
+            }
+            dead = 0;
+        }
+    }
+
+    // Takes the front of a history being synchronized into the repository
+    // (P) and merges its commits into the index by timestamp, the same way
+    // synchronize merges the histories (B). Only the new commits' messages
+    // are read, and only the end of each list from the oldest new commit
+    // on is rewritten, so adding a few recent commits stays cheap. Must be
+    // called before the histories are relinked.
+    public void merge(Repository.Commit otherFront) {
+        if (stale) {
+            return;
+        }
+        Map<String, List<Repository.Commit>> incoming = new HashMap<>();
+        for (Repository.Commit curr = otherFront; curr != null; curr = curr.past) {
+            if (curr.past != null && curr.past.timeStamp > curr.timeStamp) {
+                sorted = false;
+            }
+            newest = Math.max(newest, curr.timeStamp);
+            for (String word : words(curr.message)) {
+                incoming.computeIfAbsent(word, w -> new ArrayList<>()).add(curr);
+            }
+        }
+        for (Map.Entry<String, List<Repository.Commit>> entry : incoming.entrySet()) {
+            List<Repository.Commit> added = entry.getValue();
+            Collections.reverse(added);
+            List<Repository.Commit> existing = postings.get(entry.getKey());
+            if (existing == null) {
+                postings.put(entry.getKey(), added);
+            } else {
+                int from = existing.size();
+                while (from > 0 && existing.get(from - 1).timeStamp >= added.get(0).timeStamp) {
+                    from--;
+                }
+                List<Repository.Commit> newer = existing.subList(from, existing.size());
+                List<Repository.Commit> merged = merge(new ArrayList<>(newer), added);
+                newer.clear();
+                existing.addAll(merged);
+            }
+        }
+    }
+
+    // Takes the index of a repository being synchronized into this one (P)
+    // and merges its postings into this index by timestamp, the same way
+    // synchronize merges the histories (B). The other index's lists are
+    // taken over as they are, so no message is read again; the other index
+    // must be cleared afterwards.
+    public void merge(MessageIndex other) {
+        if (stale) {
+            return;
+        }
+        if (other.stale) {
+            invalidate();
+            return;
+        }
+        for (Map.Entry<String, List<Repository.Commit>> entry : other.postings.entrySet()) {
+            List<Repository.Commit> existing = postings.get(entry.getKey());
+            postings.put(entry.getKey(),
+                         existing == null ? entry.getValue() : merge(existing, entry.getValue()));
+        }
+        dead += other.dead;
+        newest = Math.max(newest, other.newest);
+        sorted &= other.sorted;
+    }
+
+    // Removes every commit from the index (B).
+    public void clear() {
+        postings.clear();
+        dead = 0;
+        newest = Long.MIN_VALUE;
+        sorted = true;
+        stale = false;
+    }
+
+    // Removes every commit from the index and marks it stale, so that it
+    // ignores every change until build is called (B).
+    public void invalidate() {
+        clear();
+        stale = true;
+    }
+
+    // Takes the front of the repository's history (P) and, if the index
+    // is stale, adds every commit in it, oldest first (B).
+    public void build(Repository.Commit front) {
+        if (!stale) {
+            return;
+        }
+        stale = false;
+        List<Repository.Commit> history = new ArrayList<>();
+        for (Repository.Commit curr = front; curr != null; curr = curr.past) {
+            history.add(curr);
+        }
+        for (int i = history.size() - 1; i >= 0; i--) {
+            add(history.get(i));
+        }
+    }
+
+    // Takes a query and the most results wanted (P) and finds the commits
+    // whose messages hold every word of the query, where a word ending in
+    // '*' matches any word it starts (B). Reads the commits of the query
+    // word with the fewest and checks each against the rest of the query,
+    // newest first. Returns up to limit matching commits, newest first (R).
+    // Throws an IllegalArgumentException if the query has no words or
+    // limit is negative or 0 (E).
+    public List<Repository.Commit> search(String query, int limit) {
+        return search(query, limit, commit -> false);
+    }
+
+    // Does the same as search, but also skips every commit the given test
+    // (P) holds for, such as commits dropped but not yet purged (B, R).
+    public List<Repository.Commit> search(String query, int limit,
+                                          Predicate<Repository.Commit> hidden) {
+        return search(query, limit, hidden, null);
+    }
+
+    // Does the same as search with a test for hidden commits, given also
+    // the front of the repository's history if it is out of timestamp
+    // order, or null if it is not (P). Results always come in history
+    // order, newest first (R). Sorts the lists again first if a commit
+    // went in out of timestamp order since they were last sorted (B).
+    public List<Repository.Commit> search(String query, int limit,
+                                          Predicate<Repository.Commit> hidden,
+                                          Repository.Commit unorderedFront) {
+        Query parsed = new Query(query, limit);
+        if (unorderedFront == null && !sorted) {
+            for (List<Repository.Commit> list : postings.values()) {
+                list.sort(Comparator.comparingLong(commit -> commit.timeStamp));
+            }
+            sorted = true;
+        }
+        long fewest = Long.MAX_VALUE;
+        List<List<Repository.Commit>> rarestLists = null;
+        for (int i = 0; i < parsed.words.length; i++) {
+            List<List<Repository.Commit>> lists = lists(parsed.words[i], parsed.prefix[i]);
+            long count = 0;
+            for (List<Repository.Commit> list : lists) {
+                count += list.size();
+            }
+            if (count < fewest) {
+                fewest = count;
+                rarestLists = lists;
+            }
+        }
+        List<Repository.Commit> results = new ArrayList<>();
+        Iterator<Repository.Commit> candidates = unorderedFront == null
+                ? new HistoryOrder(newestFirst(rarestLists)) : walk(rarestLists, unorderedFront);
+        while (candidates.hasNext() && results.size() < limit) {
+            Repository.Commit commit = candidates.next();
+            if (!hidden.test(commit) && parsed.matchesExcept(commit.message, -1)) {
+                results.add(commit);
+            }
+        }
+        return results;
+    }
+
+    // Takes a query (P) and returns a test for whether a commit's message
+    // holds every word of the query, for repositories without an index
+    // (R). Throws an IllegalArgumentException if the query has no words (E).
+    public static Predicate<Repository.Commit> matcher(String query) {
+        Query parsed = new Query(query, 1);
+        return commit -> parsed.matchesExcept(commit.message, -1);
+    }
+
+    // Returns the different words in the given text (P), in lower case
+    // and in the order they first appear (R).
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Returns the lists of commits for the given word, or for every word
+    // it starts if prefix is true (P, R).
+    private List<List<Repository.Commit>> lists(String word, boolean prefix) {
+        if (!prefix) {
+            List<Repository.Commit> list = postings.get(word);
+            return list == null ? Collections.emptyList() : Collections.singletonList(list);
+        }
+        return new ArrayList<>(postings.subMap(word, true, word + Character.MAX_VALUE, false).values());
+    }
+
+    // Takes two lists of commits, oldest first (P), and returns one list
+    // of both, oldest first (R). Commits with equal timestamps from the
+    // second list go before those from the first, matching synchronize,
+    // which keeps the receiving repository's commits on top of ties. Runs
+    // from one list are found with a galloping search and copied as blocks.
+    private static List<Repository.Commit> merge(List<Repository.Commit> first,
+                                                 List<Repository.Commit> second) {
+        List<Repository.Commit> result = new ArrayList<>(first.size() + second.size());
+        int i = 0;
+        int j = 0;
+        while (i < first.size() && j < second.size()) {
+            if (first.get(i).timeStamp < second.get(j).timeStamp) {
+                int end = runEnd(first, i, second.get(j).timeStamp, false);
+                result.addAll(first.subList(i, end));
+                i = end;
+            } else {
+                int end = runEnd(second, j, first.get(i).timeStamp, true);
+                result.addAll(second.subList(j, end));
+                j = end;
+            }
+        }
+        result.addAll(first.subList(i, first.size()));
+        result.addAll(second.subList(j, second.size()));
+        return result;
+    }
+
+    // Takes a list of commits, oldest first, a position in it, a timestamp
+    // and whether the timestamp itself belongs to the run (P), and returns
+    // the first position after from whose commit is at or after the
+    // timestamp, or after it if inclusive (R). Searches forwards in
+    // doubling steps and then by halves.
+    private static int runEnd(List<Repository.Commit> list, int from, long timeStamp,
+                              boolean inclusive) {
+        int inside = from;
+        int outside = list.size();
+        int step = 1;
+        while (inside + step < outside) {
+            long probe = list.get(inside + step).timeStamp;
+            if (inclusive ? probe <= timeStamp : probe < timeStamp) {
+                inside += step;
+                step <<= 1;
+            } else {
+                outside = inside + step;
+            }
+        }
+        while (outside - inside > 1) {
+            int mid = (inside + outside) >>> 1;
+            long probe = list.get(mid).timeStamp;
+            if (inclusive ? probe <= timeStamp : probe < timeStamp) {
+                inside = mid;
+            } else {
+                outside = mid;
+            }
+        }
+        return outside;
+    }
+
+    // Takes lists of commits, oldest first (P), and returns an iterator
+    // over all of them, newest first (R). Reads them together with a heap
+    // when there is more than one.
+    private static Iterator<Repository.Commit> newestFirst(List<List<Repository.Commit>> lists) {
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, lists.size()), (a, b) -> {
+            int cmp = Long.compare(lists.get(b[0]).get(b[1]).timeStamp,
+                                   lists.get(a[0]).get(a[1]).timeStamp);
+            return cmp != 0 ? cmp : Integer.compare(a[0], b[0]);
+        });
+        for (int i = 0; i < lists.size(); i++) {
+            if (!lists.get(i).isEmpty()) {
+                heap.add(new int[]{i, lists.get(i).size() - 1});
+            }
+        }
+        return new Iterator<Repository.Commit>() {
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            public Repository.Commit next() {
+                int[] cursor = heap.poll();
+                if (cursor == null) {
+                    throw new NoSuchElementException();
+                }
+                Repository.Commit result = lists.get(cursor[0]).get(cursor[1]);
+                if (--cursor[1] >= 0) {
+                    heap.add(cursor);
+                }
+                return result;
+            }
+        };
+    }
+
+    // Takes lists of commits and the front of a history that is out of
+    // timestamp order (P), and returns an iterator over the live commits
+    // in the lists, each once, newest first in history order (R). Lists
+    // merged by timestamp from such a history are not in history order
+    // either, so the history is walked from the front until every commit
+    // in the lists has been passed.
+    private Iterator<Repository.Commit> walk(List<List<Repository.Commit>> lists,
+                                             Repository.Commit front) {
+        Set<Repository.Commit> left = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<Repository.Commit> list : lists) {
+            for (Repository.Commit commit : list) {
+                if (live.get(commit.id) == commit) {
+                    left.add(commit);
+                }
+            }
+        }
+        return new Iterator<Repository.Commit>() {
+            private Repository.Commit curr = front;
+
+            public boolean hasNext() {
+                while (!left.isEmpty() && curr != null && !left.contains(curr)) {
+                    curr = curr.past;
+                }
+                return !left.isEmpty() && curr != null;
+            }
+
+            public Repository.Commit next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Repository.Commit result = curr;
+                left.remove(result);
+                curr = curr.past;
+                return result;
+            }
+        };
+    }
+
+    // Reads commits from lists by timestamp and returns them in history
+    // order, for a history in timestamp order, where commits with equal
+    // timestamps sit next to each other. For each timestamp read, the run
+    // of commits with it is found from the first one read, through the
+    // links to newer commits, and walked once from its newest; every
+    // commit in the run is returned, in the lists or not, for the caller
+    // to test. A run is only walked as far as it is read, so a search that
+    // stops at its limit leaves the rest alone, and the lists' other
+    // commits with that timestamp are passed over once the run is done.
+    private class HistoryOrder implements Iterator<Repository.Commit> {
+        private final Iterator<Repository.Commit> byTime;
+        private Repository.Commit pending;
+        private Repository.Commit curr;
+        private long runTime;
+        private boolean started;
+
+        // Constructs an iterator over the given commits, newest first by
+        // timestamp (P) (B).
+        public HistoryOrder(Iterator<Repository.Commit> byTime) {
+            this.byTime = byTime;
+            this.pending = byTime.hasNext() ? byTime.next() : null;
+        }
+
+        public boolean hasNext() {
+            if (curr != null && curr.timeStamp == runTime) {
+                return true;
+            }
+            // Pass over what was read with the finished run, and any
+            // commits dropped but not yet swept out, which are not linked
+            while (pending != null && ((started && pending.timeStamp == runTime)
+                                       || live.get(pending.id) != pending)) {
+                pending = byTime.hasNext() ? byTime.next() : null;
+            }
+            if (pending == null) {
+                curr = null;
+                return false;
+            }
+            runTime = pending.timeStamp;
+            started = true;
+            curr = pending;
+            for (Repository.Commit up = newer.get(curr.id); up != null && up.timeStamp == runTime;
+                    up = newer.get(up.id)) {
+                curr = up;
+            }
+            return true;
+        }
+
+        public Repository.Commit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Repository.Commit result = curr;
+            curr = curr.past;
+            return result;
+        }
+    }
+
+    // A parsed search query: its words, and which of them are prefixes.
+    private static class Query {
+        private final String[] words;
+        private final boolean[] prefix;
+
+        // Parses the given query (P) (B). Throws an IllegalArgumentException
+        // if it has no words or limit (P) is negative or 0 (E).
+        public Query(String query, int limit) {
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
+            }
+            List<String> words = new ArrayList<>();
+            List<Boolean> prefix = new ArrayList<>();
+            if (query == null) {
+                throw new IllegalArgumentException("Invalid Query: No words to search for.");
+            }
+            for (String term : query.trim().split("\\s+")) {
+                List<String> parts = new ArrayList<>(words(term));
+                for (int i = 0; i < parts.size(); i++) {
+                    words.add(parts.get(i));
+                    prefix.add(i == parts.size() - 1 && term.endsWith("*"));
+                }
+            }
+            if (words.isEmpty()) {
+                throw new IllegalArgumentException("Invalid Query: No words to search for.");
+            }
+            this.words = words.toArray(new String[0]);
+            this.prefix = new boolean[words.size()];
+            for (int i = 0; i < this.prefix.length; i++) {
+                this.prefix[i] = prefix.get(i);
+            }
+        }
+
+        // Returns whether the given message (P) holds every word of the
+        // query except the one at index skip (R).
+        public boolean matchesExcept(String message, int skip) {
+            Set<String> found = words(message);
+            for (int i = 0; i < words.length; i++) {
+                if (i != skip && !holds(found, i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Returns whether the given words hold the query word at index i
+        // (P, R).
+        private boolean holds(Set<String> found, int i) {
+            if (!prefix[i]) {
+                return found.contains(words[i]);
+            }
+            for (String word : found) {
+                if (word.startsWith(words[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.util.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A benchmark of RepositoryRegistry under many threads. Each thread runs a
+// mixed workload of create, commit, getHistory and synchronize against
+// randomly chosen repositories for a fixed time, and the total throughput
+// is reported for each thread count. Since threads mostly work on
+// different repositories, throughput should grow with the thread count up
+// to the number of cores. Results are printed as a table and written as
+// JSON in the same shape as JMH's -rf json output.
+//
+// Usage: java RegistryBenchmark [--threads 1,2,4,...] [--repos n]
+//                               [--seconds n] [--out file.json]
+public class RegistryBenchmark {
+    // Chances out of 1000 of each operation; the rest are commits.
+    private static final int CREATE = 5;
+    private static final int SYNCHRONIZE = 20;
+    private static final int HISTORY = 300;
+
+    // Sink for results so the JIT cannot skip the measured work.
+    private static volatile long blackhole;
+
+    private final int repoCount;
+    private final long nanos;
+    private final List<String> results;
+
+    // Constructs a benchmark that starts with the given number of
+    // repositories and runs each thread count for the given number of
+    // seconds (P) (B).
+    public RegistryBenchmark(int repoCount, int seconds) {
+        this.repoCount = repoCount;
+        this.nanos = TimeUnit.SECONDS.toNanos(seconds);
+        this.results = new ArrayList<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] threads = {1, 2, 4, 8, 16, 32};
+        int repos = 64;
+        int seconds = 3;
+        String out = "registry-benchmark.json";
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("--threads")) {
+                threads = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else if (args[i].equals("--repos")) {
+                repos = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--seconds")) {
+                seconds = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--out")) {
+                out = args[i + 1];
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        RegistryBenchmark benchmark = new RegistryBenchmark(repos, seconds);
+        // One untimed run so the JIT has compiled everything first
+        benchmark.run(Math.max(1, threads[threads.length - 1]), false);
+        for (int count : threads) {
+            benchmark.run(count, true);
+        }
+        try (Writer writer = new BufferedWriter(new FileWriter(out))) {
+            benchmark.writeJson(writer);
+        }
+        System.err.println("Results written to " + out);
+    }
+
+    // Takes a thread count and whether to record the result (P), and runs
+    // the mixed workload on that many threads against a fresh registry (B).
+    public void run(int threadCount, boolean record) throws Exception {
+        RepositoryRegistry registry = new RepositoryRegistry();
+        List<String> names = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < repoCount; i++) {
+            registry.create("repo" + i);
+            names.add("repo" + i);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<Long>> counts = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            counts.add(pool.submit(() -> {
+                start.await();
+                return work(registry, names, thread, stop);
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(nanos));
+        stop.set(true);
+        long ops = 0;
+        for (Future<Long> count : counts) {
+            ops += count.get();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        pool.shutdown();
+        if (record) {
+            double score = ops / elapsed;
+            System.err.printf("mixed  threads=%-4d %14.0f ops/s%n", threadCount, score);
+            results.add("  {\"benchmark\": \"RepositoryRegistry.mixed\", \"mode\": \"thrpt\", "
+                        + "\"threads\": " + threadCount + ", \"params\": {\"repos\": \"" + repoCount
+                        + "\"}, \"primaryMetric\": {\"score\": " + score
+                        + ", \"scoreUnit\": \"ops/s\"}}");
+        }
+    }
+
+    // Takes the registry, the shared list of repository names, a thread
+    // number and a stop flag (P), and runs random operations until the
+    // flag is set (B). Returns how many operations ran (R).
+    private static long work(RepositoryRegistry registry, List<String> names, int thread,
+                             AtomicBoolean stop) {
+        Random random = new Random(thread);
+        long ops = 0;
+        long sink = 0;
+        while (!stop.get()) {
+            int roll = random.nextInt(1000);
+            String name = names.get(random.nextInt(names.size()));
+            if (roll < CREATE) {
+                String created = "thread" + thread + "-" + ops;
+                registry.create(created);
+                names.add(created);
+            } else if (roll < CREATE + SYNCHRONIZE) {
+                String other = names.get(random.nextInt(names.size()));
+                if (!other.equals(name)) {
+                    registry.synchronize(name, other);
+                }
+            } else if (roll < CREATE + SYNCHRONIZE + HISTORY) {
+                sink += registry.getHistory(name, 10).length();
+            } else {
+                sink += registry.commit(name, "Commit " + ops).length();
+            }
+            ops++;
+        }
+        blackhole += sink;
+        return ops;
+    }
+
+    // Writes all recorded results as a JSON array to the given output (P) (B).
+    public void writeJson(Writer out) throws IOException {
+        out.write("[\n");
+        out.write(String.join(",\n", results));
+        out.write("\n]\n");
+    }
+}
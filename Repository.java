@@ -9,11 +9,51 @@
 // and ending with the oldest change.
 
 import java.util.*;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Repository {
+    // Total number of commits above which synchronizeAll merges in parallel.
+    private static final int PARALLEL_THRESHOLD = 1 << 20;
+    // One SHA-1 digest per thread for content IDs, since digests keep state.
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    });
+
 	private Commit front;
-	private String name;
+	private final String name;
+    private Map<String, Commit> commits;
+    private Map<String, Commit> newer;
+    private int size;
+    private TimestampIndex byTime;
+    private MessageIndex byWord;
+    private HistoryCache rendered;
+    private Map<String, Tombstone> tombstones;
+    private long newestDrop;
+    private CommitLog log;
+    private RepositoryMetrics metrics;
+    private boolean contentIds;
+    private long fingerprint;
+    private CommitClock clock;
+    private CommitClock dropClock;
     
 	// (B) Constructs a new Repository - a set of documents
 	// and their histories - using a String name (P) as a parameter.
@@ -25,142 +65,1211 @@ public class Repository {
         }
 		front = null;
 		this.name = name;
+        commits = new HashMap<>();
+        newer = new HashMap<>();
+        byTime = new TimestampIndex(commits);
+        byWord = new MessageIndex(commits, newer);
+        rendered = new HistoryCache();
+        clock = CommitClock.SYSTEM;
+        dropClock = CommitClock.SYSTEM;
 	}
 	
     // Creates a new commit in the repository (B), given a
     // representative message for the commit (P).
     // Returns the ID of the created commit (R).
 	public String commit(String message) {
+        long start = metrics == null ? 0 : System.nanoTime();
 		if (front == null) {
-            front = new Commit(message);
+            front = create(message, null);
         } else {
             Commit temp = front;
-            front = new Commit(message, temp);
+            front = create(message, temp);
+            newer.put(temp.id, front);
+        }
+        commits.put(front.id, front);
+        fingerprint += fingerprintOf(front);
+        byTime.add(front);
+        byWord.add(front);
+        size++;
+        rendered.changed();
+        if (log != null) {
+            log.commit(front);
+        }
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.COMMIT, start, 0);
         }
         return front.id;
 	}
 
+    // Creates a new commit in the repository for each of the given
+    // messages, oldest first (P), building the new part of the history
+    // before putting it on the front in one step (B). Returns the IDs of
+    // the created commits, in the same order as the messages (R).
+    public List<String> commitAll(List<String> messages) {
+        List<String> ids = new ArrayList<>(messages.size());
+        if (messages.isEmpty()) {
+            return ids;
+        }
+        Commit bottom = null;
+        Commit top = null;
+        for (String message : messages) {
+            Commit curr = create(message, top == null ? front : top);
+            if (top == null) {
+                bottom = curr;
+            } else {
+                newer.put(top.id, curr);
+            }
+            commits.put(curr.id, curr);
+            fingerprint += fingerprintOf(curr);
+            byTime.add(curr);
+            byWord.add(curr);
+            ids.add(curr.id);
+            if (log != null) {
+                log.commit(curr);
+            }
+            top = curr;
+        }
+        bottom.past = front;
+        if (front != null) {
+            newer.put(front.id, bottom);
+        }
+        front = top;
+        size += ids.size();
+        rendered.changed();
+        return ids;
+    }
+
+    // Adds a commit that was saved earlier to the front of this
+    // repository (B), given its ID, timestamp and message (P). Used to
+    // rebuild a repository from disk, so nothing is logged. The clock is
+    // told of the timestamp, so later commits come after it.
+    void restore(String id, long timeStamp, String message) {
+        Commit temp = front;
+        front = new Commit(id, timeStamp, message, temp);
+        if (temp != null) {
+            newer.put(temp.id, front);
+        }
+        commits.put(front.id, front);
+        fingerprint += fingerprintOf(front);
+        byTime.add(front);
+        byWord.add(front);
+        size++;
+        rendered.changed();
+        clock.observe(timeStamp);
+    }
+
+    // Adds commits that were saved earlier to the front of this repository
+    // (B), given their timestamps, IDs and messages, newest first, and how
+    // many there are (P). Does the same as restore on each, oldest first,
+    // but links the whole run before indexing it in one pass, and leaves
+    // the message index to be built by the first search, so a large load
+    // never reads a message.
+    void restoreAll(long[] timeStamps, String[] ids, String[] messages, int count) {
+        if (count == 0) {
+            return;
+        }
+        Commit[] run = new Commit[count];
+        for (int i = count - 1; i >= 0; i--) {
+            front = new Commit(ids[i], timeStamps[i], messages[i], front);
+            run[count - 1 - i] = front;
+        }
+        long newest = Long.MIN_VALUE;
+        for (Commit commit : run) {
+            if (commit.past != null) {
+                newer.put(commit.past.id, commit);
+            }
+            commits.put(commit.id, commit);
+            fingerprint += fingerprintOf(commit);
+            byTime.add(commit);
+            newest = Math.max(newest, commit.timeStamp);
+        }
+        byWord.invalidate();
+        size += count;
+        rendered.changed();
+        clock.observe(newest);
+    }
+
+    // Takes a log (P) and records every later commit, drop and
+    // synchronize of this repository in it (B). Pass null to stop logging.
+    public void setLog(CommitLog log) {
+        this.log = log;
+    }
+
+    // Takes the clock new commits get their timestamps from (P) and uses
+    // it from now on (B). Commits already made keep their timestamps.
+    public void setClock(CommitClock clock) {
+        this.clock = clock;
+    }
+
+    // Returns the clock new commits get their timestamps from (R).
+    public CommitClock getClock() {
+        return clock;
+    }
+
+    // Takes the clock soft drops are timed by (P) and uses it from now on
+    // (B). The purge window is wall-clock time, so only tests change it.
+    void setDropClock(CommitClock dropClock) {
+        this.dropClock = dropClock;
+    }
+
+    // Takes a set of metrics (P) and records the count, latency and nodes
+    // walked of every later commit, contains, drop, getHistory and
+    // synchronize in it (B). Pass null to stop recording, which leaves
+    // only a null check on each operation.
+    public void setMetrics(RepositoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Returns the metrics this repository records in, or null if it
+    // records none (R).
+    public RepositoryMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Takes whether drops should be undoable (P). When they are, drop only
+    // marks a commit with a tombstone, leaving it in place but hidden from
+    // every read, until undrop brings it back or purge removes it for good
+    // (B). Turning soft drops off purges every tombstone. Drops, undrops
+    // and purges are each logged as they happen, so a restart keeps the
+    // commits still waiting to be purged hidden and undoable.
+    public void setSoftDrops(boolean soft) {
+        if (soft && tombstones == null) {
+            tombstones = new LinkedHashMap<>();
+            newestDrop = Long.MIN_VALUE;
+        } else if (!soft && tombstones != null) {
+            purge(Long.MAX_VALUE, Integer.MAX_VALUE);
+            tombstones = null;
+        }
+    }
+
+    // Takes whether new commits should be named by their content (P). When
+    // they are, a commit's ID is the SHA-1 hash of its parent's ID, its
+    // timestamp and its message instead of the next number, so the same
+    // commit gets the same ID in every process, and IDs from different
+    // processes or after resetIds never collide (B). Commits already made
+    // keep their IDs.
+    public void setContentIds(boolean contentIds) {
+        this.contentIds = contentIds;
+    }
+
+    // Returns how many dropped commits are waiting to be purged (R).
+    public int getTombstoneCount() {
+        return tombstones == null ? 0 : tombstones.size();
+    }
+
+    // Returns the name of this repository (B, R).
+    public String getName() {
+        return name;
+    }
+
     // Returns the ID of the current head of this repository (B, R).
     // Returns null if no commits (R).
 	public String getRepoHead() {
-        if (front == null) {
+        Commit head = skipTombstones(front);
+        if (head == null) {
             return null;
         } else {
-            return front.id;
+            return head.id;
         }
 	}
 	
     // Returns a string representation of the repository,
     // including its name and the head ID (B, R). If no commits were
-    // made, the string indicates as such.
+    // made, the string indicates as such. The string is kept until the
+    // history changes, so asking again does not build it again.
 	public String toString() {
-        if (front == null) {
+        Commit head = skipTombstones(front);
+        if (head == null) {
             return name + " - No commits";
         }
-		return name + " - Current head: " + front.toString();
+        String summary = rendered.summary();
+        if (summary == null) {
+            summary = name + " - Current head: " + rendered.line(head);
+            rendered.putSummary(summary);
+        }
+		return summary;
 	}
 	
     // Given a targetId (P), checks if there exists a commit
-    // with the given ID (B). Returns true if this is the case,
+    // with the given ID (B). Looks the ID up in the index instead of
+    // walking the history. Returns true if this is the case,
     // false if not (R).
 	public boolean contains(String targetId) {
-		Commit curr = front;
-        while (curr != null) {
-            if (curr.id.equals(targetId)) {
-                return true;
-            }
-            curr = curr.past;
+        if (metrics == null) {
+            return holds(targetId);
         }
-        return false;
+        long start = System.nanoTime();
+        boolean found = holds(targetId);
+        metrics.record(RepositoryMetrics.Operation.CONTAINS, start, 0);
+        return found;
 	}
 	
     // Returns the size of the repository,
-    // based on how many commits there are (B, R).
+    // based on how many commits there are (B, R). The count is kept
+    // up to date by commit, drop and synchronize; when assertions are
+    // enabled (java -ea) it is checked against a full walk.
 	public int getRepoSize() {
-		int size = 0;
+        assert size == countCommits() : "Size counter out of sync with history";
+        return size;
+	}
+
+    // Counts the commits in this repository by walking
+    // the whole history (B). Returns the count (R).
+    private int countCommits() {
+		int count = 0;
         Commit curr = front;
         while (curr != null) {
-            size++;
+            if (!isTombstoned(curr)) {
+                count++;
+            }
             curr = curr.past;
         }
-        return size;
-	}
+        return count;
+    }
+
+    // Given a targetId (P), returns whether this repository has a commit
+    // with that ID that has not been dropped (R).
+    private boolean holds(String targetId) {
+        if (tombstones == null) {
+            return commits.containsKey(targetId);
+        }
+        Commit target = commits.get(targetId);
+        return target != null && !isTombstoned(target);
+    }
+
+    // Returns whether this repository has a commit with the same ID,
+    // timestamp and message as the given one (P, R), dropped or not.
+    boolean holdsCopy(Commit commit) {
+        Commit held = commits.get(commit.id);
+        return held != null && held.timeStamp == commit.timeStamp
+                && held.message.equals(commit.message);
+    }
+
+    // Returns this repository's commits by ID (R), dropped or not, for
+    // another repository about to take them. Not to be changed.
+    Map<String, Commit> commitsById() {
+        return commits;
+    }
+
+    // Returns whether the given commit (P) has been dropped but not yet
+    // purged (R).
+    boolean isTombstoned(Commit commit) {
+        if (tombstones == null || tombstones.isEmpty()) {
+            return false;
+        }
+        Tombstone tombstone = tombstones.get(commit.id);
+        return tombstone != null && tombstone.commit == commit;
+    }
+
+    // Returns the given commit, or the newest commit before it that has not
+    // been dropped, or null if there is none (P, R). For readers that walk
+    // the history.
+    Commit skipTombstones(Commit curr) {
+        while (curr != null && isTombstoned(curr)) {
+            curr = curr.past;
+        }
+        return curr;
+    }
 
     // Takes in an int n parameter (P) and returns a string consisting 
     // of the string representations of the most recent n commits 
     // in this repository, or all of them if n is larger than the repository
     // size. **Returns an empty String if current Repo has no commits** (B, R). 
+    // A history asked for again before anything changes is returned as is.
     // Throws an IllegalArgumentException identifier if n is negative or equals 0 (E).
 	public String getHistory(int n) {
+        if (n > 0) {
+            long start = metrics == null ? 0 : System.nanoTime();
+            String page = rendered.page(Math.min(n, size));
+            if (page != null) {
+                if (metrics != null) {
+                    metrics.record(RepositoryMetrics.Operation.GET_HISTORY, start, 0);
+                }
+                return page;
+            }
+        }
+        StringBuilder history = new StringBuilder();
+        try {
+            writeHistory(n, history);
+        } catch (IOException e) {
+            // StringBuilder never throws, but Appendable says it might
+            throw new UncheckedIOException(e);
+        }
+        return history.toString();
+	}
+
+    // Takes in an int n parameter and an output to write to (P) and writes
+    // the string representations of the most recent n commits to the output,
+    // one per line, in the same format as getHistory (B). Writes nothing if
+    // current Repo has no commits. Short histories are kept as one string
+    // until the history changes, and each commit's line is kept too, so
+    // asking for the same recent commits again renders nothing. Throws an
+    // IllegalArgumentException if n is negative or equals 0, and passes on
+    // any IOException from the output (E).
+    public void writeHistory(int n, Appendable out) throws IOException {
         if (n <= 0) {
             throw new IllegalArgumentException("Invalid Number: Must be a non-negative number.");
         }
-		String history = "";
-        Commit curr = front;
-        while (curr != null && n != 0) {
-            history += curr.toString() + "\n";
-            n--;
-            curr = curr.past;
+        long start = metrics == null ? 0 : System.nanoTime();
+        int walked = 0;
+        int lines = Math.min(n, size);
+        if (lines <= HistoryCache.MAX_PAGE_LINES) {
+            String page = rendered.page(lines);
+            if (page == null) {
+                StringBuilder built = new StringBuilder();
+                int shown = 0;
+                for (Commit curr = front; shown < lines; curr = curr.past) {
+                    if (!isTombstoned(curr)) {
+                        built.append(rendered.line(curr)).append('\n');
+                        shown++;
+                    }
+                    walked++;
+                }
+                page = built.toString();
+                rendered.putPage(lines, page);
+            }
+            out.append(page);
+        } else {
+            Commit curr = front;
+            while (curr != null && n != 0) {
+                if (!isTombstoned(curr)) {
+                    curr.appendTo(out);
+                    out.append('\n');
+                    n--;
+                }
+                walked++;
+                curr = curr.past;
+            }
         }
-        return history;
-	}
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.GET_HISTORY, start, walked);
+        }
+    }
+
+    // Takes a start and end time in milliseconds (P) and returns the string
+    // representations of every commit made in that time, both ends
+    // included, newest first and one per line, in the same format as
+    // getHistory (B, R). Returns an empty String if there are none. Uses
+    // the timestamp index, so only the commits in range are visited.
+    // Throws an IllegalArgumentException if fromMillis is after toMillis (E).
+    public String getHistoryBetween(long fromMillis, long toMillis) {
+        StringBuilder history = new StringBuilder();
+        Iterator<Commit> range = commitsBetween(fromMillis, toMillis).iterator();
+        try {
+            while (range.hasNext()) {
+                range.next().appendTo(history);
+                history.append('\n');
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws, but Appendable says it might
+            throw new UncheckedIOException(e);
+        }
+        return history.toString();
+    }
+
+    // Takes a start and end time in milliseconds (P) and returns a stream of
+    // every commit made in that time, both ends included, newest first (R).
+    // The stream is lazy, so it must be used before the repository changes.
+    // Throws an IllegalArgumentException if fromMillis is after toMillis (E).
+    public Stream<Commit> commitsBetween(long fromMillis, long toMillis) {
+        if (fromMillis > toMillis) {
+            throw new IllegalArgumentException("Invalid Range: Start is after end.");
+        }
+        Stream<Commit> range = StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                byTime.between(fromMillis, toMillis),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return tombstones == null ? range : range.filter(commit -> !isTombstoned(commit));
+    }
 	
-    // Removes the first commit with ID targetId from this repository (B), 
-    // given the String targetId parameter (P). Returns true if the 
-    // commit was successfully dropped, and false if there is no
-    // commit that matches the given ID in the repository (R).
+    // Takes a query and the most results wanted (P) and returns the commits
+    // whose messages hold every word of the query, newest first (R). Words
+    // are runs of letters and digits and case does not matter; a query
+    // word ending in '*' matches any word it starts. Uses the message
+    // index, so only commits holding the query's rarest word are read.
+    // Throws an IllegalArgumentException if the query has no words or
+    // limit is negative or 0 (E).
+    public List<Commit> search(String query, int limit) {
+        byWord.build(front);
+        return byWord.search(query, limit, this::isTombstoned,
+                             byTime.inHistoryOrder() ? null : front);
+    }
+
+    // Removes the commit with ID targetId from this repository (B), 
+    // given the String targetId parameter (P). The commit and the one
+    // just after it are found through the index, so no walk is needed.
+    // With soft drops on, the commit is only marked with a tombstone and
+    // can be brought back with undrop until it is purged.
+    // Returns true if the commit was successfully dropped, and false
+    // if there is no commit that matches the given ID in the repository (R).
 	public boolean drop(String targetId) {
-        if (front != null) {
-            if (front.id.equals(targetId)) {
-                front = front.past;
-                return true;
-            } else {
-                Commit curr = front;
-                while (curr.past != null) {
-                    if (curr.past.id.equals(targetId)) {
-                        curr.past = curr.past.past;
-                        return true;
-                    } else {
-                        curr = curr.past;
-                    }
-                }
+        long start = metrics == null ? 0 : System.nanoTime();
+        Commit target = tombstones == null ? commits.remove(targetId) : commits.get(targetId);
+        if (target == null || isTombstoned(target)) {
+            if (metrics != null) {
+                metrics.record(RepositoryMetrics.Operation.DROP, start, 0);
+            }
+            return false;
+        }
+        size--;
+        if (tombstones == null) {
+            unlink(target);
+            if (log != null) {
+                log.drop(targetId);
+            }
+        } else {
+            long droppedAt = dropClock.now();
+            addTombstone(new Tombstone(target, droppedAt));
+            if (log != null) {
+                log.tombstone(targetId, droppedAt);
             }
+            rendered.changed();
         }
-        return false;
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.DROP, start, 0);
+        }
+        return true;
 	}
-    
+
+    // Given the String ID of a commit dropped while soft drops are on (P),
+    // brings the commit back in the place it was dropped from (B). Returns
+    // true if it was brought back, or false if there is no such commit
+    // waiting to be purged (R).
+    public boolean undrop(String targetId) {
+        Tombstone tombstone = tombstones == null ? null : tombstones.remove(targetId);
+        if (tombstone == null) {
+            return false;
+        }
+        size++;
+        if (log != null) {
+            log.undrop(targetId);
+        }
+        rendered.changed();
+        return true;
+    }
+
+    // Takes the ID of a commit and when it was dropped (P), read back from
+    // disk, and marks the commit with a tombstone as drop does (B). The
+    // tombstone was written by a repository with soft drops on, so they
+    // are turned on here too. Nothing is logged.
+    void restoreTombstone(String targetId, long droppedAt) {
+        Commit target = commits.get(targetId);
+        if (target == null || isTombstoned(target)) {
+            return;
+        }
+        if (tombstones == null) {
+            setSoftDrops(true);
+        }
+        size--;
+        addTombstone(new Tombstone(target, droppedAt));
+        rendered.changed();
+    }
+
+    // Takes the ID of a commit dropped for good (P), read back from disk,
+    // and purges the commit if it waits under a tombstone, or drops it as
+    // drop does if not (B).
+    void restoreDrop(String targetId) {
+        Commit target = commits.get(targetId);
+        if (target != null && isTombstoned(target)) {
+            discard(target);
+        } else {
+            drop(targetId);
+        }
+    }
+
+    // Takes a time in milliseconds and the most commits to purge (P), and
+    // removes for good up to that many commits dropped before that time,
+    // oldest drops first, logging each drop (B). Returns how many were
+    // purged (R).
+    public int purge(long droppedBefore, int limit) {
+        if (tombstones == null) {
+            return 0;
+        }
+        int purged = 0;
+        Iterator<Tombstone> oldest = tombstones.values().iterator();
+        while (purged < limit && oldest.hasNext()) {
+            Tombstone tombstone = oldest.next();
+            if (tombstone.droppedAt >= droppedBefore) {
+                break;
+            }
+            oldest.remove();
+            commits.remove(tombstone.commit.id);
+            unlink(tombstone.commit);
+            if (log != null) {
+                log.drop(tombstone.commit.id);
+            }
+            purged++;
+        }
+        return purged;
+    }
+
+    // Takes a commit just removed from the index (P) and unlinks it from
+    // the history (B). Callers log the drop if it needs logging.
+    private void unlink(Commit target) {
+        String targetId = target.id;
+        fingerprint -= fingerprintOf(target);
+        byTime.dropped();
+        byWord.dropped();
+        rendered.dropped(target);
+        Commit after = newer.remove(targetId);
+        if (after == null) {
+            front = target.past;
+        } else {
+            after.past = target.past;
+        }
+        if (target.past != null) {
+            if (after == null) {
+                newer.remove(target.past.id);
+            } else {
+                newer.put(target.past.id, after);
+            }
+        }
+    }
+
+    // Takes a commit of this repository (P) and removes it without logging
+    // a drop, for a commit another repository already holds (B).
+    void discard(Commit target) {
+        commits.remove(target.id);
+        if (isTombstoned(target)) {
+            tombstones.remove(target.id);
+        } else {
+            size--;
+        }
+        unlink(target);
+    }
+
+    // Removes every commit with one of the given IDs from this repository
+    // (B), given a collection of String IDs (P). Each commit is found
+    // through the index, so the whole job costs one step per ID however
+    // long the history is. Returns whether each ID was dropped, in the
+    // order the collection gives them; an ID given twice is only dropped
+    // the first time (R).
+    public List<Boolean> dropAll(Collection<String> targetIds) {
+        List<Boolean> dropped = new ArrayList<>(targetIds.size());
+        for (String targetId : targetIds) {
+            dropped.add(drop(targetId));
+        }
+        return dropped;
+    }
+
 	// Takes all the commits in the other repository (the method
     // takes the Other repository as a parameter) (P) and moves them 
     // into this repository, combining the two repository histories
-    // such that chronological order is preserved (B).
+    // such that chronological order is preserved (B). When both histories
+    // are in timestamp order, runs of commits that fall between two commits
+    // of the other history are found by binary search and moved as a block,
+    // so the cost follows the number of runs and the commits moved rather
+    // than the length of this history. Commits this repository already has,
+    // with the same ID, timestamp and message, are left out, so
+    // synchronizing with a copy of part of this history adds only the rest.
+    // Synchronizing with itself changes nothing, tombstones included.
     public void synchronize(Repository other) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (other == this) {
+            // Taking its own history would forget what it has dropped
+            if (metrics != null) {
+                metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, 0);
+            }
+            return;
+        }
+        skipDuplicates(other, commits);
+        List<Tombstone> adopted = adoptTombstones(other);
+        if (front != null && other.front != null
+                && byTime.inHistoryOrder() && other.byTime.inHistoryOrder()) {
+            long walked = spliceFrom(other);
+            logTombstones(adopted);
+            if (metrics != null) {
+                metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, walked);
+            }
+            return;
+        }
+        Commit otherFront = other.takeAll();
+        if (otherFront == null) {
+            if (metrics != null) {
+                metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, 0);
+            }
+            return;
+        }
+        if (log != null) {
+            log.synchronize(otherFront);
+        }
+        logTombstones(adopted);
+        byWord.merge(otherFront);
+        long walked = 0;
         if (front == null) {
-            front = other.front;
-            other.front = null;
-        } else if (other.front != null) {
-            if (front.timeStamp < other.front.timeStamp) {
-                Commit temp = other.front;
-                other.front = other.front.past;
+            front = otherFront;
+        } else {
+            if (front.timeStamp < otherFront.timeStamp) {
+                Commit temp = otherFront;
+                otherFront = otherFront.past;
                 temp.past = front;
                 front = temp;
             }
             Commit curr = front;
-            while (curr.past != null && other.front != null) {
-                if (curr.past.timeStamp < other.front.timeStamp) {
-                    Commit temp = other.front;
-                    other.front = other.front.past;
+            while (curr.past != null && otherFront != null) {
+                if (curr.past.timeStamp < otherFront.timeStamp) {
+                    Commit temp = otherFront;
+                    otherFront = otherFront.past;
                     temp.past = curr.past;
                     curr.past = temp;
                 }
                 curr = curr.past;
+                walked++;
             }
-            if (other.front != null) {
-                curr.past = other.front;
-                other.front = null;
+            if (otherFront != null) {
+                curr.past = otherFront;
             }
-        }    
+        }
+        walked += reindex();
+        clock.observe(front.timeStamp);
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, walked);
+        }
+    }
+
+    // Takes another repository about to be moved into this one and the
+    // commits already held, by ID (P), and removes from the other
+    // repository every commit held with the same ID, timestamp and message
+    // (B). Whichever side has fewer commits is looked up in the other
+    // side's index, so neither history is walked. If that leaves the other
+    // repository empty, its log is cleared, as takeAll would have done.
+    private static void skipDuplicates(Repository other, Map<String, Commit> held) {
+        Map<String, Commit> taken = other.commitsById();
+        if (held.isEmpty() || taken.isEmpty()) {
+            return;
+        }
+        List<Commit> duplicates = new ArrayList<>();
+        boolean fewerHeld = held.size() < taken.size();
+        for (Commit commit : (fewerHeld ? held : taken).values()) {
+            Commit match = (fewerHeld ? taken : held).get(commit.id);
+            if (match != null && match.timeStamp == commit.timeStamp
+                    && match.message.equals(commit.message)) {
+                duplicates.add(fewerHeld ? match : commit);
+            }
+        }
+        for (Commit duplicate : duplicates) {
+            other.discard(duplicate);
+        }
+        if (!duplicates.isEmpty() && taken.isEmpty() && other.log != null) {
+            // Nothing is left for takeAll to clear, so its log is cleared here
+            other.log.clear();
+        }
+    }
+
+    // Takes another repository about to be moved into this one (P) and
+    // makes the commits it dropped but has not purged this repository's
+    // to undrop or purge, or purges them first if this repository does not
+    // keep tombstones (B). Returns the tombstones taken over, to be logged
+    // once their commits are (R).
+    private List<Tombstone> adoptTombstones(Repository other) {
+        if (other.tombstones == null || other.tombstones.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (tombstones == null) {
+            other.purge(Long.MAX_VALUE, Integer.MAX_VALUE);
+            return Collections.emptyList();
+        }
+        List<Tombstone> adopted = new ArrayList<>(other.tombstones.values());
+        mergeTombstones(adopted);
+        other.tombstones.clear();
+        return adopted;
+    }
+
+    // Takes a tombstone (P) and adds it to this repository's, keeping them
+    // in the order they were dropped (B). A tombstone dropped no earlier
+    // than every one added so far goes on the end.
+    private void addTombstone(Tombstone tombstone) {
+        if (tombstone.droppedAt >= newestDrop) {
+            tombstones.put(tombstone.commit.id, tombstone);
+            newestDrop = tombstone.droppedAt;
+        } else {
+            mergeTombstones(Collections.singletonList(tombstone));
+        }
+    }
+
+    // Takes tombstones in the order they were dropped (P) and merges them
+    // into this repository's by when they were dropped (B), since purge
+    // stops at the first one not yet due.
+    private void mergeTombstones(List<Tombstone> added) {
+        Map<String, Tombstone> merged = new LinkedHashMap<>();
+        Iterator<Tombstone> mine = tombstones.values().iterator();
+        Iterator<Tombstone> theirs = added.iterator();
+        Tombstone nextMine = mine.hasNext() ? mine.next() : null;
+        Tombstone nextTheirs = theirs.hasNext() ? theirs.next() : null;
+        while (nextMine != null || nextTheirs != null) {
+            if (nextTheirs == null
+                    || (nextMine != null && nextMine.droppedAt <= nextTheirs.droppedAt)) {
+                merged.put(nextMine.commit.id, nextMine);
+                nextMine = mine.hasNext() ? mine.next() : null;
+            } else {
+                merged.put(nextTheirs.commit.id, nextTheirs);
+                newestDrop = Math.max(newestDrop, nextTheirs.droppedAt);
+                nextTheirs = theirs.hasNext() ? theirs.next() : null;
+            }
+        }
+        tombstones = merged;
+    }
+
+    // Takes tombstones taken over from another repository (P) and logs
+    // them, after the synchronize that moved their commits in (B).
+    private void logTombstones(List<Tombstone> adopted) {
+        if (log != null) {
+            for (Tombstone tombstone : adopted) {
+                log.tombstone(tombstone.commit.id, tombstone.droppedAt);
+            }
+        }
+    }
+
+    // Calls the given action with each commit waiting to be purged and
+    // when it was dropped (P), in the order they were dropped (B).
+    void forEachTombstone(ObjLongConsumer<Commit> action) {
+        if (tombstones != null) {
+            for (Tombstone tombstone : tombstones.values()) {
+                action.accept(tombstone.commit, tombstone.droppedAt);
+            }
+        }
+    }
+
+    // Takes another non-empty repository whose history, like this one's, is
+    // in timestamp order (P), and moves its commits into this repository
+    // using the timestamp indexes to splice in whole runs at a time (B).
+    // Only the other repository's commits are indexed, so nothing is
+    // walked apart from them. Returns how many commits the splice looked
+    // at to find the ends of the runs (R).
+    private long spliceFrom(Repository other) {
+        if (log != null) {
+            log.synchronize(other.front);
+        }
+        byWord.merge(other.byWord);
+        commits.putAll(other.commits);
+        newer.putAll(other.newer);
+        size += other.size;
+        fingerprint += other.fingerprint;
+        front = byTime.merge(other.byTime, (newerCommit, older) -> newer.put(older.id, newerCommit));
+        other.takeAll();
+        rendered.changed();
+        clock.observe(front.timeStamp);
+        return byTime.lookedAt();
+    }
+
+    // Takes another repository (P) and copies into this one the commits it
+    // has on top of the newest commit both have, merging them by timestamp
+    // with the commits this one has on top of it (B). The other repository
+    // is left as it is. Only the commits above the shared one are read on
+    // either side, so replicas that differ by a few recent commits catch up
+    // at the cost of those commits, not of the whole history. Returns how
+    // many commits were copied (R).
+    public int pull(Repository other) {
+        if (other == this) {
+            return 0;
+        }
+        return Delta.between(other, this).applyTo(this);
+    }
+
+    // Takes the ID of a commit of this repository, or null for the bottom
+    // of its history, the fingerprint and length of the history from that
+    // commit down as the sender saw it, and the timestamps, IDs and
+    // messages of commits to go above it, newest first (P). Adds each
+    // commit not already held, merged by timestamp with the commits above
+    // that one and kept after them on equal timestamps, the same as
+    // synchronize (B). Only the commits above that one are read, relinked
+    // and reindexed. Returns how many commits were added (R). Throws an
+    // IllegalArgumentException, changing nothing, if there is no commit
+    // with the base ID, the history below it differs from the sender's, or
+    // one of the IDs is held by a different commit (E).
+    int spliceAbove(String baseId, long baseFingerprint, int baseLength,
+                    long[] timeStamps, String[] ids, String[] messages) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        Commit base = baseId == null ? null : commits.get(baseId);
+        if (baseId != null && base == null) {
+            throw new IllegalArgumentException("Invalid Delta: No commit " + baseId + " in " + name);
+        }
+        List<Commit> above = new ArrayList<>();
+        long rest = fingerprint;
+        for (Commit curr = front; curr != base; curr = curr.past) {
+            above.add(curr);
+            rest -= fingerprintOf(curr);
+        }
+        if (rest != baseFingerprint || size + getTombstoneCount() - above.size() != baseLength) {
+            throw new IllegalArgumentException("Invalid Delta: History below " + baseId
+                                               + " differs in " + name);
+        }
+        boolean[] held = new boolean[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            Commit match = commits.get(ids[i]);
+            if (match != null) {
+                if (match.timeStamp != timeStamps[i] || !match.message.equals(messages[i])) {
+                    throw new IllegalArgumentException("Invalid Delta: Commit " + ids[i]
+                                                       + " differs from the one in " + name);
+                }
+                held[i] = true;
+            }
+        }
+        Commit incoming = null;
+        List<Commit> added = new ArrayList<>();
+        for (int i = ids.length - 1; i >= 0; i--) {
+            if (!held[i]) {
+                incoming = new Commit(ids[i], timeStamps[i], messages[i], incoming);
+                commits.put(incoming.id, incoming);
+                fingerprint += fingerprintOf(incoming);
+                added.add(incoming);
+            }
+        }
+        if (incoming != null) {
+            if (log != null) {
+                log.synchronize(incoming);
+            }
+            byWord.merge(incoming);
+            boolean ordered = byTime.inHistoryOrder();
+            if (!above.isEmpty()) {
+                above.get(above.size() - 1).past = null;
+            }
+            front = merge(above.isEmpty() ? null : above.get(0), incoming);
+            List<Commit> segment = new ArrayList<>(above.size() + added.size());
+            Commit curr = front;
+            while (curr.past != null) {
+                segment.add(curr);
+                newer.put(curr.past.id, curr);
+                curr = curr.past;
+            }
+            segment.add(curr);
+            curr.past = base;
+            if (base != null) {
+                newer.put(base.id, curr);
+            }
+            if (ordered) {
+                Collections.reverse(segment);
+                byTime.replaceAfter(base, segment);
+            } else {
+                // The merge relinked them, so they are added from the list
+                for (Commit commit : added) {
+                    byTime.add(commit);
+                }
+            }
+            size += added.size();
+            rendered.changed();
+            clock.observe(front.timeStamp);
+        }
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, above.size() + ids.length);
+        }
+        return added.size();
+    }
+
+    // Returns the fingerprint of this repository's history: the sum of
+    // fingerprintOf over every commit in it, dropped ones waiting to be
+    // purged included (R). Two histories in timestamp order with the same
+    // fingerprint and length hold the same commits, barring a collision of
+    // 64-bit hashes, and the fingerprint of the history below a commit is
+    // this less the commits above it, so replicas can find where their
+    // histories stop differing by reading only the commits above.
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    // Returns the fingerprint of one commit (P), a 64-bit hash of its ID,
+    // timestamp and message (R).
+    static long fingerprintOf(Commit commit) {
+        long hash = commit.id.hashCode() * 0x9E3779B97F4A7C15L + commit.message.hashCode();
+        hash ^= commit.timeStamp * 0xC2B2AE3D27D4EB4FL;
+        // Spread the bits so that sums of nearby inputs do not collide
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    // Takes all the commits in each of the other repositories (P) and moves
+    // them into this repository with a single k-way merge, preserving
+    // chronological order (B). Commits with equal timestamps end up in the
+    // same order as calling synchronize on each repository in turn. Large
+    // merges are split into a parallel tree of pairwise merges.
+    public void synchronizeAll(Collection<Repository> others) {
+        int total = getRepoSize();
+        for (Repository other : others) {
+            total += other.getRepoSize();
+        }
+        synchronizeAll(others, total >= PARALLEL_THRESHOLD);
+    }
+
+    // Takes all the commits in each of the other repositories and whether
+    // to merge them in parallel (P), and moves the commits into this
+    // repository, preserving chronological order (B). If parallel is true,
+    // the histories are merged pairwise on the common fork-join pool;
+    // otherwise they are merged with one pass over a heap. A commit held
+    // by this repository or an earlier one of the others, with the same
+    // ID, timestamp and message, is only moved in once.
+    public void synchronizeAll(Collection<Repository> others, boolean parallel) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        List<Commit> heads = new ArrayList<>();
+        if (front != null) {
+            heads.add(front);
+        }
+        Set<Repository> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(this);
+        Map<String, Commit> incoming = new HashMap<>();
+        for (Repository other : others) {
+            if (seen.add(other)) {
+                skipDuplicates(other, commits);
+                skipDuplicates(other, incoming);
+                incoming.putAll(other.commitsById());
+                List<Tombstone> adopted = adoptTombstones(other);
+                Commit taken = other.takeAll();
+                if (taken != null) {
+                    heads.add(taken);
+                    if (log != null) {
+                        log.synchronize(taken);
+                    }
+                    logTombstones(adopted);
+                    byWord.merge(taken);
+                }
+            }
+        }
+        LongAdder walked = new LongAdder();
+        if (heads.size() > (front == null ? 0 : 1)) {
+            if (parallel && heads.size() > 2) {
+                front = ForkJoinPool.commonPool().invoke(new MergeTask(heads, 0, heads.size(), walked));
+            } else {
+                front = mergeAll(heads, walked);
+            }
+            walked.add(reindex());
+            clock.observe(front.timeStamp);
+        }
+        if (metrics != null) {
+            metrics.record(RepositoryMetrics.Operation.SYNCHRONIZE, start, walked.sum());
+        }
+    }
+
+    // Takes a list of histories, ordered by priority, and a counter (P),
+    // and merges them into one history using a heap of the next commit
+    // from each, adding how many commits were taken off the heap to the
+    // counter (B). Commits with equal timestamps are taken from the earlier
+    // history first. Returns the front of the merged history (R).
+    private static Commit mergeAll(List<Commit> heads, LongAdder walked) {
+        Commit[] next = heads.toArray(new Commit[0]);
+        PriorityQueue<Integer> heap = new PriorityQueue<>(next.length, (a, b) -> {
+            int cmp = Long.compare(next[b].timeStamp, next[a].timeStamp);
+            return cmp != 0 ? cmp : Integer.compare(a, b);
+        });
+        for (int i = 0; i < next.length; i++) {
+            heap.add(i);
+        }
+        Commit result = null;
+        Commit tail = null;
+        long taken = 0;
+        while (heap.size() > 1) {
+            taken++;
+            int i = heap.poll();
+            Commit curr = next[i];
+            next[i] = curr.past;
+            if (tail == null) {
+                result = curr;
+            } else {
+                tail.past = curr;
+            }
+            tail = curr;
+            if (next[i] != null) {
+                heap.add(i);
+            }
+        }
+        walked.add(taken);
+        // Whatever is left of the last history is already in order
+        Commit rest = next[heap.poll()];
+        if (tail == null) {
+            return rest;
+        }
+        tail.past = rest;
+        return result;
+    }
+
+    // Takes two histories (P) and merges them into one (B), taking commits
+    // with equal timestamps from the first history first, the same as
+    // synchronize does. Returns the front of the merged history (R).
+    static Commit merge(Commit first, Commit second) {
+        return merge(first, second, null);
+    }
+
+    // Does the same as merge, given also a counter, or null for none (P),
+    // and adds how many commits were placed before one history ran out to
+    // the counter (B, R).
+    static Commit merge(Commit first, Commit second, LongAdder walked) {
+        if (first == null || second == null) {
+            return first != null ? first : second;
+        }
+        Commit result = first.timeStamp >= second.timeStamp ? first : second;
+        Commit tail = null;
+        long placed = 0;
+        while (first != null && second != null) {
+            placed++;
+            Commit curr;
+            if (first.timeStamp >= second.timeStamp) {
+                curr = first;
+                first = first.past;
+            } else {
+                curr = second;
+                second = second.past;
+            }
+            if (tail != null) {
+                tail.past = curr;
+            }
+            tail = curr;
+        }
+        tail.past = first != null ? first : second;
+        if (walked != null) {
+            walked.add(placed);
+        }
+        return result;
+    }
+
+    // A task that merges a range of histories by merging each half
+    // in parallel and then merging the two results, counting the commits
+    // each merge places.
+    private static class MergeTask extends RecursiveTask<Commit> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Commit> heads;
+        private final int start;
+        private final int end;
+        private final LongAdder walked;
+
+        // Constructs a task for the histories from index start
+        // up to, but not including, index end, adding the commits its
+        // merges place to the given counter (P).
+        public MergeTask(List<Commit> heads, int start, int end, LongAdder walked) {
+            this.heads = heads;
+            this.start = start;
+            this.end = end;
+            this.walked = walked;
+        }
+
+        // Merges the range of histories and returns the front of
+        // the merged history (B, R).
+        @Override
+        protected Commit compute() {
+            if (end - start == 1) {
+                return heads.get(start);
+            }
+            int mid = (start + end) / 2;
+            MergeTask left = new MergeTask(heads, start, mid, walked);
+            left.fork();
+            Commit right = new MergeTask(heads, mid, end, walked).compute();
+            return merge(left.join(), right, walked);
+        }
+    }
+
+    // Takes a message and the commit to put it on top of (P) and returns a
+    // new commit with the next ID and a timestamp from this repository's
+    // clock, not added to any repository (R). For histories kept outside a
+    // repository.
+    Commit newCommit(String message, Commit past) {
+        return create(message, past);
+    }
+
+    // Takes a message and the commit to put it on top of (P) and returns a
+    // new commit stamped by this repository's clock, named with the next
+    // ID or, with content IDs on, the hash of its content (R). Remaking a
+    // dropped commit within the same millisecond would give an ID this
+    // repository still holds, so the timestamp is then moved on a
+    // millisecond at a time until it does not.
+    private Commit create(String message, Commit past) {
+        long timeStamp = clock.now();
+        if (!contentIds) {
+            return new Commit("" + Commit.nextId(), timeStamp, message, past);
+        }
+        String parentId = past == null ? "" : past.id;
+        String id = contentId(parentId, timeStamp, message);
+        while (commits.containsKey(id)) {
+            timeStamp++;
+            id = contentId(parentId, timeStamp, message);
+        }
+        return new Commit(id, timeStamp, message, past);
+    }
+
+    // Takes the ID of a commit's parent, or "" if it has none, its
+    // timestamp and its message (P), and returns its content ID: the
+    // SHA-1 hash of the three, as 40 lowercase hex digits (R).
+    static String contentId(String parentId, long timeStamp, String message) {
+        MessageDigest sha1 = SHA1.get();
+        sha1.update(parentId.getBytes(StandardCharsets.UTF_8));
+        sha1.update((byte) 0);
+        sha1.update(Long.toString(timeStamp).getBytes(StandardCharsets.UTF_8));
+        sha1.update((byte) 0);
+        sha1.update(message.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(sha1.digest());
+    }
+
+    // Takes a commit and the commit to put the copy on top of (P) and
+    // returns a new commit with the same ID, timestamp and message, not
+    // added to any repository (R).
+    Commit copyCommit(Commit commit, Commit past) {
+        return new Commit(commit.id, commit.timeStamp, commit.message, past);
+    }
+
+    // Returns the most recent commit in this repository, or null if
+    // there are no commits (R). For readers that walk the history.
+    Commit getFront() {
+        return front;
+    }
+
+    // Removes every commit from this repository, leaving it empty (B).
+    // Returns the front of the removed history, or null if there
+    // were no commits (R).
+    Commit takeAll() {
+        Commit taken = front;
+        front = null;
+        size = 0;
+        fingerprint = 0;
+        commits.clear();
+        newer.clear();
+        byTime.clear();
+        byWord.clear();
+        rendered.clear();
+        if (tombstones != null) {
+            tombstones.clear();
+            newestDrop = Long.MIN_VALUE;
+        }
+        if (taken != null && log != null) {
+            log.clear();
+        }
+        return taken;
+    }
+
+    // Rebuilds the index, the links from each commit to the commit
+    // made just after it, the commit count, the fingerprint and the
+    // timestamp index,
+    // walking the whole history once, and throws away cached history (B).
+    // Returns how many commits were walked (R).
+    private int reindex() {
+        commits.clear();
+        newer.clear();
+        size = 0;
+        fingerprint = 0;
+        Commit curr = front;
+        while (curr != null) {
+            commits.put(curr.id, curr);
+            fingerprint += fingerprintOf(curr);
+            if (curr.past != null) {
+                newer.put(curr.past.id, curr);
+            }
+            size++;
+            curr = curr.past;
+        }
+        byTime.rebuild(front, size);
+        int walked = size;
+        size -= getTombstoneCount();
+        rendered.changed();
+        return walked;
     }
 	
+    // A dropped commit waiting to be purged, and when it was dropped.
+    private static class Tombstone {
+        private final Commit commit;
+        private final long droppedAt;
+
+        public Tombstone(Commit commit, long droppedAt) {
+            this.commit = commit;
+            this.droppedAt = droppedAt;
+        }
+    }
+
     /**
      * DO NOT MODIFY
      * A class that represents a single commit in the repository.
@@ -175,7 +1284,19 @@ public class Repository {
      */
     public class Commit {
 
-        private static int currentCommitID;
+        /**
+         * The next ID to hand out. Atomic so that commits made on
+         * different threads never share an ID.
+         */
+        private static final AtomicInteger currentCommitID = new AtomicInteger();
+
+        /**
+         * Shared formatter for timestamps. Unlike SimpleDateFormat it is
+         * immutable and thread-safe, so one instance serves every commit.
+         */
+        private static final DateTimeFormatter FORMATTER =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd 'at' HH:mm:ss z")
+                                 .withZone(ZoneId.systemDefault());
 
         /**
          * The time, in milliseconds, at which this commit was created.
@@ -205,12 +1326,33 @@ public class Repository {
          *             commit.
          */
         public Commit(String message, Commit past) {
-            this.id = "" + currentCommitID++;
+            this.id = "" + nextId();
             this.message = message;
             this.timeStamp = System.currentTimeMillis();
             this.past = past;
         }
 
+        /**
+         * Constructs a commit object with a given identifier and timestamp,
+         * for rebuilding history that was saved earlier. Later commits are
+         * given IDs past any numeric ID restored this way.
+         * @param id The unique identifier of the saved commit.
+         * @param timeStamp The time, in milliseconds, the commit was made.
+         * @param message A message describing the changes made in this commit.
+         * @param past A reference to the commit made immediately before this
+         *             commit.
+         */
+        public Commit(String id, long timeStamp, String message, Commit past) {
+            this.id = id;
+            this.message = message;
+            this.timeStamp = timeStamp;
+            this.past = past;
+            if (!id.isEmpty() && id.length() < 10 && id.chars().allMatch(Character::isDigit)) {
+                int next = Integer.parseInt(id) + 1;
+                currentCommitID.accumulateAndGet(next, Math::max);
+            }
+        }
+
         /**
          * Constructs a commit object with no previous commit. The unique
          * identifier and timestamp are automatically generated.
@@ -229,10 +1371,43 @@ public class Repository {
          */
         @Override
         public String toString() {
-            SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd 'at' HH:mm:ss z");
-            Date date = new Date(timeStamp);
+            return id + " at " + FORMATTER.format(Instant.ofEpochMilli(timeStamp)) + ": " + message;
+        }
 
-            return id + " at " + formatter.format(date) + ": " + message;
+        /**
+         * Appends the string representation of this commit, in the same form
+         * as toString(), to the given output without building a String first.
+         * @param out The output to append to.
+         * @throws IOException If the output cannot be written to.
+         */
+        public void appendTo(Appendable out) throws IOException {
+            appendTo(out, id, timeStamp, message);
+        }
+
+        /**
+         * Appends the string representation of a commit with the given
+         * identifier, timestamp and message, in the same form as toString(),
+         * for storage engines that do not keep Commit objects.
+         * @param out The output to append to.
+         * @param id The unique identifier of the commit.
+         * @param timeStamp The time, in milliseconds, the commit was made.
+         * @param message The message of the commit.
+         * @throws IOException If the output cannot be written to.
+         */
+        static void appendTo(Appendable out, String id, long timeStamp, String message)
+                throws IOException {
+            out.append(id).append(" at ");
+            FORMATTER.formatTo(Instant.ofEpochMilli(timeStamp), out);
+            out.append(": ").append(message);
+        }
+
+        /**
+         * Hands out the next unique identifier as a number. Storage engines
+         * that do not keep Commit objects share it, so IDs never collide.
+         * @return The next unique identifier.
+         */
+        static int nextId() {
+            return currentCommitID.getAndIncrement();
         }
 
         /**
@@ -240,7 +1415,7 @@ public class Repository {
         * Primarily for testing purposes.
         */
         public static void resetIds() {
-            Commit.currentCommitID = 0;
+            Commit.currentCommitID.set(0);
         }
     }
 }
@@ -0,0 +1,207 @@
+import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts, latencies and history nodes walked for each operation on a
+// repository. Latencies go into log-linear histograms in the style of
+// HdrHistogram: every power of two is split into 16 buckets, so any
+// recorded time is known to within about 6% in a fixed 8KB per operation,
+// however many are recorded. Everything is kept in atomic counters, so
+// one RepositoryMetrics can be shared by threads.
+//
+// A repository without metrics keeps null in their place, so turning
+// them off costs one null check per operation.
+public class RepositoryMetrics {
+    // Operations that are measured.
+    public enum Operation {
+        COMMIT, CONTAINS, DROP, GET_HISTORY, SYNCHRONIZE;
+
+        // Returns the name of this operation as the method is named (R).
+        public String methodName() {
+            return this == GET_HISTORY ? "getHistory" : name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Histogram[] histograms;
+
+    // Constructs an empty set of metrics (B).
+    public RepositoryMetrics() {
+        histograms = new Histogram[Operation.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    // Records one run of an operation, given the operation, the
+    // System.nanoTime() when it started and how many history nodes it
+    // walked (P) (B).
+    public void record(Operation op, long startNanos, long nodes) {
+        recordElapsed(op, System.nanoTime() - startNanos, nodes);
+    }
+
+    // Records one run of an operation, given the operation, how long it
+    // took in nanoseconds and how many history nodes it walked (P) (B).
+    public void recordElapsed(Operation op, long nanos, long nodes) {
+        histograms[op.ordinal()].record(nanos, nodes);
+    }
+
+    // Returns how many times the given operation (P) has run (R).
+    public long getCount(Operation op) {
+        return histograms[op.ordinal()].count.sum();
+    }
+
+    // Returns how many history nodes the given operation (P) has walked
+    // in total (R).
+    public long getNodes(Operation op) {
+        return histograms[op.ordinal()].nodes.sum();
+    }
+
+    // Returns the latency in nanoseconds that the given percentage of runs
+    // of the given operation (P) took no longer than, to within about 6%
+    // (R). Returns 0 if the operation has not run. Throws an
+    // IllegalArgumentException if the percentage is not from 0 to 100 (E).
+    public long getPercentile(Operation op, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Invalid Percentile: Must be from 0 to 100.");
+        }
+        return histograms[op.ordinal()].percentile(percentile);
+    }
+
+    // Clears every count (B). Runs recorded at the same time may be lost.
+    public void reset() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    // Writes the metrics to the given output as a JSON object with one
+    // entry per operation (P, B). Passes on any IOException from the
+    // output (E).
+    public void writeJson(Appendable out) throws IOException {
+        out.append("{");
+        for (Operation op : Operation.values()) {
+            Histogram histogram = histograms[op.ordinal()];
+            out.append(op.ordinal() == 0 ? "\n" : ",\n");
+            out.append("  \"").append(op.methodName()).append("\": {");
+            out.append("\"count\": ").append(Long.toString(histogram.count.sum()));
+            out.append(", \"totalNanos\": ").append(Long.toString(histogram.total.sum()));
+            out.append(", \"nodes\": ").append(Long.toString(histogram.nodes.sum()));
+            for (double percentile : PERCENTILES) {
+                out.append(", \"p").append(label(percentile)).append("Nanos\": ");
+                out.append(Long.toString(histogram.percentile(percentile)));
+            }
+            out.append(", \"maxNanos\": ").append(Long.toString(histogram.percentile(100)));
+            out.append("}");
+        }
+        out.append("\n}\n");
+    }
+
+    // Returns the metrics as a JSON object, as written by writeJson (R).
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        try {
+            writeJson(json);
+        } catch (IOException e) {
+            // StringBuilder never throws, but Appendable says it might
+            throw new UncheckedIOException(e);
+        }
+        return json.toString();
+    }
+
+    // Returns a table of the metrics, one line per operation, with
+    // latencies in microseconds (R).
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder(String.format("%-12s %10s %12s", "operation", "count", "nodes"));
+        for (double percentile : PERCENTILES) {
+            table.append(String.format(" %9s", "p" + label(percentile) + " us"));
+        }
+        table.append(String.format(" %9s%n", "max us"));
+        for (Operation op : Operation.values()) {
+            Histogram histogram = histograms[op.ordinal()];
+            table.append(String.format("%-12s %10d %12d", op.methodName(),
+                                       histogram.count.sum(), histogram.nodes.sum()));
+            for (double percentile : PERCENTILES) {
+                table.append(String.format(" %9.1f", histogram.percentile(percentile) / 1e3));
+            }
+            table.append(String.format(" %9.1f%n", histogram.percentile(100) / 1e3));
+        }
+        return table.toString();
+    }
+
+    // Returns a percentile as it appears in labels, such as "99" or
+    // "99.9" (P, R).
+    private static String label(double percentile) {
+        return percentile == Math.rint(percentile) ? "" + (long) percentile : "" + percentile;
+    }
+
+    // Counts of one operation's latencies, bucketed by their top five
+    // significant bits.
+    private static class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAdder nodes = new LongAdder();
+
+        // Records one run that took the given time and walked the given
+        // number of nodes (P) (B).
+        public void record(long nanos, long walked) {
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            total.add(nanos);
+            nodes.add(walked);
+        }
+
+        // Returns the smallest bucket bound that at least the given
+        // percentage (P) of runs fall under (R).
+        public long percentile(double percentile) {
+            long runs = count.sum();
+            if (runs == 0) {
+                return 0;
+            }
+            long wanted = Math.max(1, (long) Math.ceil(runs * percentile / 100));
+            long seen = 0;
+            int last = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long inBucket = buckets.get(i);
+                if (inBucket > 0) {
+                    seen += inBucket;
+                    last = i;
+                    if (seen >= wanted) {
+                        return highest(i);
+                    }
+                }
+            }
+            // Runs recorded while counting may leave the total short
+            return highest(last);
+        }
+
+        // Returns the bucket that the given time (P) falls in (R).
+        private static int bucket(long nanos) {
+            if (nanos < 2 * SUB_COUNT) {
+                return (int) nanos;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+            return (shift + 1) * SUB_COUNT + (int) (nanos >>> shift) - SUB_COUNT;
+        }
+
+        // Returns the largest time that falls in the given bucket (P, R).
+        private static long highest(int bucket) {
+            if (bucket < 2 * SUB_COUNT) {
+                return bucket;
+            }
+            int shift = bucket / SUB_COUNT - 1;
+            long lowest = (long) (bucket % SUB_COUNT + SUB_COUNT) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}
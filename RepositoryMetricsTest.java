@@ -0,0 +1,119 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+
+public class RepositoryMetricsTest {
+    private Repository repo1;
+    private Repository repo2;
+    private RepositoryMetrics metrics;
+
+    @BeforeEach
+    public void setUp() {
+        repo1 = new Repository("repo1");
+        repo2 = new Repository("repo2");
+        metrics = new RepositoryMetrics();
+        repo1.setMetrics(metrics);
+        Repository.Commit.resetIds();
+    }
+
+    @Test
+    @DisplayName("Test every operation is counted")
+    public void testCounts() {
+        for (int i = 0; i < 10; i++) {
+            repo1.commit("Commit " + i);
+            repo2.commit("Other " + i);
+        }
+        repo1.contains("4");
+        repo1.contains("missing");
+        repo1.drop("4");
+        repo1.drop("missing");
+        repo1.getHistory(4);
+        repo1.getHistory(100);
+        repo1.synchronize(repo2);
+
+        // Assert that each run was counted once, failed ones included
+        assertEquals(metrics.getCount(RepositoryMetrics.Operation.COMMIT), 10);
+        assertEquals(metrics.getCount(RepositoryMetrics.Operation.CONTAINS), 2);
+        assertEquals(metrics.getCount(RepositoryMetrics.Operation.DROP), 2);
+        assertEquals(metrics.getCount(RepositoryMetrics.Operation.GET_HISTORY), 2);
+        assertEquals(metrics.getCount(RepositoryMetrics.Operation.SYNCHRONIZE), 1);
+
+        // Assert that the nodes walked follow the history
+        assertEquals(metrics.getNodes(RepositoryMetrics.Operation.GET_HISTORY), 4 + 9);
+        assertEquals(metrics.getNodes(RepositoryMetrics.Operation.CONTAINS), 0);
+
+        // Assert that a repository without metrics records nothing
+        assertNull(repo2.getMetrics());
+        repo1.setMetrics(null);
+        repo1.commit("Unrecorded");
+        assertEquals(metrics.getCount(RepositoryMetrics.Operation.COMMIT), 10);
+    }
+
+    @Test
+    @DisplayName("Test synchronize() counts the commits it walks")
+    public void testSynchronizeNodes() {
+        for (int i = 0; i < 10; i++) {
+            repo1.restore("a" + i, 2 * i, "A");
+            repo2.restore("b" + i, 2 * i + 1, "B");
+        }
+        repo1.synchronize(repo2);
+
+        // Assert that both histories are in order, so the splice looks only
+        // at the two ends of each of the 20 runs of one commit
+        assertEquals(metrics.getNodes(RepositoryMetrics.Operation.SYNCHRONIZE), 40);
+    }
+
+    @Test
+    @DisplayName("Test synchronizeAll() counts the commits it walks")
+    public void testSynchronizeAllNodes() {
+        Repository repo3 = new Repository("repo3");
+        for (int i = 0; i < 10; i++) {
+            repo1.restore("a" + i, 3 * i, "A");
+            repo2.restore("b" + i, 3 * i + 1, "B");
+            repo3.restore("c" + i, 3 * i + 2, "C");
+        }
+        repo1.synchronizeAll(List.of(repo2, repo3));
+
+        // Assert that the merge stops once only repo1's oldest commit is
+        // left, and the reindex walks all 30
+        assertEquals(metrics.getNodes(RepositoryMetrics.Operation.SYNCHRONIZE), 29 + 30);
+    }
+
+    @Test
+    @DisplayName("Test percentiles are within the histogram's precision")
+    public void testPercentiles() {
+        RepositoryMetrics.Operation op = RepositoryMetrics.Operation.DROP;
+        assertEquals(metrics.getPercentile(op, 50), 0);
+
+        // Record latencies of 1 to 1000 microseconds
+        for (int i = 1; i <= 1000; i++) {
+            metrics.recordElapsed(op, i * 1000L, 0);
+        }
+        long p50 = metrics.getPercentile(op, 50);
+        long p99 = metrics.getPercentile(op, 99);
+        assertTrue(p50 >= 500_000 && p50 < 500_000 * 1.07, "p50 was " + p50);
+        assertTrue(p99 >= 990_000 && p99 < 990_000 * 1.07, "p99 was " + p99);
+        assertTrue(metrics.getPercentile(op, 100) >= 1_000_000);
+        assertThrows(IllegalArgumentException.class, () -> metrics.getPercentile(op, 101));
+
+        metrics.reset();
+        assertEquals(metrics.getCount(op), 0);
+    }
+
+    @Test
+    @DisplayName("Test JSON and table output")
+    public void testOutput() {
+        repo1.commit("Only commit.");
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\n  \"commit\": {\"count\": 1, "));
+        for (String name : new String[]{"contains", "drop", "getHistory", "synchronize"}) {
+            assertTrue(json.contains("\"" + name + "\": {\"count\": 0, "));
+        }
+        assertTrue(json.contains("\"p99.9Nanos\": "));
+        assertTrue(json.trim().endsWith("}"));
+
+        String[] table = metrics.toString().split("\n");
+        assertEquals(table.length, 1 + RepositoryMetrics.Operation.values().length);
+        assertTrue(table[1].startsWith("commit "));
+    }
+}
@@ -0,0 +1,175 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A thread-safe collection of named repositories. Repositories are kept
+// in a ConcurrentHashMap, so finding one never blocks, and each has its
+// own lock, so operations on different repositories run fully in
+// parallel while operations on the same one take turns. synchronize
+// locks both repositories, always in the order they were registered, so
+// two threads synchronizing the same pair both ways cannot deadlock.
+public class RepositoryRegistry {
+    private final ConcurrentHashMap<String, Entry> repos;
+    private final AtomicLong registered;
+
+    // Constructs an empty registry (B).
+    public RepositoryRegistry() {
+        repos = new ConcurrentHashMap<>();
+        registered = new AtomicLong();
+    }
+
+    // Creates a new, empty repository with the given name (P) (B).
+    // Returns true if it was created, or false if there is already a
+    // repository with that name (R). Throws an IllegalArgumentException
+    // if the name is null or empty (E).
+    public boolean create(String name) {
+        return register(new Repository(name));
+    }
+
+    // Adds the given repository (P) to the registry under its name (B).
+    // Returns true if it was added, or false if there is already a
+    // repository with that name (R).
+    public boolean register(Repository repo) {
+        return repos.putIfAbsent(repo.getName(), new Entry(repo, registered.getAndIncrement())) == null;
+    }
+
+    // Returns whether there is a repository with the given name (P, R).
+    public boolean contains(String name) {
+        return repos.containsKey(name);
+    }
+
+    // Returns the names of every repository, in alphabetical order (R).
+    public List<String> names() {
+        List<String> names = new ArrayList<>(repos.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    // Returns how many repositories there are (R).
+    public int size() {
+        return repos.size();
+    }
+
+    // Takes a repository name and an action (P) and runs the action on that
+    // repository while holding its lock (B). Returns what the action
+    // returns (R). Passes on anything the action throws, and throws an
+    // IllegalArgumentException if there is no repository with that name (E).
+    public <T, X extends Exception> T apply(String name, Action<T, X> action) throws X {
+        Entry entry = find(name);
+        entry.lock.lock();
+        try {
+            return action.apply(entry.repo);
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    // Returns the ID of the head of the named repository (P), or null if
+    // it has no commits (R). Throws an IllegalArgumentException if there
+    // is no repository with that name (E).
+    public String getRepoHead(String name) {
+        return apply(name, Repository::getRepoHead);
+    }
+
+    // Takes a repository name and an int n (P) and returns the most recent
+    // n commits of that repository, as getHistory does (R). Throws an
+    // IllegalArgumentException if there is no repository with that name or
+    // n is negative or 0 (E).
+    public String getHistory(String name, int n) {
+        return apply(name, repo -> repo.getHistory(n));
+    }
+
+    // Takes a repository name and a commit message (P) and commits to that
+    // repository (B). Returns the ID of the new commit (R). Throws an
+    // IllegalArgumentException if there is no repository with that name (E).
+    public String commit(String name, String message) {
+        return apply(name, repo -> repo.commit(message));
+    }
+
+    // Takes a repository name and a commit ID (P) and drops that commit
+    // from that repository (B). Returns true if it was dropped, false if
+    // the repository has no such commit (R). Throws an
+    // IllegalArgumentException if there is no repository with that name (E).
+    public boolean drop(String name, String targetId) {
+        return apply(name, repo -> repo.drop(targetId));
+    }
+
+    // Takes a repository name and a commit ID (P) and brings back that
+    // commit if it was dropped but not yet purged (B). Returns true if it
+    // was brought back (R). Throws an IllegalArgumentException if there is
+    // no repository with that name (E).
+    public boolean undrop(String name, String targetId) {
+        return apply(name, repo -> repo.undrop(targetId));
+    }
+
+    // Takes a time in milliseconds and the most commits to purge from each
+    // repository (P), and purges commits dropped before that time from
+    // every repository, holding one repository's lock at a time (B).
+    // Returns how many commits were purged in all (R).
+    public int purge(long droppedBefore, int limit) {
+        int purged = 0;
+        for (Entry entry : repos.values()) {
+            entry.lock.lock();
+            try {
+                purged += entry.repo.purge(droppedBefore, limit);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+        return purged;
+    }
+
+    // Takes the names of two repositories (P) and moves every commit of the
+    // other one into the target, holding both locks (B). Throws an
+    // IllegalArgumentException if either repository does not exist or the
+    // names are the same (E).
+    public void synchronize(String target, String other) {
+        if (target.equals(other)) {
+            throw new IllegalArgumentException("Cannot synchronize a repository with itself.");
+        }
+        Entry into = find(target);
+        Entry from = find(other);
+        Entry first = into.order < from.order ? into : from;
+        Entry second = first == into ? from : into;
+        first.lock.lock();
+        try {
+            second.lock.lock();
+            try {
+                into.repo.synchronize(from.repo);
+            } finally {
+                second.lock.unlock();
+            }
+        } finally {
+            first.lock.unlock();
+        }
+    }
+
+    // Returns the entry for the given name (P, R). Throws an
+    // IllegalArgumentException if there is none (E).
+    private Entry find(String name) {
+        Entry entry = name == null ? null : repos.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown Repository: " + name);
+        }
+        return entry;
+    }
+
+    // Something to run on a repository while holding its lock.
+    public interface Action<T, X extends Exception> {
+        T apply(Repository repo) throws X;
+    }
+
+    // A registered repository, its lock and its place in locking order.
+    private static class Entry {
+        private final Repository repo;
+        private final ReentrantLock lock;
+        private final long order;
+
+        public Entry(Repository repo, long order) {
+            this.repo = repo;
+            this.lock = new ReentrantLock();
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class RepositoryRegistryTest {
+    private static final int THREADS = 16;
+    private static final int OPS_PER_THREAD = 2000;
+
+    private RepositoryRegistry registry;
+    private ExecutorService pool;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new RepositoryRegistry();
+        pool = Executors.newFixedThreadPool(THREADS);
+        Repository.Commit.resetIds();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Test RepositoryRegistry operations")
+    public void testOperations() {
+        assertTrue(registry.create("repo1"));
+        assertTrue(registry.create("repo2"));
+        assertFalse(registry.create("repo1"));
+        assertEquals(registry.names(), Arrays.asList("repo1", "repo2"));
+
+        assertEquals(registry.commit("repo1", "First."), "0");
+        assertEquals(registry.commit("repo2", "Second."), "1");
+        assertEquals(registry.getRepoHead("repo1"), "0");
+        assertTrue(registry.drop("repo1", "0"));
+        assertFalse(registry.drop("repo1", "0"));
+        assertNull(registry.getRepoHead("repo1"));
+
+        registry.synchronize("repo1", "repo2");
+        assertEquals(registry.getRepoHead("repo1"), "1");
+        assertEquals((int) registry.apply("repo2", Repository::getRepoSize), 0);
+        assertTrue(registry.getHistory("repo1", 5).endsWith(": Second.\n"));
+
+        // Assert that unknown names and synchronizing with itself are rejected
+        assertThrows(IllegalArgumentException.class, () -> registry.commit("missing", "Lost."));
+        assertThrows(IllegalArgumentException.class, () -> registry.synchronize("repo1", "repo1"));
+        assertThrows(IllegalArgumentException.class, () -> registry.synchronize("repo1", "missing"));
+        assertThrows(IllegalArgumentException.class, () -> registry.create(""));
+    }
+
+    @Test
+    @DisplayName("Test RepositoryRegistry from many threads")
+    public void testConcurrentAccess() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            registry.create("repo" + i);
+        }
+
+        // Threads commit to random repositories and synchronize random
+        // pairs both ways, which would deadlock without ordered locking
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                start.await();
+                Random random = new Random(thread);
+                int commits = 0;
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    String name = "repo" + random.nextInt(4);
+                    String other = "repo" + random.nextInt(4);
+                    if (i % 10 == 0 && !name.equals(other)) {
+                        registry.synchronize(name, other);
+                    } else {
+                        registry.commit(name, "Commit " + i);
+                        commits++;
+                    }
+                }
+                return commits;
+            }));
+        }
+        start.countDown();
+        int commits = 0;
+        for (Future<Integer> result : results) {
+            commits += result.get(1, TimeUnit.MINUTES);
+        }
+
+        // Assert that every commit ended up in exactly one repository
+        int total = 0;
+        for (String name : registry.names()) {
+            total += registry.apply(name, Repository::getRepoSize);
+        }
+        assertEquals(total, commits);
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.*;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+// A server that lets many clients work with the same repositories at once
+// over TCP on localhost. Each connection is served on its own virtual
+// thread, or on its own platform thread before Java 21, and every
+// operation goes through a RepositoryRegistry, so clients working on
+// different repositories never wait for each other.
+//
+// The protocol is line based. Each request is one line in the same form
+// as a Client script command:
+//      create <repo>                   head <repo>
+//      history <repo> <n>              commit <repo> <message>
+//      drop <repo> <id>                undrop <repo> <id>
+//      synchronize <repo> <other>      search <repo> <limit> <query>
+//      quit
+// Each response starts with "OK <n>" followed by n lines of results, or is
+// a single line "ERROR <message>". quit closes the connection.
+//
+// Usage: java RepositoryServer [--port n]
+public class RepositoryServer implements Closeable {
+    public static final int DEFAULT_PORT = 9123;
+    // Connections that may wait to be accepted, so bursts of clients
+    // are not refused.
+    private static final int BACKLOG = 16_384;
+
+    private final RepositoryRegistry registry;
+    private final ServerSocket server;
+    private final ExecutorService connections;
+    private final Set<Socket> open;
+    private final Thread acceptor;
+
+    // Constructs a server for the given registry, listening on the given
+    // port of the loopback address, or on any free port if it is 0 (P),
+    // and starts accepting connections (B). Throws an IOException if the
+    // port cannot be bound (E).
+    public RepositoryServer(RepositoryRegistry registry, int port) throws IOException {
+        this.registry = registry;
+        this.server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.connections = newThreadPerTaskExecutor("repository-connection");
+        this.open = ConcurrentHashMap.newKeySet();
+        this.acceptor = new Thread(this::acceptAll, "repository-server");
+        acceptor.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        for (int i = 0; i < args.length - 1; i += 2) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        RepositoryServer server = new RepositoryServer(new RepositoryRegistry(), port);
+        System.err.println("Serving repositories on " + server.server.getLocalSocketAddress()
+                           + (hasVirtualThreads() ? " with virtual threads" : " with platform threads"));
+    }
+
+    // Returns the port this server is listening on (R).
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // Stops accepting connections and closes every open one (B).
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : open) {
+            socket.close();
+        }
+        connections.shutdown();
+        try {
+            acceptor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Accepts connections until the server is closed, handing each one
+    // to its own thread (B).
+    private void acceptAll() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                open.add(socket);
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    System.err.println("Could not accept a connection: " + e.getMessage());
+                }
+            } catch (RejectedExecutionException e) {
+                // The server is closing
+            }
+        }
+    }
+
+    // Takes a connected socket (P) and answers its requests until the
+    // client sends quit or disconnects (B).
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     connection.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                     connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.equalsIgnoreCase("quit")) {
+                    break;
+                }
+                try {
+                    List<String> results = handle(line);
+                    out.write("OK " + results.size() + "\n");
+                    for (String result : results) {
+                        out.write(result);
+                        out.write('\n');
+                    }
+                } catch (IllegalArgumentException e) {
+                    out.write("ERROR " + e.getMessage() + "\n");
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away; nothing to answer
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    // Takes one request line (P) and runs it against the registry (B).
+    // Returns the result lines (R). Throws an IllegalArgumentException if
+    // the request is not valid (E).
+    List<String> handle(String line) {
+        String[] parts = line.split("\\s+", 3);
+        String op = parts[0].toLowerCase(Locale.ROOT);
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Missing repository name");
+        }
+        String name = parts[1];
+        String rest = parts.length > 2 ? parts[2].trim() : "";
+        List<String> results = new ArrayList<>();
+        if (op.equals("create")) {
+            if (!registry.create(name)) {
+                throw new IllegalArgumentException("Repository already exists: " + name);
+            }
+        } else if (op.equals("head")) {
+            results.add(String.valueOf(registry.getRepoHead(name)));
+        } else if (op.equals("history")) {
+            String history = registry.getHistory(name, Integer.parseInt(rest));
+            if (!history.isEmpty()) {
+                Collections.addAll(results, history.split("\n"));
+            }
+        } else if (op.equals("commit")) {
+            results.add(registry.commit(name, rest));
+        } else if (op.equals("drop")) {
+            results.add(String.valueOf(registry.drop(name, rest)));
+        } else if (op.equals("undrop")) {
+            results.add(String.valueOf(registry.undrop(name, rest)));
+        } else if (op.equals("synchronize")) {
+            registry.synchronize(name, rest);
+        } else if (op.equals("search")) {
+            String[] args = rest.split("\\s+", 2);
+            int limit = Integer.parseInt(args[0]);
+            String query = args.length > 1 ? args[1] : "";
+            for (Repository.Commit match : registry.apply(name, repo -> repo.search(query, limit))) {
+                results.add(match.toString());
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown operation: " + parts[0]);
+        }
+        return results;
+    }
+
+    // Returns whether this Java has virtual threads (R).
+    static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // Returns an executor that runs each task on a new virtual thread, or
+    // before Java 21, on a new daemon platform thread with the given
+    // name (P) (R). Looked up reflectively so the code builds on either.
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                // Small stacks, since thousands of these may be waiting on sockets
+                Thread thread = new Thread(null, task, name, 256 << 10);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+public class RepositoryServerTest {
+    private RepositoryServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new RepositoryServer(new RepositoryRegistry(), 0);
+        Repository.Commit.resetIds();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    @DisplayName("Test RepositoryServer requests")
+    public void testHandle() {
+        assertEquals(server.handle("create repo1"), Collections.emptyList());
+        assertEquals(server.handle("create repo2"), Collections.emptyList());
+        assertEquals(server.handle("commit repo1 First commit."), Arrays.asList("0"));
+        assertEquals(server.handle("commit repo2 Second commit."), Arrays.asList("1"));
+        assertEquals(server.handle("head repo1"), Arrays.asList("0"));
+        assertEquals(server.handle("synchronize repo1 repo2"), Collections.emptyList());
+        assertEquals(server.handle("history repo1 5").size(), 2);
+        assertEquals(server.handle("search repo1 5 second").size(), 1);
+        assertEquals(server.handle("drop repo1 0"), Arrays.asList("true"));
+        assertEquals(server.handle("head repo2"), Arrays.asList("null"));
+
+        // Assert that bad requests are rejected
+        assertThrows(IllegalArgumentException.class, () -> server.handle("create repo1"));
+        assertThrows(IllegalArgumentException.class, () -> server.handle("commit missing Lost."));
+        assertThrows(IllegalArgumentException.class, () -> server.handle("history repo1 many"));
+        assertThrows(IllegalArgumentException.class, () -> server.handle("rebase repo1"));
+        assertThrows(IllegalArgumentException.class, () -> server.handle("head"));
+    }
+
+    @Test
+    @DisplayName("Test RepositoryServer over a connection")
+    public void testConnection() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                     socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            out.println("create repo");
+            assertEquals(in.readLine(), "OK 0");
+            out.println("commit repo Hello.");
+            assertEquals(in.readLine(), "OK 1");
+            assertEquals(in.readLine(), "0");
+            out.println("history repo 1");
+            assertEquals(in.readLine(), "OK 1");
+            assertTrue(in.readLine().endsWith(": Hello."));
+            out.println("commit nowhere Lost.");
+            assertEquals(in.readLine(), "ERROR Unknown Repository: nowhere");
+
+            // Assert that quit closes the connection
+            out.println("quit");
+            assertNull(in.readLine());
+        }
+    }
+}
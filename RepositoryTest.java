@@ -1,10 +1,15 @@
 import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 import java.util.*;
+import java.util.function.Predicate;
 
 public class RepositoryTest {
+    // Where the test clock starts; it then moves on a millisecond a commit.
+    private static final long START = 1_700_000_000_000L;
+
     private Repository repo1;
     private Repository repo2;
+    private CommitClock clock;
 
     /**
      * NOTE: The following test suite assumes that getRepoHead(), commit(), and size()
@@ -15,6 +20,9 @@ public class RepositoryTest {
     public void setUp() {
         repo1 = new Repository("repo1");
         repo2 = new Repository("repo2");
+        clock = new HybridClock(() -> START);
+        repo1.setClock(clock);
+        repo2.setClock(clock);
         Repository.Commit.resetIds();
     }
 
@@ -96,7 +104,7 @@ public class RepositoryTest {
 
     @Test
     @DisplayName("Test synchronize() (empty case 1)")
-    public void testSynchronizeThisEmpty() throws InterruptedException {
+    public void testSynchronizeThisEmpty() {
         // Initialize commit messages
         String[] commitMessages = new String[]{"Initial commit.", "Updated method documentation.",
                                                 "Removed unnecessary object creation."};
@@ -104,7 +112,6 @@ public class RepositoryTest {
         for (int i = 0; i < commitMessages.length; i++) {
             String commitMessage = commitMessages[i];
             repo2.commit(commitMessage);
-            Thread.sleep(1);
         }
         repo1.synchronize(repo2);
         // Assert that repo1 has size 3
@@ -119,7 +126,7 @@ public class RepositoryTest {
 
     @Test
     @DisplayName("Test synchronize() (empty case 2)")
-    public void testSynchronizeOtherEmpty() throws InterruptedException {
+    public void testSynchronizeOtherEmpty() {
         // Initialize commit messages
         String[] commitMessages = new String[]{"Initial commit.", "Updated method documentation.",
                                                 "Removed unnecessary object creation."};
@@ -127,7 +134,6 @@ public class RepositoryTest {
         for (int i = 0; i < commitMessages.length; i++) {
             String commitMessage = commitMessages[i];
             repo1.commit(commitMessage);
-            Thread.sleep(1);
         }
         repo1.synchronize(repo2);
         // Assert that repo1 has size 3
@@ -142,7 +148,7 @@ public class RepositoryTest {
 
     @Test
     @DisplayName("Test synchronize() (end case))")
-    public void testSynchronizeThisLarger() throws InterruptedException {
+    public void testSynchronizeThisLarger() {
         // Initialize smaller list of commit messages
         String[] smallerCommitMessages = new String[]{"Other initial commit.", 
                                                 "Other updated method documentation.", 
@@ -157,13 +163,11 @@ public class RepositoryTest {
         for (int i = 0; i < largerCommitMessages.length; i++) {
             String commitMessage = largerCommitMessages[i];
             repo1.commit(commitMessage);
-            Thread.sleep(1);
         }
         // Commit the smaller commit message list to repo2
         for (int i = 0; i < smallerCommitMessages.length; i++) {
             String commitMessage = smallerCommitMessages[i];
             repo2.commit(commitMessage);
-            Thread.sleep(1);
         }
         repo1.synchronize(repo2);
         // Assert that repo1 has size 8
@@ -178,7 +182,7 @@ public class RepositoryTest {
 
     @Test
     @DisplayName("Test synchronize() (end case)")
-    public void testSynchronizeOtherLarger() throws InterruptedException {
+    public void testSynchronizeOtherLarger() {
         // Initialize smaller list of commit messages
         String[] smallerCommitMessages = new String[]{"This initial commit.", 
                                                 "This updated method documentation.",
@@ -193,13 +197,11 @@ public class RepositoryTest {
         for (int i = 0; i < smallerCommitMessages.length; i++) {
             String commitMessage = smallerCommitMessages[i];
             repo1.commit(commitMessage);
-            Thread.sleep(1);
         }
         // Commit the larger commit message list to repo2
         for (int i = 0; i < largerCommitMessages.length; i++) {
             String commitMessage = largerCommitMessages[i];
             repo2.commit(commitMessage);
-            Thread.sleep(1);
         }
         repo1.synchronize(repo2);
         // Assert that repo1 has size 8
@@ -212,9 +214,9 @@ public class RepositoryTest {
         assertTrue(repo1.toString().contains("Other upload README."));
     }
     
-    @TestS
+    @Test
     @DisplayName("Test synchronize() (front case)")
-    public void testSynchronizeThisHeadLargerTimeStamp() throws InterruptedException {
+    public void testSynchronizeThisHeadLargerTimeStamp() {
         // Initialize list of commits to be committed earlier
         String[] earlierCommitMessages = new String[]{"Other initial commit.", 
                                                     "Other updated method documentation.",
@@ -227,13 +229,11 @@ public class RepositoryTest {
         for (int i = 0; i < earlierCommitMessages.length; i++) {
             String commitMessage = earlierCommitMessages[i];
             repo2.commit(commitMessage);
-            Thread.sleep(1);
         }
         // Commit the later commit message list to repo1
         for (int i = 0; i < laterCommitMessages.length; i++) {
             String commitMessage = laterCommitMessages[i];
             repo1.commit(commitMessage);
-            Thread.sleep(1);
         }
         repo1.synchronize(repo2);
         // Assert that repo1 has size 8
@@ -248,7 +248,7 @@ public class RepositoryTest {
     
     @Test
     @DisplayName("Test synchronize() (front case)")
-    public void testSynchronizeOtherHeadLargerTimeStamp() throws InterruptedException {
+    public void testSynchronizeOtherHeadLargerTimeStamp() {
         // Initialize list of commits to be committed earlier
         String[] earlierCommitMessages = new String[]{"This initial commit.", 
                                                     "This updated method documentation.",
@@ -261,13 +261,11 @@ public class RepositoryTest {
         for (int i = 0; i < earlierCommitMessages.length; i++) {
             String commitMessage = earlierCommitMessages[i];
             repo1.commit(commitMessage);
-            Thread.sleep(1);
         }
         // Commit the later commit message list to repo2
         for (int i = 0; i < laterCommitMessages.length; i++) {
             String commitMessage = laterCommitMessages[i];
             repo2.commit(commitMessage);
-            Thread.sleep(1);
         }
         repo1.synchronize(repo2);
         // Assert that repo1 has size 8
@@ -279,4 +277,816 @@ public class RepositoryTest {
         // Assert that repo1 has the correct head
         assertTrue(repo1.toString().contains("Other removed unnecessary object creation."));
     }
+
+    /**
+     * INDEX JUNIT TESTS START HERE
+     */
+
+    @Test
+    @DisplayName("Test contains() and drop() (middle case)")
+    public void testDropMiddle() {
+        // Commit to repo1 - IDs = "0", "1", "2"
+        for (int i = 0; i < 3; i++) {
+            repo1.commit("Commit " + i);
+        }
+
+        // Drop the middle commit and assert the rest of the history survives
+        assertTrue(repo1.drop("1"));
+        assertFalse(repo1.contains("1"));
+        assertFalse(repo1.drop("1"));
+        assertEquals(repo1.getRepoSize(), 2);
+        assertTrue(repo1.getHistory(2).contains("Commit 0"));
+
+        // Drop the new neighbours of the removed commit
+        assertTrue(repo1.drop("0"));
+        assertTrue(repo1.drop("2"));
+        assertEquals(repo1.getRepoHead(), null);
+    }
+
+    @Test
+    @DisplayName("Test contains() and drop() after synchronize()")
+    public void testIndexAfterSynchronize() {
+        // Interleave commits between repo1 (even IDs) and repo2 (odd IDs)
+        for (int i = 0; i < 6; i++) {
+            if (i % 2 == 0) {
+                repo1.commit("Commit " + i);
+            } else {
+                repo2.commit("Commit " + i);
+            }
+        }
+        repo1.synchronize(repo2);
+
+        // Assert that every commit moved over to repo1 and left repo2's index
+        for (int i = 0; i < 6; i++) {
+            assertTrue(repo1.contains("" + i));
+            assertFalse(repo2.contains("" + i));
+            assertFalse(repo2.drop("" + i));
+        }
+
+        // Drop a commit that came from repo2 and one that was already in repo1
+        assertTrue(repo1.drop("3"));
+        assertTrue(repo1.drop("2"));
+        assertEquals(repo1.getRepoSize(), 4);
+
+        // Assert that the history still links the remaining commits in order
+        String[] history = repo1.getHistory(4).split("\n");
+        assertTrue(history[0].startsWith("5 "));
+        assertTrue(history[1].startsWith("4 "));
+        assertTrue(history[2].startsWith("1 "));
+        assertTrue(history[3].startsWith("0 "));
+
+        // Assert that repo2 still works on its own after being drained
+        String id = repo2.commit("After synchronize");
+        assertTrue(repo2.contains(id));
+        assertTrue(repo2.drop(id));
+        assertEquals(repo2.getRepoSize(), 0);
+    }
+
+    @Test
+    @DisplayName("Test getRepoSize() through commit(), drop() and synchronize()")
+    public void testRepoSizeCounter() {
+        // Commit to both repositories - repo1 gets 4 commits, repo2 gets 3
+        for (int i = 0; i < 7; i++) {
+            if (i < 4) {
+                repo1.commit("Commit " + i);
+            } else {
+                repo2.commit("Commit " + i);
+            }
+        }
+        assertEquals(repo1.getRepoSize(), 4);
+        assertEquals(repo2.getRepoSize(), 3);
+
+        // Failed drops should not change the count
+        assertFalse(repo1.drop("5"));
+        assertTrue(repo1.drop("2"));
+        assertEquals(repo1.getRepoSize(), 3);
+
+        // Assert that the count moves over with the commits
+        repo1.synchronize(repo2);
+        assertEquals(repo1.getRepoSize(), 6);
+        assertEquals(repo2.getRepoSize(), 0);
+
+        // Synchronizing an empty repository should not change the count
+        repo1.synchronize(repo2);
+        assertEquals(repo1.getRepoSize(), 6);
+        repo2.commit("Commit 7");
+        assertEquals(repo2.getRepoSize(), 1);
+    }
+
+    @Test
+    @DisplayName("Test writeHistory() matches getHistory()")
+    public void testWriteHistory() throws java.io.IOException {
+        for (int i = 0; i < 5; i++) {
+            repo1.commit("Commit " + i);
+        }
+
+        // Assert that streaming to an Appendable gives the same output
+        for (int n = 1; n <= 6; n++) {
+            StringBuilder out = new StringBuilder();
+            repo1.writeHistory(n, out);
+            assertEquals(out.toString(), repo1.getHistory(n));
+        }
+
+        // Assert that each line uses the commit's own string representation
+        String[] history = repo1.getHistory(2).split("\n");
+        assertEquals(history.length, 2);
+        assertTrue(history[0].startsWith("4 at "));
+        assertTrue(history[0].endsWith(": Commit 4"));
+
+        // Assert that bad n values and empty repositories still behave
+        assertThrows(IllegalArgumentException.class, () -> repo1.writeHistory(0, new StringBuilder()));
+        assertEquals(repo2.getHistory(3), "");
+    }
+
+    @Test
+    @DisplayName("Test synchronizeAll() matches repeated synchronize()")
+    public void testSynchronizeAll() {
+        for (boolean parallel : new boolean[]{false, true}) {
+            Repository.Commit.resetIds();
+            List<Repository> others = new ArrayList<>();
+            Repository target = new Repository("target");
+            target.setClock(clock);
+            for (int i = 0; i < 4; i++) {
+                others.add(new Repository("other" + i));
+                others.get(i).setClock(clock);
+            }
+
+            // Spread 20 commits across the target and the other repositories
+            // so that every history interleaves with the others.
+            for (int i = 0; i < 20; i++) {
+                if (i % 5 == 0) {
+                    target.commit("Commit " + i);
+                } else {
+                    others.get(i % 5 - 1).commit("Commit " + i);
+                }
+            }
+            target.synchronizeAll(others, parallel);
+
+            // Assert that every commit moved over and the others are empty
+            assertEquals(target.getRepoSize(), 20);
+            for (Repository other : others) {
+                assertEquals(other.getRepoSize(), 0);
+                assertEquals(other.getRepoHead(), null);
+            }
+
+            // Assert that the merged history is in chronological order
+            String[] history = target.getHistory(20).split("\n");
+            for (int i = 0; i < 20; i++) {
+                assertTrue(history[i].startsWith((19 - i) + " at "));
+                assertTrue(target.contains("" + i));
+            }
+
+            // Assert that the index still supports dropping moved commits
+            assertTrue(target.drop("7"));
+            assertEquals(target.getRepoSize(), 19);
+        }
+    }
+
+    @Test
+    @DisplayName("Test synchronizeAll() (empty cases)")
+    public void testSynchronizeAllEmpty() {
+        repo1.commit("Only commit.");
+
+        // Assert that empty repositories, repeats and this repository are ignored
+        repo1.synchronizeAll(Arrays.asList(repo2, repo1, repo2));
+        assertEquals(repo1.getRepoSize(), 1);
+        assertEquals(repo1.getRepoHead(), "0");
+
+        // Assert that an empty repository takes everything from the others
+        repo2.synchronizeAll(Collections.singletonList(repo1));
+        assertEquals(repo2.getRepoSize(), 1);
+        assertEquals(repo1.getRepoSize(), 0);
+    }
+
+    @Test
+    @DisplayName("Test getHistoryBetween() and commitsBetween()")
+    public void testHistoryBetween() {
+        for (int i = 0; i < 200; i++) {
+            repo1.restore("c" + i, 1000 + 10 * i, "Commit " + i);
+        }
+
+        // Assert that both ends of the range are included, newest first
+        assertEquals(ids(repo1, 1100, 1150), Arrays.asList("c15", "c14", "c13", "c12", "c11", "c10"));
+        assertEquals(ids(repo1, 1101, 1109), Collections.emptyList());
+        assertEquals(ids(repo1, 0, 1000), Collections.singletonList("c0"));
+        String[] lines = repo1.getHistoryBetween(1100, 1150).split("\n");
+        assertEquals(lines.length, 6);
+        assertEquals(lines[0], repo1.commitsBetween(1150, 1150).findFirst().get().toString());
+        assertEquals(repo1.getHistoryBetween(0, 999), "");
+        assertThrows(IllegalArgumentException.class, () -> repo1.getHistoryBetween(2, 1));
+
+        // Assert that dropped commits leave the range, including after
+        // enough drops to clear them out of the index
+        for (int i = 0; i < 200; i++) {
+            if (i % 4 != 0) {
+                assertTrue(repo1.drop("c" + i));
+            }
+        }
+        assertEquals(ids(repo1, 1100, 1200), Arrays.asList("c20", "c16", "c12"));
+        assertEquals(repo1.commitsBetween(Long.MIN_VALUE, Long.MAX_VALUE).count(), 50);
+
+        // Assert that a commit older than the head is still found in order
+        repo1.restore("late", 1105, "Late commit");
+        assertEquals(ids(repo1, 1100, 1200), Arrays.asList("c20", "c16", "c12", "late"));
+    }
+
+    @Test
+    @DisplayName("Test commitsBetween() after synchronize()")
+    public void testHistoryBetweenSynchronize() {
+        for (int i = 0; i < 10; i++) {
+            (i % 2 == 0 ? repo1 : repo2).restore("c" + i, 1000 + i, "Commit " + i);
+        }
+        repo1.synchronize(repo2);
+
+        // Assert that the merged range holds both histories in order
+        assertEquals(ids(repo1, 1002, 1006), Arrays.asList("c6", "c5", "c4", "c3", "c2"));
+        assertEquals(ids(repo2, Long.MIN_VALUE, Long.MAX_VALUE), Collections.emptyList());
+
+        // Assert that commits from later synchronizes are found too
+        repo2.restore("c10", 1010, "Commit 10");
+        repo1.synchronizeAll(Collections.singletonList(repo2));
+        assertEquals(ids(repo1, 1009, 1010), Arrays.asList("c10", "c9"));
+    }
+
+    @Test
+    @DisplayName("Test commitsBetween() with a clock that steps back")
+    public void testHistoryBetweenOutOfOrder() {
+        Random random = new Random(42);
+        long[] now = {START};
+        CommitClock unsteady = () -> now[0] += random.nextInt(8) == 0 ? -1 - random.nextInt(4) : random.nextInt(3);
+        Repository[] repos = {repo1, repo2, new Repository("repo3")};
+        for (Repository repo : repos) {
+            repo.setClock(unsteady);
+        }
+        for (int step = 0; step < 2000; step++) {
+            Repository repo = repos[random.nextInt(repos.length)];
+            Repository other = repos[random.nextInt(repos.length)];
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+                repo.commit("Commit " + step);
+            } else if (kind < 6) {
+                repo.drop("" + random.nextInt(step + 1));
+            } else if (kind < 8) {
+                repo.pull(other);
+            } else {
+                repo.synchronize(other);
+            }
+
+            // Assert that each commit in a range is found exactly once
+            long from = START - 10 + random.nextInt((int) (now[0] - START) + 20);
+            long to = from + random.nextInt(40);
+            for (Repository checked : repos) {
+                List<String> expected = new ArrayList<>();
+                for (Repository.Commit curr = checked.getFront(); curr != null; curr = curr.past) {
+                    if (curr.timeStamp >= from && curr.timeStamp <= to) {
+                        expected.add(curr.id);
+                    }
+                }
+                List<String> actual = ids(checked, from, to);
+                Collections.sort(expected);
+                Collections.sort(actual);
+                assertEquals(actual, expected);
+                assertEquals(checked.commitsBetween(Long.MIN_VALUE, Long.MAX_VALUE).count(),
+                             (long) checked.getRepoSize());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test commitAll()")
+    public void testCommitAll() {
+        repo1.commit("Before batch.");
+        List<String> ids = repo1.commitAll(Arrays.asList("First.", "Second.", "Third."));
+
+        // Assert that the batch lands on the front, oldest message first
+        assertEquals(ids, Arrays.asList("1", "2", "3"));
+        assertEquals(repo1.getRepoSize(), 4);
+        assertEquals(repo1.getRepoHead(), "3");
+        String[] history = repo1.getHistory(4).split("\n");
+        assertTrue(history[0].endsWith(": Third."));
+        assertTrue(history[2].endsWith(": First."));
+        assertTrue(history[3].endsWith(": Before batch."));
+
+        // Assert that the batch is indexed like single commits
+        assertTrue(repo1.drop("2"));
+        assertTrue(repo1.drop("0"));
+        assertEquals(repo1.getHistory(3).split("\n").length, 2);
+        assertEquals(repo1.commitAll(Collections.emptyList()), Collections.emptyList());
+        assertEquals(repo2.commitAll(Collections.singletonList("Only.")), Collections.singletonList("4"));
+        assertEquals(repo2.getRepoHead(), "4");
+    }
+
+    @Test
+    @DisplayName("Test dropAll()")
+    public void testDropAll() {
+        for (int i = 0; i < 10; i++) {
+            repo1.commit("Commit " + i);
+        }
+
+        // Assert that each ID gets its own result, repeats included
+        List<Boolean> dropped = repo1.dropAll(Arrays.asList("9", "3", "missing", "0", "3"));
+        assertEquals(dropped, Arrays.asList(true, true, false, true, false));
+        assertEquals(repo1.getRepoSize(), 7);
+        assertEquals(repo1.getRepoHead(), "8");
+        assertFalse(repo1.contains("3"));
+        String[] history = repo1.getHistory(10).split("\n");
+        assertEquals(history.length, 7);
+        assertTrue(history[6].startsWith("1 at "));
+        assertEquals(repo2.dropAll(Collections.singleton("1")), Collections.singletonList(false));
+    }
+
+    @Test
+    @DisplayName("Test search()")
+    public void testSearch() {
+        repo1.commit("Fix parser crash on empty input");
+        repo1.commit("Add parser tests");
+        repo1.commit("Fix FIX typo in README");
+        repo1.commit("Refactor the parsing code");
+        repo1.commit("fix: parser handles tabs");
+
+        // Assert that every word must match, newest first, ignoring case
+        assertEquals(searchIds(repo1, "fix parser", 10), Arrays.asList("4", "0"));
+        assertEquals(searchIds(repo1, "FIX", 10), Arrays.asList("4", "2", "0"));
+        assertEquals(searchIds(repo1, "fix", 2), Arrays.asList("4", "2"));
+        assertEquals(searchIds(repo1, "pars*", 10), Arrays.asList("4", "3", "1", "0"));
+        assertEquals(searchIds(repo1, "pars* test*", 10), Collections.singletonList("1"));
+        assertEquals(searchIds(repo1, "pars", 10), Collections.emptyList());
+        assertEquals(searchIds(repo1, "missing fix", 10), Collections.emptyList());
+
+        // Assert that the index follows drops
+        assertTrue(repo1.drop("4"));
+        assertEquals(searchIds(repo1, "fix parser", 10), Collections.singletonList("0"));
+        assertThrows(IllegalArgumentException.class, () -> repo1.search("  *  ", 10));
+        assertThrows(IllegalArgumentException.class, () -> repo1.search("fix", 0));
+
+        // Assert that ConcurrentRepository finds the same commits without an index
+        ConcurrentRepository concurrent = new ConcurrentRepository("concurrent");
+        concurrent.synchronize(repo1);
+        assertEquals(searchIds(concurrent, "pars*", 10), Arrays.asList("3", "1", "0"));
+    }
+
+    @Test
+    @DisplayName("Test search() with a prefix after a drop")
+    public void testSearchPrefixDropped() {
+        repo1.commit("fix parser");
+        repo1.commit("fixes tests");
+        assertTrue(repo1.drop("0"));
+
+        // Assert that a prefix read across several words skips the dropped
+        // commit instead of running out of results
+        assertEquals(searchIds(repo1, "fix*", 10), Collections.singletonList("1"));
+        assertTrue(repo1.drop("1"));
+        assertEquals(searchIds(repo1, "fix*", 10), Collections.emptyList());
+    }
+
+    @Test
+    @DisplayName("Test search() on a burst of commits in one millisecond")
+    public void testSearchSameMillisecond() {
+        repo1.setClock(() -> START);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            messages.add(i % 3 == 0 ? "fix " + i : i % 3 == 1 ? "fixes " + i : "other " + i);
+        }
+        List<String> ids = repo1.commitAll(messages);
+        repo2.setClock(() -> START);
+        repo2.commit("fix from repo2");
+        repo1.synchronize(repo2);
+        repo1.drop(ids.get(297));
+
+        // Assert that prefix matches spread over several lists come back
+        // newest first in history order, each once, up to the limit
+        List<String> expected = new ArrayList<>();
+        for (Repository.Commit curr = repo1.getFront(); curr != null; curr = curr.past) {
+            if (!curr.message.startsWith("other")) {
+                expected.add(curr.id);
+            }
+        }
+        assertEquals(expected.size(), 200);
+        assertEquals(searchIds(repo1, "fix*", 1), expected.subList(0, 1));
+        assertEquals(searchIds(repo1, "fix*", 7), expected.subList(0, 7));
+        assertEquals(searchIds(repo1, "fix*", 500), expected);
+    }
+
+    @Test
+    @DisplayName("Test search() with a clock that steps back")
+    public void testSearchOutOfOrder() {
+        long[] times = {START + 100, START + 200, START + 50, START + 150};
+        int[] next = {0};
+        repo1.setClock(() -> times[next[0]++]);
+        repo1.commit("fix a");
+        repo1.commit("fast b");
+        repo1.commit("fix fast");
+        repo1.commit("fig");
+
+        // Assert that a prefix read across several words finds each commit
+        // once, in history order rather than by timestamp
+        assertEquals(searchIds(repo1, "f*", 10), Arrays.asList("3", "2", "1", "0"));
+        assertEquals(searchIds(repo1, "f*", 2), Arrays.asList("3", "2"));
+
+        Random random = new Random(7);
+        long[] now = {START};
+        CommitClock unsteady = () -> now[0] += random.nextInt(8) == 0 ? -1 - random.nextInt(4) : random.nextInt(3);
+        String[] words = {"fix", "fixes", "fast", "bug", "test"};
+        Repository[] repos = {repo2, new Repository("repo3"), new Repository("repo4")};
+        for (Repository repo : repos) {
+            repo.setClock(unsteady);
+        }
+        for (int step = 0; step < 1000; step++) {
+            Repository repo = repos[random.nextInt(repos.length)];
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                repo.commit(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)]);
+            } else if (kind < 7) {
+                repo.drop("" + random.nextInt(step + 1));
+            } else if (kind < 9) {
+                repo.pull(repos[random.nextInt(repos.length)]);
+            } else {
+                repo.synchronize(repos[random.nextInt(repos.length)]);
+            }
+
+            // Assert that every search matches a walk of the history
+            for (String query : new String[]{"f*", "fix* b*", "fix"}) {
+                int limit = 1 + random.nextInt(10);
+                for (Repository checked : repos) {
+                    List<String> expected = new ArrayList<>();
+                    Predicate<Repository.Commit> matches = MessageIndex.matcher(query);
+                    for (Repository.Commit curr = checked.getFront();
+                            curr != null && expected.size() < limit; curr = curr.past) {
+                        if (matches.test(curr)) {
+                            expected.add(curr.id);
+                        }
+                    }
+                    assertEquals(searchIds(checked, query, limit), expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Test search() after synchronize() and many drops")
+    public void testSearchSynchronize() {
+        for (int i = 0; i < 200; i++) {
+            (i % 2 == 0 ? repo1 : repo2).restore("c" + i, 1000 + i / 4,
+                                                 "Commit " + i + (i % 5 == 0 ? " release" : ""));
+        }
+        repo1.synchronize(repo2);
+
+        // Assert that merged matches come out in the same order as the history
+        List<String> expected = new ArrayList<>();
+        for (String line : repo1.getHistory(200).split("\n")) {
+            if (line.endsWith(" release")) {
+                expected.add(line.substring(0, line.indexOf(' ')));
+            }
+        }
+        assertEquals(expected.size(), 40);
+        assertEquals(searchIds(repo1, "release", 100), expected);
+
+        // Assert that enough drops to clear the index leave the right matches
+        for (int i = 0; i < 200; i++) {
+            if (i % 10 != 0) {
+                repo1.drop("c" + i);
+            }
+        }
+        expected.removeIf(id -> Integer.parseInt(id.substring(1)) % 10 != 0);
+        assertEquals(searchIds(repo1, "release", 100), expected);
+        assertEquals(searchIds(repo1, "commit", 100).size(), 20);
+        assertEquals(searchIds(repo2, "commit", 100), Collections.emptyList());
+    }
+
+    @Test
+    @DisplayName("Test getHistory() and toString() stay right as history changes")
+    public void testCachedHistory() {
+        for (int i = 0; i < 20; i++) {
+            (i % 2 == 0 ? repo1 : repo2).restore("c" + i, 1000 + i, "Commit " + i);
+        }
+        repo1.getHistory(5);
+        String history = repo1.getHistory(5);
+        String summary = repo1.toString();
+
+        // Assert that asking again gives the very same strings
+        assertSame(repo1.getHistory(5), history);
+        assertSame(repo1.toString(), summary);
+        assertEquals(repo1.getHistory(5), render(repo1, 5));
+
+        // Assert that every change to the history is seen
+        repo1.restore("c20", 1020, "Commit 20");
+        assertEquals(repo1.getHistory(5), render(repo1, 5));
+        assertTrue(repo1.toString().endsWith(": Commit 20"));
+        repo1.drop("c16");
+        assertEquals(repo1.getHistory(5), render(repo1, 5));
+        assertEquals(repo1.getHistory(50), render(repo1, 50));
+        repo1.synchronize(repo2);
+        assertEquals(repo1.getHistory(5), render(repo1, 5));
+        assertEquals(repo1.getHistory(50), render(repo1, 50));
+        assertEquals(repo2.getHistory(5), "");
+        assertEquals(repo2.toString(), "repo2 - No commits");
+        repo1.commitAll(Arrays.asList("Batch 1", "Batch 2"));
+        assertEquals(repo1.getHistory(3), render(repo1, 3));
+        assertTrue(repo1.toString().endsWith(": Batch 2"));
+    }
+
+    @Test
+    @DisplayName("Test synchronize() splicing runs matches a step-by-step merge")
+    public void testSynchronizeRuns() {
+        Random random = new Random(123);
+        for (int trial = 0; trial < 200; trial++) {
+            Repository left = new Repository("left");
+            Repository right = new Repository("right");
+            List<String[]> leftModel = new ArrayList<>();
+            List<String[]> rightModel = new ArrayList<>();
+
+            // Build two ordered histories with runs, equal timestamps and drops
+            long leftTime = random.nextInt(50);
+            long rightTime = random.nextInt(50);
+            int count = 1 + random.nextInt(300);
+            for (int i = 0; i < count; i++) {
+                boolean toLeft = random.nextInt(8) < (trial % 2 == 0 ? 4 : 7);
+                long time = toLeft ? (leftTime += random.nextInt(3)) : (rightTime += random.nextInt(3));
+                String id = "t" + trial + "-" + i;
+                (toLeft ? left : right).restore(id, time, "Commit " + i);
+                (toLeft ? leftModel : rightModel).add(0, new String[]{id, "" + time});
+            }
+            for (int i = 0; i < count / 10; i++) {
+                List<String[]> model = random.nextBoolean() ? leftModel : rightModel;
+                if (!model.isEmpty()) {
+                    String id = model.remove(random.nextInt(model.size()))[0];
+                    assertTrue((model == leftModel ? left : right).drop(id));
+                }
+            }
+            left.synchronize(right);
+
+            // Merge the models newest first, taking left's commits first on ties
+            List<String> expected = new ArrayList<>();
+            int a = 0;
+            int b = 0;
+            while (a < leftModel.size() || b < rightModel.size()) {
+                if (b == rightModel.size() || a < leftModel.size()
+                        && Long.parseLong(leftModel.get(a)[1]) >= Long.parseLong(rightModel.get(b)[1])) {
+                    expected.add(leftModel.get(a++)[0]);
+                } else {
+                    expected.add(rightModel.get(b++)[0]);
+                }
+            }
+            List<String> actual = new ArrayList<>();
+            for (Repository.Commit curr = left.getFront(); curr != null; curr = curr.past) {
+                actual.add(curr.id);
+            }
+            assertEquals(actual, expected);
+            assertEquals(left.getRepoSize(), expected.size());
+            assertEquals(right.getRepoSize(), 0);
+            assertEquals(ids(left, 0, Long.MAX_VALUE), expected);
+
+            // Assert that the links back from each commit were kept up to date
+            for (int i = 0; i < expected.size() / 3; i++) {
+                String id = expected.remove(random.nextInt(expected.size()));
+                assertTrue(left.drop(id));
+                assertFalse(left.contains(id));
+            }
+            actual.clear();
+            for (Repository.Commit curr = left.getFront(); curr != null; curr = curr.past) {
+                actual.add(curr.id);
+            }
+            assertEquals(actual, expected);
+            assertEquals(ids(left, 0, Long.MAX_VALUE), expected);
+        }
+    }
+
+    @Test
+    @DisplayName("Test drop(), undrop() and purge() with soft drops")
+    public void testSoftDrops() {
+        repo1.setSoftDrops(true);
+        for (int i = 0; i < 10; i++) {
+            (i % 2 == 0 ? repo1 : repo2).restore("c" + i, 1000 + i, "Commit " + i);
+        }
+        String before = repo1.getHistory(10);
+
+        // Assert that a dropped commit is hidden everywhere but kept in place
+        assertTrue(repo1.drop("c8"));
+        assertTrue(repo1.drop("c4"));
+        assertFalse(repo1.drop("c4"));
+        assertFalse(repo1.contains("c8"));
+        assertEquals(repo1.getRepoHead(), "c6");
+        assertEquals(repo1.getRepoSize(), 3);
+        assertEquals(repo1.getTombstoneCount(), 2);
+        assertEquals(repo1.getHistory(10).split("\n").length, 3);
+        assertEquals(ids(repo1, 0, 2000), Arrays.asList("c6", "c2", "c0"));
+        assertEquals(searchIds(repo1, "commit", 10), Arrays.asList("c6", "c2", "c0"));
+
+        // Assert that undrop brings a commit back where it was
+        assertTrue(repo1.undrop("c8"));
+        assertFalse(repo1.undrop("c8"));
+        assertFalse(repo1.undrop("c1"));
+        assertEquals(repo1.getRepoHead(), "c8");
+
+        // Assert that tombstones move with synchronize and can still be undone
+        repo2.setSoftDrops(true);
+        assertTrue(repo2.drop("c5"));
+        repo1.synchronize(repo2);
+        assertEquals(repo1.getRepoSize(), 8);
+        assertEquals(repo1.getTombstoneCount(), 2);
+        assertTrue(repo1.undrop("c5"));
+        assertTrue(repo1.undrop("c4"));
+        assertEquals(repo1.getTombstoneCount(), 0);
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+
+        // Assert that purge removes only drops older than the cutoff, in batches
+        for (String id : Arrays.asList("c0", "c3", "c7", "c9")) {
+            assertTrue(repo1.drop(id));
+        }
+        assertEquals(repo1.purge(0, 10), 0);
+        assertEquals(repo1.purge(Long.MAX_VALUE, 3), 3);
+        assertEquals(repo1.getTombstoneCount(), 1);
+        assertFalse(repo1.undrop("c0"));
+        assertTrue(repo1.undrop("c9"));
+        assertEquals(repo1.getRepoHead(), "c9");
+        assertEquals(repo1.getRepoSize(), 7);
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+
+        // Assert that turning soft drops off makes waiting drops final
+        assertTrue(repo1.drop("c9"));
+        repo1.setSoftDrops(false);
+        assertFalse(repo1.undrop("c9"));
+        assertEquals(repo1.getRepoHead(), "c8");
+        assertEquals(repo1.getRepoSize(), 6);
+        assertFalse(before.equals(repo1.getHistory(10)));
+    }
+
+    @Test
+    @DisplayName("Test purge() after synchronize() brings in older tombstones")
+    public void testAdoptTombstonesInOrder() {
+        long[] now = {START};
+        CommitClock dropClock = () -> now[0]++;
+        repo1.setSoftDrops(true);
+        repo2.setSoftDrops(true);
+        repo1.setDropClock(dropClock);
+        repo2.setDropClock(dropClock);
+        String older = repo2.commit("Dropped first");
+        String newer = repo1.commit("Dropped second");
+        assertTrue(repo2.drop(older));
+        assertTrue(repo1.drop(newer));
+        repo1.synchronize(repo2);
+
+        // Assert that the tombstone dropped first is purged first
+        assertEquals(repo1.getTombstoneCount(), 2);
+        assertEquals(repo1.purge(START + 1, 10), 1);
+        assertFalse(repo1.undrop(older));
+        assertTrue(repo1.undrop(newer));
+    }
+
+    @Test
+    @DisplayName("Test synchronize() and synchronizeAll() with the same repository")
+    public void testSynchronizeSelf() {
+        repo1.setSoftDrops(true);
+        List<String> made = repo1.commitAll(Arrays.asList("First", "Second", "Third"));
+        assertTrue(repo1.drop(made.get(1)));
+        String before = repo1.getHistory(10);
+
+        // Assert that a repository synchronized with itself keeps its drops
+        repo1.synchronize(repo1);
+        assertFalse(repo1.contains(made.get(1)));
+        assertEquals(repo1.getRepoSize(), 2);
+        assertEquals(repo1.getTombstoneCount(), 1);
+        assertEquals(repo1.getHistory(10), before);
+        repo1.synchronizeAll(Arrays.asList(repo1, repo1));
+        assertEquals(repo1.getHistory(10), before);
+        assertTrue(repo1.undrop(made.get(1)));
+        assertEquals(repo1.getRepoSize(), 3);
+
+        // Assert that the same holds for ConcurrentRepository
+        ConcurrentRepository concurrent = new ConcurrentRepository("concurrent");
+        concurrent.commit("Only");
+        concurrent.synchronize(concurrent);
+        assertEquals(concurrent.getRepoSize(), 1);
+    }
+
+    @Test
+    @DisplayName("Test content IDs and synchronize skipping commits already held")
+    public void testContentIds() {
+        repo1.setContentIds(true);
+        List<String> made = repo1.commitAll(Arrays.asList("First", "Second", "Second"));
+
+        // Assert that each ID is the hash of its parent's ID, timestamp and message
+        Repository.Commit front = repo1.getFront();
+        Repository.Commit first = front.past.past;
+        assertEquals(front.id.length(), 40);
+        assertEquals(front.id, Repository.contentId(front.past.id, front.timeStamp, "Second"));
+        assertEquals(first.id, Repository.contentId("", first.timeStamp, "First"));
+        assertEquals(new HashSet<>(made).size(), 3);
+        assertEquals(made.get(2), repo1.getRepoHead());
+
+        // Assert that synchronizing a copy adds only the commits not held yet
+        String before = repo1.getHistory(10);
+        repo2 = copyOf(repo1, "repo2");
+        repo2.setClock(clock);
+        repo2.setContentIds(true);
+        String third = repo2.commit("Third");
+        repo1.synchronize(repo2);
+        assertEquals(repo1.getRepoSize(), 4);
+        assertEquals(repo1.getRepoHead(), third);
+        assertTrue(repo1.getHistory(10).endsWith(before));
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+        assertEquals(repo2.getRepoSize(), 0);
+
+        // Assert that copies shared by several repositories are moved in once
+        Repository copy1 = copyOf(repo1, "copy1");
+        Repository copy2 = copyOf(repo1, "copy2");
+        copy2.drop(third);
+        repo1.drop(made.get(0));
+        repo1.synchronizeAll(Arrays.asList(copy1, copy2));
+        assertEquals(repo1.getRepoSize(), 4);
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+        assertEquals(ids(repo1, 0, Long.MAX_VALUE).size(), 4);
+        assertTrue(repo1.drop(third));
+        assertFalse(repo1.contains(third));
+
+        // Assert that a dropped commit held by the other side is not lost
+        repo2 = copyOf(repo1, "repo2");
+        repo1.setSoftDrops(true);
+        repo1.drop(made.get(1));
+        repo1.synchronize(repo2);
+        assertFalse(repo1.contains(made.get(1)));
+        assertTrue(repo1.undrop(made.get(1)));
+        assertEquals(repo1.getRepoSize(), 3);
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+    }
+
+    @Test
+    @DisplayName("Test synchronize skipping commits a ConcurrentRepository already holds")
+    public void testSkipDuplicatesConcurrent() {
+        List<String> made = repo1.commitAll(Arrays.asList("First", "Second"));
+        ConcurrentRepository concurrent = new ConcurrentRepository("concurrent");
+        concurrent.setClock(clock);
+        concurrent.synchronize(copyOf(repo1, "copy"));
+        String third = concurrent.commit("Third");
+
+        // Assert that only the commit not held yet is moved in
+        repo1.synchronize(concurrent);
+        assertEquals(repo1.getRepoSize(), 3);
+        assertEquals(repo1.getRepoHead(), third);
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+        assertEquals(concurrent.getRepoSize(), 0);
+
+        // Assert that a dropped commit leaves no copy behind
+        assertTrue(repo1.drop(made.get(0)));
+        assertFalse(repo1.getHistory(10).contains(made.get(0) + " at "));
+        assertEquals(repo1.getRepoSize(), 2);
+
+        // Assert that synchronizeAll skips the copies as well
+        ConcurrentRepository other = new ConcurrentRepository("other");
+        other.synchronize(copyOf(repo1, "copy"));
+        repo2.commit("Fourth");
+        repo1.synchronizeAll(Arrays.asList(other, repo2));
+        assertEquals(repo1.getRepoSize(), 3);
+        assertEquals(repo1.getHistory(10), render(repo1, 10));
+        assertTrue(repo1.drop(made.get(1)));
+        assertTrue(repo1.drop(third));
+        assertEquals(repo1.getRepoSize(), 1);
+        assertEquals(repo1.getHistory(10).split("\n").length, 1);
+    }
+
+    // Returns the most recent n commits of the given repository (P), rendered
+    // one at a time in the format of getHistory (R).
+    private static String render(Repository repo, int n) {
+        StringBuilder result = new StringBuilder();
+        for (Repository.Commit curr = repo.getFront(); curr != null && n > 0; curr = curr.past) {
+            if (!repo.isTombstoned(curr)) {
+                result.append(curr).append('\n');
+                n--;
+            }
+        }
+        return result.toString();
+    }
+
+    // Returns a new repository with the given name holding a copy of every
+    // commit of the given repository, with the same IDs (P, R).
+    private static Repository copyOf(Repository repo, String name) {
+        List<Repository.Commit> history = new ArrayList<>();
+        for (Repository.Commit curr = repo.getFront(); curr != null; curr = curr.past) {
+            history.add(curr);
+        }
+        Repository copy = new Repository(name);
+        for (int i = history.size() - 1; i >= 0; i--) {
+            Repository.Commit commit = history.get(i);
+            copy.restore(commit.id, commit.timeStamp, commit.message);
+        }
+        return copy;
+    }
+
+    // Returns the IDs of the commits the given repository finds for the
+    // given query and limit (P), in the order they are found (R).
+    private static List<String> searchIds(Repository repo, String query, int limit) {
+        List<String> result = new ArrayList<>();
+        for (Repository.Commit commit : repo.search(query, limit)) {
+            result.add(commit.id);
+        }
+        return result;
+    }
+
+    // Returns the IDs of the commits in the given repository made between
+    // the given times (P), newest first (R).
+    private static List<String> ids(Repository repo, long fromMillis, long toMillis) {
+        List<String> result = new ArrayList<>();
+        repo.commitsBetween(fromMillis, toMillis).forEach(commit -> result.add(commit.id));
+        return result;
+    }
 }
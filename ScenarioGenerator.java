@@ -0,0 +1,453 @@
+import java.util.*;
+
+// Randomized checks of Repository against a reference model. Each case
+// makes a few repositories and runs a random sequence of commit,
+// commitAll, drop, dropAll, undrop, purge, synchronize and synchronizeAll
+// on them, doing the same to a model that keeps each history as a plain
+// list, newest first, and merges two lists the simplest way there is.
+// After every step the repositories it touched are compared with the
+// model: the whole history with timestamps and messages, which commits
+// are dropped, the size, the head, getHistory, contains, the timestamp
+// index and the fingerprint.
+//
+// Timestamps come from a clock scripted by the case, so every run of a
+// case is the same and no case ever waits. Soft drops are timed by the
+// number of the step they happen in. Some cases hand out the same
+// timestamp many times and step backwards now and then, to reach ties and
+// histories out of timestamp order; the rest go through a HybridClock,
+// which must keep every history in strict timestamp order.
+//
+// Usage: java ScenarioGenerator [--cases n] [--steps n] [--seed n]
+//                               [--case n]
+// Runs that many cases of up to that many steps each and prints how fast
+// they ran. A failing case is reported with its own seed, which --case
+// runs again on its own.
+public class ScenarioGenerator {
+    // Chance out of 100 that a case uses a HybridClock.
+    private static final int HYBRID_PERCENT = 30;
+
+    private final int maxSteps;
+
+    // Constructs a generator of cases of up to the given number of steps
+    // (P) (B). Throws an IllegalArgumentException if it is not positive
+    // (E).
+    public ScenarioGenerator(int maxSteps) {
+        if (maxSteps <= 0) {
+            throw new IllegalArgumentException("Invalid Number: Must be a positive number.");
+        }
+        this.maxSteps = maxSteps;
+    }
+
+    public static void main(String[] args) {
+        int cases = 1_000_000;
+        int steps = 40;
+        long seed = System.nanoTime();
+        Long single = null;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 < args.length && args[i].equals("--cases")) {
+                cases = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("--steps")) {
+                steps = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (i + 1 < args.length && args[i].equals("--case")) {
+                single = Long.parseLong(args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        ScenarioGenerator generator = new ScenarioGenerator(steps);
+        if (single != null) {
+            generator.runCase(single);
+            System.out.println("Case " + single + " passed");
+            return;
+        }
+        long start = System.nanoTime();
+        long ran = generator.run(seed, cases);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d cases, %d steps, seed %d: passed in %.2f s (%.0f cases/s, %.0f steps/s)%n",
+                cases, ran, seed, seconds, cases / seconds, ran / seconds);
+    }
+
+    // Takes a seed and a number of cases (P) and runs that many cases, each
+    // with a seed drawn from the given one (B). Returns how many steps were
+    // run in all (R). Throws an AssertionError naming the case's seed if a
+    // repository ever differs from the model (E).
+    public long run(long seed, int cases) {
+        Random seeds = new Random(seed);
+        long steps = 0;
+        for (int i = 0; i < cases; i++) {
+            steps += runCase(seeds.nextLong());
+        }
+        return steps;
+    }
+
+    // Takes the seed of a case (P) and runs it (B). Returns how many steps
+    // it ran (R). Throws an AssertionError naming the seed and the step if
+    // a repository ever differs from the model (E).
+    public int runCase(long seed) {
+        Case scenario = new Case(new Random(seed));
+        int steps = 1 + scenario.random.nextInt(maxSteps);
+        int step = 0;
+        try {
+            for (; step < steps; step++) {
+                scenario.step();
+            }
+            scenario.lastStep = "final check";
+            scenario.checkAll();
+        } catch (RuntimeException | AssertionError e) {
+            throw new AssertionError("Case " + seed + " failed at step " + step
+                    + " (" + scenario.lastStep + "): " + e.getMessage(), e);
+        }
+        return steps;
+    }
+
+    // One case: its random source, its clock, its repositories and their
+    // models.
+    private static class Case {
+        private final Random random;
+        private final boolean hybrid;
+        private final boolean disorder;
+        private final ScriptedClock clock;
+        private final Repository[] repos;
+        private final Model[] models;
+        private int nextId;
+        private long dropTime;
+        private String lastStep;
+
+        public Case(Random random) {
+            this.random = random;
+            this.hybrid = random.nextInt(100) < HYBRID_PERCENT;
+            this.disorder = !hybrid && random.nextBoolean();
+            this.clock = new ScriptedClock(this);
+            Repository.Commit.resetIds();
+            int count = 2 + random.nextInt(3);
+            repos = new Repository[count];
+            models = new Model[count];
+            for (int i = 0; i < count; i++) {
+                boolean soft = random.nextBoolean();
+                repos[i] = new Repository("repo" + i);
+                repos[i].setClock(clock);
+                repos[i].setSoftDrops(soft);
+                repos[i].setDropClock(() -> dropTime);
+                models[i] = new Model(soft);
+            }
+        }
+
+        // Runs one random step on the repositories and the model, and
+        // checks every repository it touched (B).
+        public void step() {
+            dropTime++;
+            int r = random.nextInt(repos.length);
+            Repository repo = repos[r];
+            Model model = models[r];
+            int kind = random.nextInt(100);
+            if (kind < 30) {
+                lastStep = "commit " + r;
+                String message = "Commit " + nextId;
+                String actual = repo.commit(message);
+                String expected = model.commit(nextId++, clock.issued.remove(), message);
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("commit returned " + actual + ", expected " + expected);
+                }
+            } else if (kind < 40) {
+                int count = random.nextInt(5);
+                lastStep = "commitAll " + r + " x" + count;
+                List<String> messages = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    messages.add("Commit " + (nextId + i));
+                }
+                List<String> actual = repo.commitAll(messages);
+                List<String> expected = new ArrayList<>();
+                for (String message : messages) {
+                    expected.add(model.commit(nextId++, clock.issued.remove(), message));
+                }
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("commitAll returned " + actual + ", expected " + expected);
+                }
+            } else if (kind < 58) {
+                String id = pickId();
+                lastStep = "drop " + r + " " + id;
+                expect(repo.drop(id), model.drop(id, dropTime), "drop");
+            } else if (kind < 63) {
+                List<String> ids = new ArrayList<>();
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    ids.add(pickId());
+                }
+                lastStep = "dropAll " + r + " " + ids;
+                List<Boolean> expected = new ArrayList<>();
+                for (String id : ids) {
+                    expected.add(model.drop(id, dropTime));
+                }
+                List<Boolean> actual = repo.dropAll(ids);
+                if (!expected.equals(actual)) {
+                    throw new AssertionError("dropAll returned " + actual + ", expected " + expected);
+                }
+            } else if (kind < 68) {
+                String id = pickId();
+                lastStep = "undrop " + r + " " + id;
+                expect(repo.undrop(id), model.undrop(id), "undrop");
+            } else if (kind < 72) {
+                int limit = random.nextInt(3);
+                lastStep = "purge " + r + " " + limit;
+                expect(repo.purge(Long.MAX_VALUE, limit), model.purge(limit), "purge");
+            } else if (kind < 90) {
+                // Now and then a repository synchronizes with itself
+                int o = random.nextInt(8) == 0 ? r : random.nextInt(repos.length);
+                lastStep = "synchronize " + r + " " + o;
+                repo.synchronize(repos[o]);
+                model.synchronize(models[o]);
+                check(o, false);
+            } else {
+                List<Repository> others = new ArrayList<>();
+                List<Integer> picked = new ArrayList<>();
+                for (int i = random.nextInt(4); i >= 0; i--) {
+                    int o = random.nextInt(repos.length);
+                    others.add(repos[o]);
+                    picked.add(o);
+                }
+                boolean parallel = random.nextInt(4) == 0;
+                lastStep = "synchronizeAll " + r + " " + picked + (parallel ? " parallel" : "");
+                repo.synchronizeAll(others, parallel);
+                for (int o : picked) {
+                    model.synchronize(models[o]);
+                }
+                for (int o : picked) {
+                    check(o, false);
+                }
+            }
+            check(r, false);
+        }
+
+        // Checks every repository against its model, reading each the
+        // slower ways too (B).
+        public void checkAll() {
+            for (int r = 0; r < repos.length; r++) {
+                check(r, true);
+            }
+        }
+
+        // Returns the ID of a commit made in this case, or now and then one
+        // no repository has (R).
+        private String pickId() {
+            return "" + random.nextInt(nextId + 1);
+        }
+
+        // Takes the index of a repository and whether to read it through
+        // getHistory and the timestamp index as well, which is slower (P),
+        // and throws an AssertionError if it differs from its model (E).
+        private void check(int r, boolean deep) {
+            Repository repo = repos[r];
+            Model model = models[r];
+            List<String> visible = new ArrayList<>();
+            long fingerprint = 0;
+            int i = 0;
+            for (Repository.Commit curr = repo.getFront(); curr != null; curr = curr.past, i++) {
+                if (i == model.history.size()) {
+                    throw new AssertionError("History of repo" + r + " longer than " + i);
+                }
+                Entry entry = model.history.get(i);
+                if (!curr.id.equals(entry.id) || curr.timeStamp != entry.timeStamp
+                        || !curr.message.equals(entry.message)) {
+                    throw new AssertionError("Commit " + i + " of repo" + r + " is " + curr.id + " at "
+                            + curr.timeStamp + ", expected " + entry.id + " at " + entry.timeStamp);
+                }
+                if (hybrid && curr.past != null && curr.past.timeStamp >= curr.timeStamp) {
+                    throw new AssertionError("Commit " + curr.id + " of repo" + r + " out of order");
+                }
+                boolean dropped = model.tombstones.containsKey(entry.id);
+                if (repo.isTombstoned(curr) != dropped) {
+                    throw new AssertionError("Commit " + curr.id + " of repo" + r
+                            + (dropped ? " not dropped" : " dropped"));
+                }
+                if (!dropped) {
+                    visible.add(entry.id);
+                }
+                fingerprint += Repository.fingerprintOf(curr);
+            }
+            expect(i, model.history.size(), "history length of repo" + r);
+            expect(repo.getRepoSize(), visible.size(), "getRepoSize of repo" + r);
+            expect(repo.getTombstoneCount(), model.tombstones.size(), "getTombstoneCount of repo" + r);
+            expect(repo.getRepoHead(), visible.isEmpty() ? null : visible.get(0), "getRepoHead of repo" + r);
+            expect(repo.fingerprint(), fingerprint, "fingerprint of repo" + r);
+            String id = pickId();
+            expect(repo.contains(id), visible.contains(id), "contains " + id + " in repo" + r);
+            if (!deep) {
+                return;
+            }
+
+            int n = 1 + random.nextInt(visible.size() + 1);
+            List<String> shown = new ArrayList<>();
+            for (String line : repo.getHistory(n).split("\n")) {
+                if (!line.isEmpty()) {
+                    shown.add(line.substring(0, line.indexOf(" at ")));
+                }
+            }
+            expect(shown, visible.subList(0, Math.min(n, visible.size())), "getHistory(" + n + ") of repo" + r);
+
+            List<String> indexed = new ArrayList<>();
+            repo.commitsBetween(Long.MIN_VALUE, Long.MAX_VALUE).forEach(commit -> indexed.add(commit.id));
+            Collections.sort(indexed);
+            List<String> sorted = new ArrayList<>(visible);
+            Collections.sort(sorted);
+            expect(indexed, sorted, "commitsBetween of repo" + r);
+        }
+
+        // Takes what a repository gave, what the model gave and what was
+        // asked (P), and throws an AssertionError if they differ (E).
+        private static void expect(Object actual, Object expected, String what) {
+            if (!Objects.equals(actual, expected)) {
+                throw new AssertionError(what + " gave " + actual + ", expected " + expected);
+            }
+        }
+    }
+
+    // The clock every repository of a case shares. Its physical time moves
+    // on by 0 to 2 milliseconds per commit, and in cases out of order steps
+    // back now and then; in hybrid cases it is read through a HybridClock.
+    // Every timestamp handed out is kept until the model takes it.
+    private static class ScriptedClock implements CommitClock {
+        private final Case scenario;
+        private final CommitClock hybrid;
+        private final Deque<Long> issued;
+        private long physical;
+
+        public ScriptedClock(Case scenario) {
+            this.scenario = scenario;
+            this.hybrid = scenario.hybrid ? new HybridClock(this::tick) : null;
+            this.issued = new ArrayDeque<>();
+        }
+
+        @Override
+        public long now() {
+            long time = hybrid == null ? tick() : hybrid.now();
+            issued.add(time);
+            return time;
+        }
+
+        @Override
+        public void observe(long timeStamp) {
+            if (hybrid != null) {
+                hybrid.observe(timeStamp);
+            }
+        }
+
+        // Moves the physical time on and returns it (R).
+        private long tick() {
+            Random random = scenario.random;
+            if (scenario.disorder && random.nextInt(8) == 0) {
+                physical -= 1 + random.nextInt(5);
+            } else {
+                physical += random.nextInt(3);
+            }
+            return physical;
+        }
+    }
+
+    // A commit as the model keeps it.
+    private static class Entry {
+        private final String id;
+        private final long timeStamp;
+        private final String message;
+
+        public Entry(String id, long timeStamp, String message) {
+            this.id = id;
+            this.timeStamp = timeStamp;
+            this.message = message;
+        }
+    }
+
+    // What a repository should hold: its history, newest first, dropped
+    // commits included, and the IDs of the dropped commits waiting to be
+    // purged with when they were dropped, oldest drop first.
+    private static class Model {
+        private final boolean soft;
+        private List<Entry> history;
+        private Map<String, Long> tombstones;
+
+        public Model(boolean soft) {
+            this.soft = soft;
+            this.history = new ArrayList<>();
+            this.tombstones = new LinkedHashMap<>();
+        }
+
+        // Adds a commit with the given number, timestamp and message on
+        // the front (P) (B). Returns its ID (R).
+        public String commit(int number, long timeStamp, String message) {
+            String id = "" + number;
+            history.add(0, new Entry(id, timeStamp, message));
+            return id;
+        }
+
+        // Drops the commit with the given ID at the given time (P) (B).
+        // Returns whether it was there to drop (R).
+        public boolean drop(String id, long droppedAt) {
+            if (tombstones.containsKey(id) || history.stream().noneMatch(entry -> entry.id.equals(id))) {
+                return false;
+            }
+            if (soft) {
+                tombstones.put(id, droppedAt);
+            } else {
+                history.removeIf(entry -> entry.id.equals(id));
+            }
+            return true;
+        }
+
+        // Brings back the dropped commit with the given ID (P) (B).
+        // Returns whether it was waiting to be purged (R).
+        public boolean undrop(String id) {
+            return tombstones.remove(id) != null;
+        }
+
+        // Removes up to limit dropped commits for good, oldest drop first
+        // (P) (B). Returns how many were removed (R).
+        public int purge(int limit) {
+            int purged = 0;
+            Iterator<String> oldest = tombstones.keySet().iterator();
+            while (purged < limit && oldest.hasNext()) {
+                String id = oldest.next();
+                oldest.remove();
+                history.removeIf(entry -> entry.id.equals(id));
+                purged++;
+            }
+            return purged;
+        }
+
+        // Moves every commit of the other model into this one (P), merging
+        // the two lists by timestamp and taking this one's first on equal
+        // timestamps (B). Dropped commits come along to be purged here, in
+        // the order they were dropped and this one's first on equal times,
+        // or are purged first if this model does not keep them.
+        public void synchronize(Model other) {
+            if (other == this) {
+                return;
+            }
+            if (soft) {
+                List<Map.Entry<String, Long>> all = new ArrayList<>(tombstones.entrySet());
+                all.addAll(other.tombstones.entrySet());
+                all.sort(Map.Entry.comparingByValue());
+                tombstones = new LinkedHashMap<>();
+                for (Map.Entry<String, Long> tombstone : all) {
+                    tombstones.put(tombstone.getKey(), tombstone.getValue());
+                }
+            } else {
+                other.purge(Integer.MAX_VALUE);
+            }
+            other.tombstones.clear();
+            List<Entry> merged = new ArrayList<>(history.size() + other.history.size());
+            int i = 0;
+            int j = 0;
+            while (i < history.size() || j < other.history.size()) {
+                if (j == other.history.size() || (i < history.size()
+                        && history.get(i).timeStamp >= other.history.get(j).timeStamp)) {
+                    merged.add(history.get(i++));
+                } else {
+                    merged.add(other.history.get(j++));
+                }
+            }
+            history = merged;
+            other.history = new ArrayList<>();
+        }
+    }
+}
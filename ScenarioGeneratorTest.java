@@ -0,0 +1,26 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScenarioGeneratorTest {
+    @Test
+    @DisplayName("Test Repository matches the model on random scenarios")
+    public void testScenarios() {
+        ScenarioGenerator generator = new ScenarioGenerator(40);
+        assertTrue(generator.run(123, 2000) >= 2000);
+    }
+
+    @Test
+    @DisplayName("Test Repository matches the model on long scenarios")
+    public void testLongScenarios() {
+        ScenarioGenerator generator = new ScenarioGenerator(1000);
+        assertTrue(generator.run(456, 20) >= 20);
+    }
+
+    @Test
+    @DisplayName("Test a case runs the same every time")
+    public void testReplay() {
+        ScenarioGenerator generator = new ScenarioGenerator(40);
+        assertEquals(generator.runCase(789), generator.runCase(789));
+        assertThrows(IllegalArgumentException.class, () -> new ScenarioGenerator(0));
+    }
+}
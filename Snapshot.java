@@ -0,0 +1,257 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// A snapshot of a repository's history, saved to a file along with the
+// position in the repository's commit log that it covers. After a restart
+// the repository is loaded from its latest snapshot and only the log
+// records after that position are replayed.
+//
+// The file is laid out in columns, newest commit first, so it can be
+// written and read in large sequential pieces:
+//      header:     MAGIC, VERSION, log position (long), count (int)
+//      timestamps: count longs
+//      ids:        count + 1 long offsets into the id bytes, then the bytes
+//      messages:   count + 1 long offsets into the message bytes, then the bytes
+//      tombstones: count (int), then for each commit waiting to be purged,
+//                  in the order they were dropped, its place in the
+//                  columns (int) and its drop time (long)
+// Strings are stored as UTF-8. Version 2 snapshots have int offsets, and
+// version 1 snapshots have int offsets and no tombstones; both are still
+// read.
+public class Snapshot {
+    private static final int MAGIC = 0x4d534e50; // "MSNP"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 20;
+    private static final String SUFFIX = ".snap";
+
+    // The most bytes of one column read into a single array. Longer columns
+    // are read a string at a time. Tests lower it to read that way without
+    // writing gigabytes.
+    static long columnArrayLimit = Integer.MAX_VALUE - 8;
+
+    private final Repository repository;
+    private final long logPosition;
+
+    // Constructs a loaded snapshot (B), given the repository it holds and
+    // the log position it covers (P).
+    private Snapshot(Repository repository, long logPosition) {
+        this.repository = repository;
+        this.logPosition = logPosition;
+    }
+
+    // Returns the repository rebuilt from this snapshot (R).
+    public Repository getRepository() {
+        return repository;
+    }
+
+    // Returns the position in the commit log that this snapshot covers;
+    // replaying should start from it (R).
+    public long getLogPosition() {
+        return logPosition;
+    }
+
+    // Returns the snapshot file that goes with the given log file (P, R).
+    public static Path pathFor(Path logFile) {
+        String name = logFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return logFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + SUFFIX);
+    }
+
+    // Writes a snapshot of the given repository, covering the log up to the
+    // given position, to the given file (P) (B). The snapshot is written next
+    // to the file and then moved over it, so a crash never leaves a partial
+    // snapshot behind. Throws an IOException if the file cannot be written (E).
+    public static void write(Repository repo, long logPosition, Path file) throws IOException {
+        // Drops waiting to be purged can still be undone, so their commits
+        // are kept too, along with their tombstones
+        int count = repo.getRepoSize() + repo.getTombstoneCount();
+        long[] timeStamps = new long[count];
+        byte[][] ids = new byte[count][];
+        byte[][] messages = new byte[count][];
+        Map<Repository.Commit, Integer> places = new IdentityHashMap<>();
+        int i = 0;
+        for (Repository.Commit curr = repo.getFront(); curr != null; curr = curr.past) {
+            timeStamps[i] = curr.timeStamp;
+            ids[i] = curr.id.getBytes(StandardCharsets.UTF_8);
+            messages[i] = curr.message.getBytes(StandardCharsets.UTF_8);
+            if (repo.isTombstoned(curr)) {
+                places.put(curr, i);
+            }
+            i++;
+        }
+        int[] tombstoned = new int[places.size()];
+        long[] droppedAt = new long[places.size()];
+        int[] next = {0};
+        repo.forEachTombstone((commit, at) -> {
+            tombstoned[next[0]] = places.get(commit);
+            droppedAt[next[0]] = at;
+            next[0]++;
+        });
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(logPosition).putInt(count);
+            for (long timeStamp : timeStamps) {
+                buffer = ensure(channel, buffer, 8);
+                buffer.putLong(timeStamp);
+            }
+            buffer = writeColumn(channel, buffer, ids);
+            buffer = writeColumn(channel, buffer, messages);
+            buffer = ensure(channel, buffer, 4);
+            buffer.putInt(tombstoned.length);
+            for (int j = 0; j < tombstoned.length; j++) {
+                buffer = ensure(channel, buffer, 12);
+                buffer.putInt(tombstoned[j]).putLong(droppedAt[j]);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Loads the snapshot in the given file into a new repository with the
+    // given name (P) by mapping the file into memory, a window at a time
+    // if it is larger than one map, and linking and indexing the columns'
+    // commits in one pass (B). Returns the loaded snapshot (R).
+    // Throws an IOException if the file cannot be read or is not a
+    // snapshot (E).
+    public static Snapshot load(String name, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel);
+            if (in.size() < HEADER_SIZE || in.getInt() != MAGIC) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            long logPosition = in.getLong();
+            int count = in.getInt();
+
+            long[] timeStamps = new long[count];
+            String[] ids;
+            String[] messages;
+            int[] tombstoned = new int[0];
+            long[] droppedAt = new long[0];
+            try {
+                in.get(timeStamps);
+                ids = readColumn(in, count, version, file);
+                messages = readColumn(in, count, version, file);
+                if (version > 1) {
+                    tombstoned = new int[in.getInt()];
+                    droppedAt = new long[tombstoned.length];
+                    for (int i = 0; i < tombstoned.length; i++) {
+                        tombstoned[i] = in.getInt();
+                        droppedAt[i] = in.getLong();
+                    }
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Snapshot cut short: " + file);
+            }
+
+            Repository repo = new Repository(name);
+            repo.restoreAll(timeStamps, ids, messages, count);
+            for (int i = 0; i < tombstoned.length; i++) {
+                repo.restoreTombstone(ids[tombstoned[i]], droppedAt[i]);
+            }
+            return new Snapshot(repo, logPosition);
+        }
+    }
+
+    // Takes the file channel, write buffer and one column of strings (P),
+    // and writes the column's offsets and then its bytes (B). Returns the
+    // buffer to keep writing with (R).
+    private static ByteBuffer writeColumn(FileChannel channel, ByteBuffer buffer,
+                                          byte[][] column) throws IOException {
+        long offset = 0;
+        buffer = ensure(channel, buffer, 8);
+        buffer.putLong(offset);
+        for (byte[] bytes : column) {
+            offset += bytes.length;
+            buffer = ensure(channel, buffer, 8);
+            buffer.putLong(offset);
+        }
+        for (byte[] bytes : column) {
+            buffer = ensure(channel, buffer, bytes.length);
+            buffer.put(bytes);
+        }
+        return buffer;
+    }
+
+    // Takes the file channel, write buffer and a number of bytes about to be
+    // written (P), and writes out the buffer first if they would not fit (B).
+    // Returns the buffer to keep writing with, which is larger if one value
+    // is larger than the whole buffer (R).
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer,
+                                     int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        if (buffer.capacity() < needed) {
+            return ByteBuffer.allocateDirect(needed);
+        }
+        return buffer;
+    }
+
+    // Reads one column of strings written by writeColumn from the input,
+    // given how many strings it holds, the snapshot's version and its file
+    // (P). Columns that fit in one array are read in one piece, and longer
+    // ones a string at a time. Returns the strings (R). Throws an
+    // IOException if the offsets are out of order, or a
+    // BufferUnderflowException if the bytes run past the file (E).
+    private static String[] readColumn(MappedInput in, int count, int version, Path file)
+            throws IOException {
+        long[] offsets = new long[count + 1];
+        if (version < 3) {
+            int[] narrow = new int[count + 1];
+            in.get(narrow);
+            for (int i = 0; i <= count; i++) {
+                offsets[i] = narrow[i];
+            }
+        } else {
+            in.get(offsets);
+        }
+        for (int i = 0; i < count; i++) {
+            long length = offsets[i + 1] - offsets[i];
+            if (offsets[0] != 0 || length < 0 || length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Corrupt column offsets in " + file + " at string " + i);
+            }
+        }
+        if (offsets[count] > in.size() - in.position()) {
+            throw new BufferUnderflowException();
+        }
+        String[] column = new String[count];
+        if (offsets[count] <= columnArrayLimit) {
+            byte[] bytes = new byte[(int) offsets[count]];
+            in.get(bytes);
+            for (int i = 0; i < count; i++) {
+                column[i] = new String(bytes, (int) offsets[i], (int) (offsets[i + 1] - offsets[i]),
+                                       StandardCharsets.UTF_8);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[(int) (offsets[i + 1] - offsets[i])];
+                in.get(bytes);
+                column[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return column;
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+public class SnapshotTest {
+    private Path dir;
+    private Path logFile;
+    private Repository repo1;
+    private CommitLog log;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("snapshot");
+        logFile = dir.resolve("repo1.log");
+        repo1 = new Repository("repo1");
+        log = new CommitLog(logFile, false);
+        repo1.setLog(log);
+        Repository.Commit.resetIds();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        log.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    @DisplayName("Test load() from a snapshot and the rest of the log")
+    public void testSnapshotAndTail() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            repo1.commit("Commit " + i + " \u00fcn\u00efc\u00f6d\u00e9");
+        }
+        for (int i = 0; i < 10; i += 2) {
+            repo1.drop("" + i);
+        }
+        try (LogCompactor compactor = new LogCompactor(Long.MAX_VALUE)) {
+            compactor.snapshot(repo1, log);
+        }
+
+        // Changes after the snapshot are only in the log
+        repo1.commit("Commit after snapshot");
+        repo1.drop("5");
+        log.flush();
+
+        Repository loaded = LogCompactor.load("repo1", logFile);
+        assertEquals(loaded.getRepoSize(), repo1.getRepoSize());
+        assertEquals(loaded.getHistory(20), repo1.getHistory(20));
+        assertFalse(loaded.contains("4"));
+        assertTrue(loaded.contains("10"));
+    }
+
+    @Test
+    @DisplayName("Test load() keeps drops waiting to be purged")
+    public void testSnapshotTombstones() throws IOException {
+        repo1.setSoftDrops(true);
+        for (int i = 0; i < 6; i++) {
+            repo1.commit("Commit " + i);
+        }
+        repo1.drop("4");
+        repo1.drop("1");
+        try (LogCompactor compactor = new LogCompactor(Long.MAX_VALUE)) {
+            compactor.snapshot(repo1, log);
+        }
+        repo1.drop("2");
+        log.flush();
+
+        // Assert that the tombstones in the snapshot and in the log are
+        // both restored, oldest drop first
+        Repository loaded = LogCompactor.load("repo1", logFile);
+        assertEquals(loaded.getHistory(10), repo1.getHistory(10));
+        assertEquals(loaded.getTombstoneCount(), 3);
+        assertEquals(loaded.purge(Long.MAX_VALUE, 1), 1);
+        assertFalse(loaded.undrop("4"));
+        assertTrue(loaded.undrop("1"));
+        assertTrue(loaded.undrop("2"));
+        assertEquals(loaded.getRepoSize(), 5);
+    }
+
+    @Test
+    @DisplayName("Test the log is compacted after a snapshot")
+    public void testCompaction() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            repo1.commit("Commit " + i);
+            repo1.drop("" + i);
+        }
+        repo1.commit("Only commit left");
+        log.flush();
+        long before = Files.size(logFile);
+
+        // Assert that closing the compactor waits for the rewrite
+        try (LogCompactor compactor = new LogCompactor(1)) {
+            assertTrue(compactor.maybeSnapshot(repo1, log));
+            assertFalse(compactor.maybeSnapshot(repo1, log));
+        }
+        assertTrue(Files.size(logFile) < before);
+        assertEquals(log.firstPosition(), log.position());
+
+        // Assert that the log keeps working after being rewritten
+        repo1.commit("Commit after compaction");
+        log.flush();
+        Repository loaded = LogCompactor.load("repo1", logFile);
+        assertEquals(loaded.getRepoSize(), 2);
+        assertEquals(loaded.getHistory(2), repo1.getHistory(2));
+    }
+
+    @Test
+    @DisplayName("Test load() of an empty snapshot")
+    public void testEmptySnapshot() throws IOException {
+        Snapshot.write(repo1, log.position(), Snapshot.pathFor(logFile));
+        Snapshot snapshot = Snapshot.load("repo1", Snapshot.pathFor(logFile));
+        assertEquals(snapshot.getRepository().getRepoSize(), 0);
+        assertEquals(snapshot.getLogPosition(), 0);
+        assertEquals(Snapshot.pathFor(logFile).getFileName().toString(), "repo1.snap");
+    }
+
+    @Test
+    @DisplayName("Test load() mapping the snapshot a window at a time")
+    public void testWindowedLoad() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            repo1.commit(i % 10 == 0 ? "Long commit " + "x".repeat(100) : "Commit " + i);
+        }
+        Path file = Snapshot.pathFor(logFile);
+        Snapshot.write(repo1, log.position(), file);
+
+        // Assert that columns crossing window boundaries load the same
+        MappedInput.windowSize = 64;
+        try {
+            Snapshot snapshot = Snapshot.load("repo1", file);
+            assertEquals(snapshot.getRepository().getHistory(100), repo1.getHistory(100));
+            assertEquals(snapshot.getLogPosition(), log.position());
+        } finally {
+            MappedInput.windowSize = Integer.MAX_VALUE;
+        }
+    }
+
+    @Test
+    @DisplayName("Test load() reading columns too long for one array")
+    public void testLongColumns() throws IOException {
+        for (int i = 0; i < 50; i++) {
+            repo1.commit("Commit " + i + " " + "y".repeat(i));
+        }
+        Path file = Snapshot.pathFor(logFile);
+        Snapshot.write(repo1, log.position(), file);
+
+        // Assert that columns read a string at a time load the same
+        Snapshot.columnArrayLimit = 16;
+        try {
+            assertEquals(Snapshot.load("repo1", file).getRepository().getHistory(50),
+                         repo1.getHistory(50));
+        } finally {
+            Snapshot.columnArrayLimit = Integer.MAX_VALUE - 8;
+        }
+    }
+}
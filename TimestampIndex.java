@@ -0,0 +1,332 @@
+import java.util.*;
+import java.util.function.BiConsumer;
+
+// An index of a repository's commits sorted by timestamp, oldest first,
+// so that every commit in a time range can be found with two binary
+// searches. Timestamps are kept in their own array so the searches stay
+// in one block of memory.
+//
+// Dropped commits are not removed straight away. They stay in the arrays
+// until they make up half the index, and are skipped by checking each
+// entry against the repository's map of commits by ID. An entry is live
+// only if the map holds that very commit, since a commit left out of a
+// synchronize as a duplicate shares its ID with the one kept.
+//
+// While the history itself is in timestamp order, which it is unless
+// commits were added out of order, the live entries are exactly the
+// history reversed. The index then doubles as an express lane over the
+// history: merge finds each run of one history that falls between two
+// commits of the other with a galloping search and splices the whole run
+// in with one link, instead of stepping through it a commit at a time.
+class TimestampIndex {
+    private static final int MIN_DEAD = 64;
+
+    private final Map<String, Repository.Commit> live;
+    private long[] times;
+    private Repository.Commit[] nodes;
+    private int size;
+    private int dead;
+    private boolean inHistoryOrder;
+    private long lookedAt;
+
+    // Constructs an empty index (B), given the repository's map from
+    // IDs to the commits it still holds (P).
+    public TimestampIndex(Map<String, Repository.Commit> live) {
+        this.live = live;
+        clear();
+    }
+
+    // Adds a new commit (P) to the index (B). Commits usually arrive in
+    // timestamp order and go at the end; any that do not are placed in
+    // order with a binary search.
+    public void add(Repository.Commit commit) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        int i = size;
+        if (size > 0 && times[size - 1] > commit.timeStamp) {
+            inHistoryOrder = false;
+            i = upperBound(commit.timeStamp);
+            System.arraycopy(times, i, times, i + 1, size - i);
+            System.arraycopy(nodes, i, nodes, i + 1, size - i);
+        }
+        times[i] = commit.timeStamp;
+        nodes[i] = commit;
+        size++;
+    }
+
+    // Notes that a commit was dropped from the repository (B), removing
+    // every dropped commit from the index once they make up half of it.
+    public void dropped() {
+        dead++;
+        if (dead >= MIN_DEAD && dead * 2 >= size) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (live.get(nodes[i].id) == nodes[i]) {
+                    times[kept] = times[i];
+                    nodes[kept] = nodes[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(nodes, kept, size, null);
+            size = kept;
+            dead = 0;
+        }
+    }
+
+    // Rebuilds the index from the history starting at the given commit,
+    // which holds the given number of commits (P) (B).
+    public void rebuild(Repository.Commit front, int count) {
+        times = new long[Math.max(count, 16)];
+        nodes = new Repository.Commit[times.length];
+        size = count;
+        dead = 0;
+        boolean sorted = true;
+        int i = count - 1;
+        for (Repository.Commit curr = front; curr != null; curr = curr.past) {
+            times[i] = curr.timeStamp;
+            nodes[i] = curr;
+            sorted &= i == count - 1 || times[i] <= times[i + 1];
+            i--;
+        }
+        if (!sorted) {
+            sort();
+        }
+        inHistoryOrder = sorted;
+    }
+
+    // Removes every commit from the index (B).
+    public void clear() {
+        times = new long[16];
+        nodes = new Repository.Commit[16];
+        size = 0;
+        dead = 0;
+        inHistoryOrder = true;
+    }
+
+    // Returns how many commits the last merge looked at to find the live
+    // ends of its runs (R).
+    public long lookedAt() {
+        return lookedAt;
+    }
+
+    // Returns whether the live entries, oldest first, are exactly the
+    // repository's history in reverse, so that merge can be used (R).
+    public boolean inHistoryOrder() {
+        return inHistoryOrder;
+    }
+
+    // Takes the index of another repository and a callback (P), and merges
+    // the other repository's history into this one's, keeping timestamp
+    // order and putting this history's commits first on equal timestamps,
+    // the same as synchronize (B). Both indexes must be in history order.
+    // Each run of consecutive commits from one history is found with a
+    // galloping search and linked in as a block, and the callback is told
+    // of every new link as (newer, older). The other index's entries are
+    // moved into this one; only entries newer than the oldest commit of
+    // the other history are shifted. Returns the front of the merged
+    // history (R).
+    public Repository.Commit merge(TimestampIndex other,
+                                   BiConsumer<Repository.Commit, Repository.Commit> relinked) {
+        int total = size + other.size;
+        if (total > times.length) {
+            int capacity = Math.max(total, times.length * 2);
+            times = Arrays.copyOf(times, capacity);
+            nodes = Arrays.copyOf(nodes, capacity);
+        }
+        long[] otherTimes = other.times;
+        Repository.Commit[] otherNodes = other.nodes;
+        lookedAt = 0;
+        Repository.Commit front = null;
+        Repository.Commit tail = null;
+        int i = size - 1;
+        int j = other.size - 1;
+        int k = total - 1;
+        while (i >= 0 || j >= 0) {
+            int start;
+            Map<String, Repository.Commit> runLive;
+            if (j < 0) {
+                // The rest of this index is already in place
+                start = 0;
+                runLive = live;
+            } else if (i < 0) {
+                start = 0;
+                System.arraycopy(otherTimes, 0, times, 0, j + 1);
+                System.arraycopy(otherNodes, 0, nodes, 0, j + 1);
+                runLive = other.live;
+            } else if (times[i] >= otherTimes[j]) {
+                int low = gallop(times, i, otherTimes[j], false);
+                start = k - (i - low);
+                System.arraycopy(times, low, times, start, i - low + 1);
+                System.arraycopy(nodes, low, nodes, start, i - low + 1);
+                runLive = live;
+                i = low - 1;
+            } else {
+                int low = gallop(otherTimes, j, times[i], true);
+                start = k - (j - low);
+                System.arraycopy(otherTimes, low, times, start, j - low + 1);
+                System.arraycopy(otherNodes, low, nodes, start, j - low + 1);
+                runLive = other.live;
+                j = low - 1;
+            }
+            // The run is now at start..k. Its live commits are already
+            // linked to each other, so only its ends need attaching.
+            Repository.Commit top = firstLive(runLive, k, start - 1, -1);
+            if (top != null) {
+                if (tail == null) {
+                    front = top;
+                } else if (tail.past != top) {
+                    tail.past = top;
+                    relinked.accept(tail, top);
+                }
+                tail = firstLive(runLive, start, k + 1, 1);
+            }
+            if (start == 0) {
+                break;
+            }
+            k = start - 1;
+        }
+        size = total;
+        dead += other.dead;
+        return front;
+    }
+
+    // Takes a commit in the index, or null for none, and the commits that
+    // now come after it in the history, oldest first (P), and replaces
+    // every entry after it with them (B). Only the entries after it are
+    // moved. The index must be in history order, so that those entries are
+    // exactly the commits that came after it before.
+    public void replaceAfter(Repository.Commit base, List<Repository.Commit> after) {
+        int keep = 0;
+        if (base != null) {
+            keep = upperBound(base.timeStamp);
+            while (nodes[keep - 1] != base) {
+                keep--;
+            }
+        }
+        for (int i = keep; i < size; i++) {
+            if (live.get(nodes[i].id) != nodes[i]) {
+                dead--;
+            }
+        }
+        Arrays.fill(nodes, keep, size, null);
+        size = keep;
+        for (Repository.Commit commit : after) {
+            add(commit);
+        }
+    }
+
+    // Returns the commits with timestamps from fromMillis to toMillis,
+    // inclusive (P), newest first, looking each one up only as it is
+    // reached (R). Commits with equal timestamps come in history order.
+    public Iterator<Repository.Commit> between(long fromMillis, long toMillis) {
+        int start = upperBound(toMillis) - 1;
+        return new Iterator<Repository.Commit>() {
+            private int i = start;
+            private Repository.Commit next = advance();
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Repository.Commit next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Repository.Commit result = next;
+                next = advance();
+                return result;
+            }
+
+            // Moves to the next commit still in the repository and in
+            // range (B). Returns it, or null if there are no more (R).
+            private Repository.Commit advance() {
+                while (i >= 0 && times[i] >= fromMillis) {
+                    Repository.Commit commit = nodes[i--];
+                    if (live.get(commit.id) == commit) {
+                        return commit;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    // Takes sorted timestamps, a position hi and a timestamp (P), and
+    // returns the first position at or before hi whose timestamp is at
+    // least the given one, or after it if strict, given that the one at hi
+    // is (R). Searches backwards in doubling steps and then by halves, so
+    // the cost grows with the log of the distance.
+    private static int gallop(long[] times, int hi, long timeStamp, boolean strict) {
+        int found = hi;
+        int missed = -1;
+        int step = 1;
+        while (found - step > missed) {
+            int probe = found - step;
+            if (strict ? times[probe] > timeStamp : times[probe] >= timeStamp) {
+                found = probe;
+                step <<= 1;
+            } else {
+                missed = probe;
+            }
+        }
+        while (found - missed > 1) {
+            int mid = (found + missed) >>> 1;
+            if (strict ? times[mid] > timeStamp : times[mid] >= timeStamp) {
+                found = mid;
+            } else {
+                missed = mid;
+            }
+        }
+        return found;
+    }
+
+    // Takes a map of live commits, a start position, an end position it
+    // stops before and a direction (P), and returns the first entry from
+    // start in that direction whose commit is still live, or null (R).
+    private Repository.Commit firstLive(Map<String, Repository.Commit> runLive,
+                                        int from, int until, int direction) {
+        for (int x = from; x != until; x += direction) {
+            lookedAt++;
+            if (runLive.get(nodes[x].id) == nodes[x]) {
+                return nodes[x];
+            }
+        }
+        return null;
+    }
+
+    // Returns the position of the first entry with a timestamp after
+    // the given one (P, R).
+    private int upperBound(long timeStamp) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= timeStamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Sorts the entries by timestamp, keeping entries with equal
+    // timestamps in their current order (B).
+    private void sort() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> times[i]));
+        long[] sortedTimes = new long[times.length];
+        Repository.Commit[] sortedNodes = new Repository.Commit[times.length];
+        for (int i = 0; i < size; i++) {
+            sortedTimes[i] = times[order[i]];
+            sortedNodes[i] = nodes[order[i]];
+        }
+        times = sortedTimes;
+        nodes = sortedNodes;
+    }
+}
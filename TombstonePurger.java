@@ -0,0 +1,64 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+// Purges dropped commits from every repository in a registry once they
+// have waited out a recycle window. Until then, a drop can be undone with
+// undrop. Runs on a background thread at a fixed period and purges at
+// most a batch of commits from each repository per run, so a repository's
+// lock is never held for long and a large drop is unlinked a little at a
+// time.
+public class TombstonePurger implements Closeable {
+    private final RepositoryRegistry registry;
+    private final long retention;
+    private final int batch;
+    private final ScheduledExecutorService background;
+
+    // Constructs a purger for the given registry that removes commits
+    // dropped at least the given number of milliseconds ago, at most the
+    // given number from each repository at a time (P) (B). Nothing runs
+    // until start is called.
+    public TombstonePurger(RepositoryRegistry registry, long retention, int batch) {
+        if (retention < 0 || batch <= 0) {
+            throw new IllegalArgumentException("Invalid Window: Must be a non-negative number.");
+        }
+        this.registry = registry;
+        this.retention = retention;
+        this.batch = batch;
+        this.background = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "tombstone-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Takes a period in milliseconds (P) and purges every repository on the
+    // background thread once per period from now on (B).
+    public void start(long period) {
+        background.scheduleWithFixedDelay(() -> {
+            try {
+                purge(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                // A failed run must not stop later ones
+                System.err.println("Could not purge tombstones: " + e.getMessage());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Takes the current time in milliseconds (P) and purges one batch of
+    // commits whose recycle window has passed from each repository (B).
+    // Returns how many commits were purged (R).
+    public int purge(long now) {
+        return registry.purge(now - retention, batch);
+    }
+
+    // Stops the background thread, waiting for a run in progress (B).
+    @Override
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import org.junit.jupiter.api.*;
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+
+public class TombstonePurgerTest {
+    private RepositoryRegistry registry;
+    private TombstonePurger purger;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new RepositoryRegistry();
+        purger = new TombstonePurger(registry, 1000, 2);
+        Repository.Commit.resetIds();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        purger.close();
+    }
+
+    @Test
+    @DisplayName("Test TombstonePurger purges in batches after the window")
+    public void testPurge() {
+        for (String name : Arrays.asList("repo1", "repo2")) {
+            Repository repo = new Repository(name);
+            repo.setSoftDrops(true);
+            registry.register(repo);
+            for (int i = 0; i < 5; i++) {
+                registry.drop(name, registry.commit(name, "Commit " + i));
+            }
+        }
+        long now = System.currentTimeMillis();
+
+        // Assert that nothing is purged inside the window
+        assertEquals(purger.purge(now), 0);
+        assertTrue(registry.undrop("repo1", "4"));
+
+        // Assert that each run purges one batch from each repository
+        assertEquals(purger.purge(now + 2000), 4);
+        assertEquals(purger.purge(now + 2000), 4);
+        assertEquals(purger.purge(now + 2000), 1);
+        assertEquals(purger.purge(now + 2000), 0);
+        assertEquals(registry.getRepoHead("repo1"), "4");
+        assertEquals(registry.getRepoHead("repo2"), null);
+        assertFalse(registry.undrop("repo2", "9"));
+
+        assertThrows(IllegalArgumentException.class, () -> new TombstonePurger(registry, -1, 2));
+        assertThrows(IllegalArgumentException.class, () -> new TombstonePurger(registry, 0, 0));
+    }
+}
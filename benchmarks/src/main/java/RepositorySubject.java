@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import minigit.jmh.Subject;
+
+// The Subject the benchmarks run against: a Repository, with each call
+// passed straight through. Found by name from Subject.create.
+public class RepositorySubject implements Subject {
+    private final Repository repo;
+
+    // Constructs an empty repository with the given name (P) (B).
+    public RepositorySubject(String name) {
+        this.repo = new Repository(name);
+    }
+
+    public String commit(String message) {
+        return repo.commit(message);
+    }
+
+    public List<String> commitAll(List<String> messages) {
+        return repo.commitAll(messages);
+    }
+
+    public boolean contains(String targetId) {
+        return repo.contains(targetId);
+    }
+
+    public int getRepoSize() {
+        return repo.getRepoSize();
+    }
+
+    public String getHistory(int n) {
+        return repo.getHistory(n);
+    }
+
+    public int search(String query, int limit) {
+        return repo.search(query, limit).size();
+    }
+
+    public boolean drop(String targetId) {
+        return repo.drop(targetId);
+    }
+
+    public List<Boolean> dropAll(List<String> targetIds) {
+        return repo.dropAll(targetIds);
+    }
+
+    public void synchronize(Subject other) {
+        repo.synchronize(((RepositorySubject) other).repo);
+    }
+
+    public void recordMetrics() {
+        repo.setMetrics(new RepositoryMetrics());
+    }
+
+    public void shareClock(Subject other) {
+        long start = System.currentTimeMillis();
+        CommitClock clock = new HybridClock(() -> start);
+        repo.setClock(clock);
+        ((RepositorySubject) other).repo.setClock(clock);
+    }
+
+    public void writeSnapshot(Path file) throws IOException {
+        Snapshot.write(repo, 0, file);
+    }
+
+    public int loadSnapshot(Path file) throws IOException {
+        return Snapshot.load(repo.getName(), file).getRepository().getRepoSize();
+    }
+}
@@ -0,0 +1,256 @@
+package minigit.jmh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// JMH benchmarks of Repository: commit, commitAll, contains, getRepoSize,
+// getHistory, search, drop, dropAll and snapshots on histories of 10 to
+// 10^7 commits, and synchronize across several interleavings of the two
+// histories. Times are per operation. Run with -rf json for results a
+// later run can be compared against.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RepositoryBenchmarks {
+    // Commits a commitAll benchmark adds at once.
+    private static final int BATCH = 100;
+
+    // Commits a dropAll benchmark drops at once; no more than the
+    // smallest history.
+    private static final int DROP_BATCH = 10;
+
+    // A repository that starts every iteration with size commits and
+    // grows as commits are timed, with or without metrics.
+    @State(Scope.Thread)
+    public static class Growing {
+        @Param({"10", "1000", "100000", "10000000"})
+        public int size;
+
+        @Param({"false", "true"})
+        public boolean metrics;
+
+        public Subject repo;
+        public List<String> batch;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            repo = Subject.create("bench");
+            if (metrics) {
+                repo.recordMetrics();
+            }
+            fill(repo, size);
+            batch = new ArrayList<>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                batch.add("Commit " + i);
+            }
+        }
+    }
+
+    // A repository of size commits that is only read, with IDs to look up:
+    // every other one is missing.
+    @State(Scope.Benchmark)
+    public static class Filled {
+        @Param({"10", "1000", "100000", "10000000"})
+        public int size;
+
+        public Subject repo;
+        public String[] lookups;
+        public String[] queries;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            repo = Subject.create("bench");
+            String[] ids = fill(repo, size);
+            Random random = new Random(size);
+            lookups = new String[1024];
+            queries = new String[1024];
+            for (int i = 0; i < lookups.length; i++) {
+                lookups[i] = i % 2 == 0 ? ids[random.nextInt(size)] : "missing" + i;
+                queries[i] = "commit " + random.nextInt(size);
+            }
+        }
+
+        // Returns the index of the next ID or query to use (R).
+        public int next() {
+            next = (next + 1) & 1023;
+            return next;
+        }
+    }
+
+    // How many commits getHistory is asked for.
+    @State(Scope.Benchmark)
+    public static class Page {
+        @Param({"1", "100", "10000"})
+        public int n;
+    }
+
+    // A snapshot of a Filled repository, written once.
+    @State(Scope.Benchmark)
+    public static class SnapshotFile {
+        public Path file;
+
+        @Setup(Level.Trial)
+        public void setUp(Filled filled) throws IOException {
+            file = Files.createTempFile("benchmark", ".snap");
+            filled.repo.writeSnapshot(file);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.delete(file);
+        }
+    }
+
+    // A repository that stays at size commits: each commit a benchmark
+    // drops is replaced by a new one, so the drop benchmarks time one
+    // drop and one commit per operation.
+    @State(Scope.Thread)
+    public static class Steady {
+        @Param({"10", "1000", "100000", "10000000"})
+        public int size;
+
+        public Subject repo;
+        public String[] ids;
+        public Random random;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            repo = Subject.create("bench");
+            ids = fill(repo, size);
+            random = new Random(size);
+        }
+    }
+
+    // Two repositories holding size commits between them, interleaved in
+    // time in the given pattern, built again before every iteration since
+    // synchronize empties one of them.
+    @State(Scope.Thread)
+    public static class Pair {
+        @Param({"10", "1000", "100000", "10000000"})
+        public int size;
+
+        @Param({"sequential", "alternating", "blocks", "random"})
+        public String interleaving;
+
+        public Subject repo;
+        public Subject other;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            repo = Subject.create("bench");
+            other = Subject.create("other");
+            repo.shareClock(other);
+            Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                boolean first;
+                if (interleaving.equals("sequential")) {
+                    first = i < size / 2;
+                } else if (interleaving.equals("alternating")) {
+                    first = i % 2 == 0;
+                } else if (interleaving.equals("blocks")) {
+                    first = (i / 1024) % 2 == 0;
+                } else {
+                    first = random.nextBoolean();
+                }
+                (first ? repo : other).commit("Commit " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public String commit(Growing state) {
+        return state.repo.commit("Commit");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<String> commitAll(Growing state) {
+        return state.repo.commitAll(state.batch);
+    }
+
+    @Benchmark
+    public boolean contains(Filled state) {
+        return state.repo.contains(state.lookups[state.next()]);
+    }
+
+    @Benchmark
+    public int getRepoSize(Filled state) {
+        return state.repo.getRepoSize();
+    }
+
+    @Benchmark
+    public String getHistory(Filled state, Page page) {
+        return state.repo.getHistory(page.n);
+    }
+
+    @Benchmark
+    public int search(Filled state) {
+        return state.repo.search(state.queries[state.next()], 10);
+    }
+
+    @Benchmark
+    public void snapshotWrite(Filled state, SnapshotFile snapshot) throws IOException {
+        state.repo.writeSnapshot(snapshot.file);
+    }
+
+    @Benchmark
+    public int snapshotLoad(Filled state, SnapshotFile snapshot) throws IOException {
+        return state.repo.loadSnapshot(snapshot.file);
+    }
+
+    @Benchmark
+    public boolean drop(Steady state) {
+        int slot = state.random.nextInt(state.size);
+        boolean dropped = state.repo.drop(state.ids[slot]);
+        state.ids[slot] = state.repo.commit("Commit");
+        return dropped;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DROP_BATCH)
+    public void dropAll(Steady state, Blackhole blackhole) {
+        int start = state.random.nextInt(state.size - DROP_BATCH + 1);
+        List<String> targets = new ArrayList<>(DROP_BATCH);
+        List<String> messages = new ArrayList<>(DROP_BATCH);
+        for (int i = 0; i < DROP_BATCH; i++) {
+            targets.add(state.ids[start + i]);
+            messages.add("Commit");
+        }
+        blackhole.consume(state.repo.dropAll(targets));
+        List<String> added = state.repo.commitAll(messages);
+        for (int i = 0; i < DROP_BATCH; i++) {
+            state.ids[start + i] = added.get(i);
+        }
+    }
+
+    // Times one synchronize of a freshly built pair per iteration.
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public int synchronize(Pair state) {
+        state.repo.synchronize(state.other);
+        return state.repo.getRepoSize();
+    }
+
+    // Takes a repository and a number of commits (P) and makes that many
+    // commits in it (B). Returns the IDs of the new commits (R).
+    private static String[] fill(Subject repo, int size) {
+        String[] ids = new String[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = repo.commit("Commit " + i);
+        }
+        return ids;
+    }
+}
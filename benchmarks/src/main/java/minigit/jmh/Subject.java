@@ -0,0 +1,58 @@
+package minigit.jmh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+// The repository operations the benchmarks drive. JMH only runs benchmark
+// classes in a named package, and a named package cannot refer to the
+// default package Mini-Git lives in, so the benchmarks go through this
+// interface and RepositorySubject, in the default package, implements it
+// over a Repository. Only one class implements it, so the JIT inlines
+// every call.
+public interface Subject {
+    // Takes a name (P) and returns a new, empty repository with that name
+    // (R). Throws an IllegalStateException if RepositorySubject is missing
+    // from the classpath (E).
+    static Subject create(String name) {
+        try {
+            return (Subject) Class.forName("RepositorySubject")
+                    .getConstructor(String.class).newInstance(name);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("RepositorySubject is not on the classpath", e);
+        }
+    }
+
+    String commit(String message);
+
+    List<String> commitAll(List<String> messages);
+
+    boolean contains(String targetId);
+
+    int getRepoSize();
+
+    String getHistory(int n);
+
+    int search(String query, int limit);
+
+    boolean drop(String targetId);
+
+    List<Boolean> dropAll(List<String> targetIds);
+
+    void synchronize(Subject other);
+
+    // Records every operation in a fresh RepositoryMetrics (B).
+    void recordMetrics();
+
+    // Gives this repository and the other one (P) a shared clock that
+    // gives every commit its own timestamp, so histories built by
+    // committing to each in turn interleave in time exactly as they were
+    // built (B).
+    void shareClock(Subject other);
+
+    void writeSnapshot(Path file) throws IOException;
+
+    // Loads a snapshot from the given file (P) and returns the size of
+    // the repository in it (R).
+    int loadSnapshot(Path file) throws IOException;
+}